@@ -0,0 +1,1045 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bank account: holder details, fixed-point cents balance, binary transaction history and
+ * PIN hash. Mutations are validated, applied and journaled (see AccountJournal) before they
+ * are acknowledged.
+ *
+ * Balance: every mutation is an {@link Op} that carries the resulting balance and is applied
+ * by one compare-and-swap of {@code head}, retried if another mutation got there first (so an
+ * insufficient-funds check is re-made against the newer balance). Reading the balance is a
+ * plain volatile read; no lock is taken on the deposit/withdraw path until the op is applied.
+ *
+ * Journal and history: applied ops form a chain (newest first). Whoever holds {@code lock}
+ * drains it oldest first, journaling each op and appending its history record (flat
+ * combining), so one thread records a burst of concurrent mutations while the others only
+ * wait for their op to be marked done. Journal and history order therefore always match the
+ * order in which ops were applied.
+ *
+ * Striped deposits: an account that takes many concurrent deposits but few reads can opt in
+ * with enableStripedDeposits(). Its deposits are then pushed onto one of several padded stripe
+ * cells (picked per thread, like LongAdder) instead of all CASing {@code head}. The lock holder
+ * folds the stripes into the chain before draining, and withdrawals, transfers out and balance
+ * reads do so first under the lock, so they still see every acknowledged deposit.
+ *
+ * Migration: migrateOut() seals an account that moves to another cluster node (see
+ * ClusterRouter) with a final op; every mutation applied after it is refused, so the balance
+ * handed over is final. migrateIn() recreates it on the receiving node.
+ *
+ * Notes:
+ * - The lock also guards history reads, snapshots, replay and transfers (which take both
+ *   accounts' locks in account-number order). It is a ReentrantLock, and waiting for
+ *   durability happens after it is released, so a virtual thread never pins its carrier here.
+ * - Deposits stop at MAX_BALANCE_CENTS, leaving headroom for one transfer in flight, so a
+ *   transfer credit can never overflow after its debit is applied.
+ */
+class Account {
+    private final String accountNumber;
+    private final String accountHolderName;
+    private volatile Op head; // newest applied op; its balanceCents is the balance (fixed-point, see Money)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TransactionHistory history; // binary records, rendered only when viewed; guarded by lock
+    private final byte[] pinHash; // raw 32-byte SHA-256 hash of the PIN
+    private volatile AccountJournal journal; // swapped once, before the account is shared
+    private Op drained; // newest op already journaled and recorded; guarded by lock
+    private long lastLsn; // journal LSN of the newest drained op; see AccountSnapshot. Guarded by lock
+    private long lastHistoryMicros; // history timestamps never go backwards; see TransactionHistory
+    private volatile Op[] stripes; // pending striped deposits, one stack per STRIPE_PADth slot; null unless enabled
+    static final long MAX_BALANCE_CENTS = Long.MAX_VALUE - Money.MAX_TRANSACTION_CENTS;
+    private static final int HISTORY_PAGE_SIZE = 64;
+    private static final int SETTLE_SPINS = 64;
+    private static final int STRIPE_PAD = 16; // slots between used stripe cells, so each sits on its own cache line
+    private static final VarHandle HEAD;
+    private static final VarHandle STRIPE = MethodHandles.arrayElementVarHandle(Op[].class);
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(Account.class, "head", Op.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * One applied mutation. Its fields are written before the CAS that publishes it and are
+     * read only by the draining thread afterwards, except {@code done} and {@code lsn}, which
+     * the drainer hands back to the mutator.
+     */
+    private static final class Op {
+        byte type; // HistoryRecord type
+        long cents;
+        long balanceCents; // this account's balance after the op
+        long epochMillis;
+        Account counterparty; // transfers only
+        long counterpartyBalanceCents; // transfer source: the destination's balance after the op
+        Op peer; // transfer source: the destination's TRANSFER_IN op, which shares this op's record
+        Op prev; // next older op (in its stripe, until folded into the chain); cut once this op is drained
+        Op next; // next newer op; set while draining
+        long lsn;
+        boolean limitReached; // striped deposit refused when folded in: the balance limit was reached
+        boolean moved; // migrateOut's seal: nothing is applied after it
+        volatile boolean done; // journaled and recorded (or refused)
+
+        /** An already-recorded op holding just a balance (creation, replay, snapshot restore). */
+        static Op settled(long balanceCents) {
+            Op op = new Op();
+            op.balanceCents = balanceCents;
+            op.done = true;
+            return op;
+        }
+    }
+    private static final ThreadLocal<DurabilityBatch> DURABILITY_BATCH = new ThreadLocal<>();
+
+    /**
+     * Lets a thread that acknowledges many operations at once (a BankServer event loop) wait
+     * for durability once per batch instead of once per mutation. While installed, mutations on
+     * that thread only record their LSN here; the thread must call awaitAll() before it
+     * acknowledges any of them.
+     */
+    static final class DurabilityBatch {
+        private AccountJournal journal;
+        private long lsn;
+
+        void awaitAll() {
+            if (journal == null) return;
+            AccountJournal j = journal;
+            journal = null;
+            j.awaitDurable(lsn);
+        }
+
+        /**
+         * Hands the pending wait to another thread instead: returns the newest LSN recorded
+         * since the last awaitAll() or detach() (0 if none) and forgets it. Only for a thread
+         * whose mutations all go to one journal (CommandSequencer).
+         */
+        long detach() {
+            long pending = journal == null ? 0L : lsn;
+            journal = null;
+            return pending;
+        }
+
+        private void add(AccountJournal j, long newLsn) {
+            if (journal != null && journal != j) awaitAll();
+            lsn = journal == null ? newLsn : Math.max(lsn, newLsn);
+            journal = j;
+        }
+    }
+
+    /** Installs (or, with null, removes) the calling thread's durability batch. */
+    static void batchDurability(DurabilityBatch batch) {
+        if (batch == null) DURABILITY_BATCH.remove();
+        else DURABILITY_BATCH.set(batch);
+    }
+
+    private static void awaitDurable(AccountJournal journal, long lsn) {
+        DurabilityBatch batch = DURABILITY_BATCH.get();
+        if (batch == null) journal.awaitDurable(lsn);
+        else batch.add(journal, lsn);
+    }
+
+    public Account(String accountNumber, String accountHolderName, BigDecimal initialDeposit, String plainPin) {
+        this(accountNumber, accountHolderName, initialDeposit, plainPin, AccountJournal.NONE, HistoryStore.HEAP);
+    }
+
+    /**
+     * Creates the account and blocks until its creation record is durable in {@code journal}
+     * (under a DurabilityBatch, the wait is left to the batch like any other mutation's).
+     */
+    Account(String accountNumber, String accountHolderName, BigDecimal initialDeposit, String plainPin,
+            AccountJournal journal, HistoryStore historyStore) {
+        this(accountNumber, accountHolderName, initialDeposit, plainPin, journal, historyStore, true);
+    }
+
+    private Account(String accountNumber, String accountHolderName, BigDecimal initialDeposit, String plainPin,
+                    AccountJournal journal, HistoryStore historyStore, boolean awaitDurable) {
+        this(accountNumber, accountHolderName, initialDeposit != null && initialDeposit.compareTo(BigDecimal.ZERO) > 0
+                ? Money.toCents(initialDeposit) : 0L, plainPin, journal, historyStore, awaitDurable);
+    }
+
+    private Account(String accountNumber, String accountHolderName, long initialCents, String plainPin,
+                    AccountJournal journal, HistoryStore historyStore, boolean awaitDurable) {
+        this(accountNumber, accountHolderName, hashPin(plainPin), journal, historyStore.newHistory(accountNumber));
+        long now = System.currentTimeMillis();
+        long lsn = journal.logCreate(now, accountNumber, accountHolderName, pinHash, initialCents);
+        applyCreate(lsn, now, initialCents);
+        if (awaitDurable) awaitDurable(journal, lsn);
+    }
+
+    /**
+     * Creates and journals the account without waiting for durability, for factories that run
+     * under a lock (AccountRegistry.createIfAbsent); call awaitDurable() once outside it before
+     * acknowledging the create.
+     */
+    static Account createPending(String accountNumber, String accountHolderName, BigDecimal initialDeposit,
+                                 String plainPin, AccountJournal journal, HistoryStore historyStore) {
+        return new Account(accountNumber, accountHolderName, initialDeposit, plainPin, journal, historyStore, false);
+    }
+
+    /** createPending() for an initial deposit already in cents (none if not positive), with no BigDecimal. */
+    static Account createPendingCents(String accountNumber, String accountHolderName, long initialCents,
+                                      String plainPin, AccountJournal journal, HistoryStore historyStore) {
+        return new Account(accountNumber, accountHolderName, Math.max(0L, initialCents), plainPin, journal,
+                historyStore, false);
+    }
+
+    /**
+     * Blocks until every mutation applied to this account so far is durable (under a
+     * DurabilityBatch, the wait is left to the batch).
+     */
+    void awaitDurable() {
+        long lsn;
+        lock.lock();
+        try {
+            drain();
+            lsn = lastLsn;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(journal, lsn);
+    }
+
+    private Account(String accountNumber, String accountHolderName, byte[] pinHash, AccountJournal journal,
+                    TransactionHistory history) {
+        this.accountNumber = accountNumber;
+        this.accountHolderName = accountHolderName;
+        this.history = history;
+        this.head = this.drained = Op.settled(0L);
+        this.pinHash = pinHash;
+        this.journal = journal;
+    }
+
+    /**
+     * Rebuilds an account from its creation record without logging it again. Recovered accounts
+     * start detached; attachJournal() is called once replay has finished.
+     */
+    static Account restore(long lsn, long epochMillis, String accountNumber, String accountHolderName, byte[] pinHash,
+                           long initialCents, HistoryStore historyStore) {
+        Account account = new Account(accountNumber, accountHolderName, pinHash.clone(), AccountJournal.NONE,
+                historyStore.newHistory(accountNumber));
+        account.applyCreate(lsn, epochMillis, initialCents);
+        return account;
+    }
+
+    /** Rebuilds an account from a snapshot entry; its history is already in {@code history}. */
+    static Account restoreSnapshot(String accountNumber, String accountHolderName, byte[] pinHash, long balanceCents,
+                                   long lastLsn, TransactionHistory history) {
+        Account account = new Account(accountNumber, accountHolderName, pinHash, AccountJournal.NONE, history);
+        account.head = account.drained = Op.settled(balanceCents);
+        account.lastLsn = lastLsn;
+        if (history.size() > 0) {
+            HistoryRecord newest = new HistoryRecord();
+            history.read(history.size() - 1, newest);
+            account.lastHistoryMicros = newest.epochMicros;
+        }
+        return account;
+    }
+
+    /**
+     * Copies everything a snapshot stores under the lock, so balance, history size and lastLsn
+     * describe the same instant: the balance is the drained op's, not head's, since ops applied
+     * but not yet journaled are left to the log.
+     */
+    void captureSnapshot(AccountSnapshot.Entry into) {
+        lock.lock();
+        try {
+            drain();
+            into.accountNumber = accountNumber;
+            into.holderName = accountHolderName;
+            into.pinHash = pinHash;
+            into.balanceCents = drained.balanceCents;
+            into.lastLsn = lastLsn;
+            into.historySize = history.size();
+            into.historyTail = history.tailPointer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void attachJournal(AccountJournal journal) {
+        this.journal = journal;
+    }
+
+    private void applyCreate(long lsn, long epochMillis, long initialCents) {
+        lock.lock();
+        try {
+            lastLsn = lsn;
+            long balance = 0L;
+            if (initialCents > 0 && initialCents <= Money.MAX_TRANSACTION_CENTS) {
+                balance = initialCents;
+                addTransaction(epochMillis, HistoryRecord.DEPOSIT, initialCents, balance);
+            }
+            addTransaction(epochMillis, HistoryRecord.CREATED, Math.max(0L, initialCents), balance);
+            head = drained = Op.settled(balance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static byte[] hashPin(String pin) {
+        return PinHasher.hash(pin);
+    }
+
+    public boolean verifyPin(String plainPin) {
+        if (plainPin == null) return false;
+        long timer = BankMetrics.VERIFY_PIN.start();
+        boolean matches = PinHasher.matches(plainPin, pinHash);
+        BankMetrics.VERIFY_PIN.stop(timer);
+        return matches;
+    }
+
+    /** Deposits {@code amount}; a null amount is NON_POSITIVE. */
+    public TransactionResult deposit(BigDecimal amount) {
+        if (amount == null) return TransactionResult.NON_POSITIVE;
+        return depositCents(Money.toCents(amount));
+    }
+
+    /** Allocation-free deposit of an amount already expressed in cents; no String on any outcome. */
+    TransactionResult depositCents(long cents) {
+        long timer = BankMetrics.DEPOSIT.start();
+        TransactionResult result = applyDeposit(cents);
+        BankMetrics.DEPOSIT.stop(timer);
+        return result;
+    }
+
+    private TransactionResult applyDeposit(long cents) {
+        if (cents <= 0) return TransactionResult.NON_POSITIVE;
+        if (cents > Money.MAX_TRANSACTION_CENTS) return TransactionResult.OVER_TRANSACTION_LIMIT;
+
+        Op op = new Op();
+        op.type = HistoryRecord.DEPOSIT;
+        op.cents = cents;
+        op.epochMillis = System.currentTimeMillis();
+        Op[] cells = stripes;
+        if (cells != null) {
+            pushStriped(cells, op);
+            settle(op);
+            if (op.limitReached) return head.moved ? TransactionResult.MOVED : TransactionResult.OVER_BALANCE_LIMIT;
+            awaitDurable(journal, op.lsn);
+            return TransactionResult.OK;
+        }
+        Op h;
+        do {
+            h = head;
+            if (h.moved) return TransactionResult.MOVED;
+            if (h.balanceCents > MAX_BALANCE_CENTS - cents) return TransactionResult.OVER_BALANCE_LIMIT;
+            op.balanceCents = h.balanceCents + cents;
+            op.prev = h;
+        } while (!HEAD.compareAndSet(this, h, op));
+        settle(op);
+        awaitDurable(journal, op.lsn);
+        return TransactionResult.OK;
+    }
+
+    /** Withdraws {@code amount}; a null amount is NON_POSITIVE. */
+    public TransactionResult withdraw(BigDecimal amount) {
+        if (amount == null) return TransactionResult.NON_POSITIVE;
+        return withdrawCents(Money.toCents(amount));
+    }
+
+    /**
+     * Allocation-free withdrawal of an amount already expressed in cents. An attempt refused
+     * for INSUFFICIENT_FUNDS is still journaled and recorded in history.
+     */
+    TransactionResult withdrawCents(long cents) {
+        long timer = BankMetrics.WITHDRAW.start();
+        TransactionResult result = applyWithdraw(cents);
+        BankMetrics.WITHDRAW.stop(timer);
+        return result;
+    }
+
+    private TransactionResult applyWithdraw(long cents) {
+        if (cents <= 0) return TransactionResult.NON_POSITIVE;
+        if (cents > Money.MAX_TRANSACTION_CENTS) return TransactionResult.OVER_TRANSACTION_LIMIT;
+
+        if (stripes != null) reconcileStripes();
+        Op op = new Op();
+        op.cents = cents;
+        op.epochMillis = System.currentTimeMillis();
+        boolean rejected;
+        Op h;
+        do {
+            h = head;
+            if (h.moved) return TransactionResult.MOVED;
+            rejected = cents > h.balanceCents;
+            op.type = rejected ? HistoryRecord.WITHDRAW_REJECTED : HistoryRecord.WITHDRAW;
+            op.balanceCents = rejected ? h.balanceCents : h.balanceCents - cents;
+            op.prev = h;
+        } while (!HEAD.compareAndSet(this, h, op));
+        settle(op);
+        awaitDurable(journal, op.lsn);
+        return rejected ? TransactionResult.INSUFFICIENT_FUNDS : TransactionResult.OK;
+    }
+
+    /** Re-applies a logged deposit during recovery, unless a snapshot already covers it. */
+    void replayDeposit(long lsn, long epochMillis, long cents, long balanceAfter) {
+        lock.lock();
+        try {
+            if (lsn <= lastLsn) return;
+            lastLsn = lsn;
+            head = drained = Op.settled(Money.addExact(drained.balanceCents, cents));
+            addTransaction(epochMillis, HistoryRecord.DEPOSIT, cents, balanceAfter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Re-applies a logged withdrawal (or rejected attempt) during recovery, unless a snapshot already covers it. */
+    void replayWithdraw(long lsn, long epochMillis, long cents, long balanceAfter, boolean rejected) {
+        lock.lock();
+        try {
+            if (lsn <= lastLsn) return;
+            lastLsn = lsn;
+            if (rejected) {
+                addTransaction(epochMillis, HistoryRecord.WITHDRAW_REJECTED, cents, balanceAfter);
+            } else {
+                head = drained = Op.settled(Money.subtractExact(drained.balanceCents, cents));
+                addTransaction(epochMillis, HistoryRecord.WITHDRAW, cents, balanceAfter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Transfers {@code amount} from one account to another; a null amount is NON_POSITIVE. */
+    public static TransactionResult transfer(Account from, Account to, BigDecimal amount) {
+        if (amount == null) return TransactionResult.NON_POSITIVE;
+        return transferCents(from, to, Money.toCents(amount));
+    }
+
+    /**
+     * Moves {@code cents} from one account to another. Both locks are taken in account-number
+     * order, so opposite transfers between the same pair cannot deadlock; the debit and credit
+     * are still CAS-applied since deposits and withdrawals do not take the lock. The pair is
+     * journaled as a single record, and each side gets a history entry naming the other.
+     */
+    static TransactionResult transferCents(Account from, Account to, long cents) {
+        long timer = BankMetrics.TRANSFER.start();
+        TransactionResult result = applyTransfer(from, to, cents);
+        BankMetrics.TRANSFER.stop(timer);
+        return result;
+    }
+
+    private static TransactionResult applyTransfer(Account from, Account to, long cents) {
+        if (from == to) return TransactionResult.SAME_ACCOUNT;
+        if (cents <= 0) return TransactionResult.NON_POSITIVE;
+        if (cents > Money.MAX_TRANSACTION_CENTS) return TransactionResult.OVER_TRANSACTION_LIMIT;
+
+        Account first = from.accountNumber.compareTo(to.accountNumber) < 0 ? from : to;
+        Account second = first == from ? to : from;
+        Op debit = new Op();
+        debit.cents = cents;
+        debit.epochMillis = System.currentTimeMillis();
+        debit.counterparty = to;
+        boolean rejected;
+        first.lock.lock();
+        try {
+            second.lock.lock();
+            try {
+                if (from.head.moved || to.head.moved) { // sealed under the lock, so this cannot change now
+                    return TransactionResult.MOVED;
+                }
+                // Deposits to the destination stop at MAX_BALANCE_CENTS, so once this check passes
+                // the credit below cannot overflow, whatever lands on the destination meanwhile.
+                if (to.head.balanceCents > MAX_BALANCE_CENTS - cents) return TransactionResult.OVER_BALANCE_LIMIT;
+                from.foldStripes();
+                Op h;
+                do {
+                    h = from.head;
+                    rejected = cents > h.balanceCents;
+                    debit.type = rejected ? HistoryRecord.TRANSFER_REJECTED : HistoryRecord.TRANSFER_OUT;
+                    debit.balanceCents = rejected ? h.balanceCents : h.balanceCents - cents;
+                    debit.prev = h;
+                } while (!HEAD.compareAndSet(from, h, debit));
+                if (rejected) {
+                    debit.counterpartyBalanceCents = to.head.balanceCents;
+                } else {
+                    Op credit = new Op();
+                    credit.type = HistoryRecord.TRANSFER_IN;
+                    credit.cents = cents;
+                    credit.epochMillis = debit.epochMillis;
+                    credit.counterparty = from;
+                    do {
+                        h = to.head;
+                        credit.balanceCents = h.balanceCents + cents;
+                        credit.prev = h;
+                    } while (!HEAD.compareAndSet(to, h, credit));
+                    debit.peer = credit;
+                    debit.counterpartyBalanceCents = credit.balanceCents;
+                    to.drainUntil(credit); // what the destination applied before the credit is journaled first
+                }
+                from.drain(); // journals the transfer and hands its LSN to the credit
+                to.drain();
+            } finally {
+                second.lock.unlock();
+            }
+        } finally {
+            first.lock.unlock();
+        }
+        awaitDurable(from.journal, debit.lsn);
+        return rejected ? TransactionResult.INSUFFICIENT_FUNDS : TransactionResult.OK;
+    }
+
+    /** The destination half of a transfer debited by transferOutCents(), for transferIn(). */
+    static final class Credit {
+        long cents;
+        long epochMillis;
+        long lsn;
+    }
+
+    /**
+     * The source half of a transfer whose destination is applied by another thread (ShardedBank):
+     * checks and debits {@code from} as transferCents() does and journals both sides as one
+     * record, but only reads {@code to}, which must not change until transferIn() credits it. On
+     * OK, {@code credit} is filled in for that call.
+     */
+    static TransactionResult transferOutCents(Account from, Account to, long cents, Credit credit) {
+        long timer = BankMetrics.TRANSFER.start();
+        TransactionResult result = applyTransferOut(from, to, cents, credit);
+        BankMetrics.TRANSFER.stop(timer);
+        return result;
+    }
+
+    private static TransactionResult applyTransferOut(Account from, Account to, long cents, Credit credit) {
+        if (from == to) return TransactionResult.SAME_ACCOUNT;
+        if (cents <= 0) return TransactionResult.NON_POSITIVE;
+        if (cents > Money.MAX_TRANSACTION_CENTS) return TransactionResult.OVER_TRANSACTION_LIMIT;
+
+        Op debit = new Op();
+        debit.cents = cents;
+        debit.epochMillis = System.currentTimeMillis();
+        debit.counterparty = to;
+        boolean rejected;
+        from.lock.lock();
+        try {
+            long toBalance = to.head.balanceCents;
+            if (from.head.moved || to.head.moved) return TransactionResult.MOVED;
+            if (toBalance > MAX_BALANCE_CENTS - cents) return TransactionResult.OVER_BALANCE_LIMIT;
+            from.foldStripes();
+            Op h;
+            do {
+                h = from.head;
+                rejected = cents > h.balanceCents;
+                debit.type = rejected ? HistoryRecord.TRANSFER_REJECTED : HistoryRecord.TRANSFER_OUT;
+                debit.balanceCents = rejected ? h.balanceCents : h.balanceCents - cents;
+                debit.prev = h;
+            } while (!HEAD.compareAndSet(from, h, debit));
+            debit.counterpartyBalanceCents = rejected ? toBalance : toBalance + cents;
+            from.drain();
+        } finally {
+            from.lock.unlock();
+        }
+        if (!rejected) {
+            credit.cents = cents;
+            credit.epochMillis = debit.epochMillis;
+            credit.lsn = debit.lsn;
+        }
+        awaitDurable(from.journal, debit.lsn);
+        return rejected ? TransactionResult.INSUFFICIENT_FUNDS : TransactionResult.OK;
+    }
+
+    /** The destination half of transferOutCents(): applies its credit, journaled with the debit. */
+    void transferIn(Account from, Credit credit) {
+        Op op = new Op();
+        op.type = HistoryRecord.TRANSFER_IN;
+        op.cents = credit.cents;
+        op.epochMillis = credit.epochMillis;
+        op.counterparty = from;
+        op.lsn = credit.lsn;
+        Op h;
+        do {
+            h = head;
+            op.balanceCents = h.balanceCents + credit.cents;
+            op.prev = h;
+        } while (!HEAD.compareAndSet(this, h, op));
+        settle(op);
+        awaitDurable(journal, op.lsn);
+    }
+
+    /**
+     * Re-applies a logged transfer (or rejected attempt) during recovery. Each side is skipped
+     * on its own if a snapshot already covers it, since a fuzzy snapshot may have captured one
+     * account before the transfer and the other after.
+     */
+    static void replayTransfer(Account from, Account to, long lsn, long epochMillis, long cents, long fromBalanceAfter,
+                               long toBalanceAfter, boolean rejected) {
+        Account first = from.accountNumber.compareTo(to.accountNumber) < 0 ? from : to;
+        Account second = first == from ? to : from;
+        first.lock.lock();
+        try {
+            second.lock.lock();
+            try {
+                if (lsn > from.lastLsn) {
+                    from.lastLsn = lsn;
+                    if (rejected) {
+                        from.addTransaction(epochMillis, HistoryRecord.TRANSFER_REJECTED, cents, fromBalanceAfter,
+                                to.accountNumber);
+                    } else {
+                        from.head = from.drained = Op.settled(Money.subtractExact(from.drained.balanceCents, cents));
+                        from.addTransaction(epochMillis, HistoryRecord.TRANSFER_OUT, cents, fromBalanceAfter,
+                                to.accountNumber);
+                    }
+                }
+                if (lsn > to.lastLsn && !rejected) {
+                    to.lastLsn = lsn;
+                    to.head = to.drained = Op.settled(Money.addExact(to.drained.balanceCents, cents));
+                    to.addTransaction(epochMillis, HistoryRecord.TRANSFER_IN, cents, toBalanceAfter, from.accountNumber);
+                }
+            } finally {
+                second.lock.unlock();
+            }
+        } finally {
+            first.lock.unlock();
+        }
+    }
+
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(getBalanceCents());
+    }
+
+    long getBalanceCents() {
+        if (stripes != null) reconcileStripes();
+        return head.balanceCents;
+    }
+
+    // -----------------------
+    // Cluster migration
+    // -----------------------
+
+    /** What an account takes along to another cluster node; see migrateOut() and migrateIn(). */
+    static final class Migration {
+        String holderName;
+        byte[] pinHash;
+        long balanceCents;
+    }
+
+    /** Whether migrateOut() has sealed this account; it only lingers until unregistered. */
+    boolean migrated() {
+        return head.moved;
+    }
+
+    /**
+     * Seals the account, journals its departure and fills {@code into} with its final state,
+     * then waits until the departure is durable (under a DurabilityBatch, the wait is left to
+     * the batch). Returns false, leaving {@code into} alone, if it had already moved.
+     */
+    boolean migrateOut(Migration into) {
+        long lsn;
+        lock.lock();
+        try {
+            if (head.moved) return false;
+            Op seal = Op.settled(0L);
+            seal.moved = true;
+            do { // deposits and withdrawals CAS without the lock: seal only a fully drained chain
+                drain();
+                seal.balanceCents = drained.balanceCents;
+            } while (!HEAD.compareAndSet(this, drained, seal));
+            drained = seal;
+            lsn = journal.logMigrateOut(System.currentTimeMillis(), accountNumber);
+            lastLsn = lsn;
+            into.holderName = accountHolderName;
+            into.pinHash = pinHash.clone();
+            into.balanceCents = seal.balanceCents;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(journal, lsn);
+        return true;
+    }
+
+    /**
+     * Recreates an account arriving from another cluster node and journals its arrival, without
+     * waiting for durability (it runs inside AccountRegistry.createIfAbsent); call awaitDurable()
+     * before acknowledging it. Its history starts here, with a MIGRATED_IN entry.
+     */
+    static Account migrateIn(String accountNumber, String accountHolderName, byte[] pinHash, long balanceCents,
+                             AccountJournal journal, HistoryStore historyStore) {
+        Account account = new Account(accountNumber, accountHolderName, pinHash.clone(), journal,
+                historyStore.newHistory(accountNumber));
+        long now = System.currentTimeMillis();
+        long lsn = journal.logMigrateIn(now, accountNumber, accountHolderName, pinHash, balanceCents);
+        account.applyMigrateIn(lsn, now, balanceCents);
+        return account;
+    }
+
+    /** Rebuilds an account from its arrival record during recovery; see restore(). */
+    static Account restoreMigrated(long lsn, long epochMillis, String accountNumber, String accountHolderName,
+                                   byte[] pinHash, long balanceCents, HistoryStore historyStore) {
+        Account account = new Account(accountNumber, accountHolderName, pinHash.clone(), AccountJournal.NONE,
+                historyStore.newHistory(accountNumber));
+        account.applyMigrateIn(lsn, epochMillis, balanceCents);
+        return account;
+    }
+
+    /**
+     * Replays a logged departure: seals the account and returns true if the caller should now
+     * unregister it, or false if a snapshot already covers a later arrival.
+     */
+    boolean replayMigrateOut(long lsn) {
+        lock.lock();
+        try {
+            if (lsn <= lastLsn) return false;
+            lastLsn = lsn;
+            Op seal = Op.settled(drained.balanceCents);
+            seal.moved = true;
+            head = drained = seal;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void applyMigrateIn(long lsn, long epochMillis, long balanceCents) {
+        lock.lock();
+        try {
+            lastLsn = lsn;
+            addTransaction(epochMillis, HistoryRecord.MIGRATED_IN, balanceCents, balanceCents);
+            head = drained = Op.settled(balanceCents);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Switches this account to striped deposits (see the class comment). Meant for accounts
+     * that take far more concurrent deposits than reads; it cannot be switched back.
+     */
+    void enableStripedDeposits() {
+        lock.lock();
+        try {
+            if (stripes == null) stripes = new Op[stripeCount() * STRIPE_PAD];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean stripedDeposits() {
+        return stripes != null;
+    }
+
+    /** One stripe per available processor, rounded up to a power of two. */
+    private static int stripeCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return cpus <= 1 ? 1 : Integer.highestOneBit(cpus - 1) << 1;
+    }
+
+    /** Pushes {@code op} onto this thread's stripe, moving on to the next stripe if that CAS loses. */
+    private static void pushStriped(Op[] cells, Op op) {
+        int mask = cells.length / STRIPE_PAD - 1;
+        int stripe = mix(System.identityHashCode(Thread.currentThread())) & mask;
+        while (true) {
+            int slot = stripe * STRIPE_PAD;
+            Op top = (Op) STRIPE.getVolatile(cells, slot);
+            op.prev = top;
+            if (STRIPE.compareAndSet(cells, slot, top, op)) return;
+            stripe = (stripe + 1) & mask;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Folds pending striped deposits into the chain and records them, under a short lock. */
+    private void reconcileStripes() {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caller holds lock. Applies every deposit waiting in the stripes to the chain, oldest
+     * first within each stripe; a deposit that would pass MAX_BALANCE_CENTS (or land on a moved
+     * account) is refused instead.
+     */
+    private void foldStripes() {
+        Op[] cells = stripes;
+        if (cells == null) return;
+        for (int slot = 0; slot < cells.length; slot += STRIPE_PAD) {
+            Op op = (Op) STRIPE.getAndSet(cells, slot, (Op) null);
+            Op oldest = null;
+            while (op != null) { // reverse the stack through next
+                Op older = op.prev;
+                op.next = oldest;
+                oldest = op;
+                op = older;
+            }
+            for (op = oldest; op != null; ) {
+                Op newer = op.next;
+                Op h;
+                do {
+                    h = head;
+                    op.limitReached = h.moved || h.balanceCents > MAX_BALANCE_CENTS - op.cents;
+                    if (op.limitReached) break;
+                    op.balanceCents = h.balanceCents + op.cents;
+                    op.prev = h;
+                } while (!HEAD.compareAndSet(this, h, op));
+                if (op.limitReached) op.done = true;
+                op = newer;
+            }
+        }
+    }
+
+    /**
+     * Waits until {@code op} has been journaled and recorded: drains the chain itself if the
+     * lock is free, otherwise spins briefly (the holder is most likely draining this op too)
+     * before queueing for the lock.
+     */
+    private void settle(Op op) {
+        for (int spins = 0; !op.done; spins++) {
+            if (spins >= SETTLE_SPINS) {
+                lock.lock();
+            } else if (!lock.tryLock()) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Caller holds lock. Folds in striped deposits, then journals and records every applied op, oldest first. */
+    private void drain() {
+        foldStripes();
+        drainUntil(null);
+    }
+
+    /** Caller holds lock. Like drain(), but stops before {@code stop} (which must have been applied). */
+    private void drainUntil(Op stop) {
+        Op newest = head;
+        if (newest == drained) return;
+        for (Op op = newest; op != drained; op = op.prev) op.prev.next = op;
+        AccountJournal journal = this.journal;
+        for (Op op = drained.next; op != stop; op = op.next) {
+            long lsn;
+            String counterparty = op.counterparty != null ? op.counterparty.accountNumber : null;
+            switch (op.type) {
+                case HistoryRecord.DEPOSIT -> lsn = journal.logDeposit(op.epochMillis, accountNumber, op.cents, op.balanceCents);
+                case HistoryRecord.WITHDRAW, HistoryRecord.WITHDRAW_REJECTED -> lsn = journal.logWithdraw(op.epochMillis,
+                        accountNumber, op.cents, op.balanceCents, op.type == HistoryRecord.WITHDRAW_REJECTED);
+                case HistoryRecord.TRANSFER_OUT, HistoryRecord.TRANSFER_REJECTED -> {
+                    lsn = journal.logTransfer(op.epochMillis, accountNumber, counterparty, op.cents, op.balanceCents,
+                            op.counterpartyBalanceCents, op.type == HistoryRecord.TRANSFER_REJECTED);
+                    if (op.peer != null) op.peer.lsn = lsn;
+                }
+                default -> lsn = op.lsn; // TRANSFER_IN: journaled with its debit, whose thread holds both locks
+            }
+            op.lsn = lsn;
+            lastLsn = lsn;
+            addTransaction(op.epochMillis, op.type, op.cents, op.balanceCents, counterparty);
+            drained.next = null;
+            op.prev = null; // older ops are unreachable once drained
+            drained = op;
+            op.done = true;
+            if (op == newest) break;
+        }
+    }
+
+    public List<String> getTransactionHistoryCopy() {
+        long timer = BankMetrics.HISTORY_READ.start();
+        lock.lock();
+        try {
+            List<String> copy = new ArrayList<>(history.size());
+            HistoryRecord[] page = newHistoryPage();
+            HistoryCursor cursor = history.cursor(0);
+            int n;
+            while ((n = cursor.next(page)) > 0) {
+                for (int i = 0; i < n; i++) copy.add(renderEntry(page[i]));
+            }
+            return copy;
+        } finally {
+            lock.unlock();
+            BankMetrics.HISTORY_READ.stop(timer);
+        }
+    }
+
+    /**
+     * The newest {@code n} entries, rendered oldest first. Reads only those entries (see
+     * queryHistory), however long the history is.
+     */
+    public List<String> getRecentTransactions(int n) {
+        HistoryQuery.Page page = new HistoryQuery.Page(n);
+        queryHistory(HistoryQuery.latest(), page);
+        List<String> recent = new ArrayList<>(page.count);
+        for (int i = page.count - 1; i >= 0; i--) recent.add(renderEntry(page.records[i]));
+        return recent;
+    }
+
+    int historySize() {
+        lock.lock();
+        try {
+            return history.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caller holds lock. */
+    private void addTransaction(long epochMillis, byte type, long amountCents, long balanceAfterCents) {
+        addTransaction(epochMillis, type, amountCents, balanceAfterCents, null);
+    }
+
+    private void addTransaction(long epochMillis, byte type, long amountCents, long balanceAfterCents,
+                                String counterparty) {
+        // A wall clock stepping backwards must not break the time order queryHistory relies on.
+        lastHistoryMicros = Math.max(lastHistoryMicros, epochMillis * 1000L);
+        history.append(lastHistoryMicros, type, amountCents, balanceAfterCents, counterparty);
+    }
+
+    /** Reads up to {@code into.length} records starting at {@code from}; returns how many were read. */
+    int readHistoryPage(int from, HistoryRecord[] into) {
+        long timer = BankMetrics.HISTORY_READ.start();
+        lock.lock();
+        try {
+            return history.cursor(from).next(into);
+        } finally {
+            lock.unlock();
+            BankMetrics.HISTORY_READ.stop(timer);
+        }
+    }
+
+    /** Opens a cursor at {@code from}; page through it with {@link #readHistoryPage(HistoryCursor, HistoryRecord[])}. */
+    HistoryCursor openHistoryCursor(int from) {
+        lock.lock();
+        try {
+            return history.cursor(from);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reads the next page from a cursor opened on this account; returns how many were read. */
+    int readHistoryPage(HistoryCursor cursor, HistoryRecord[] into) {
+        long timer = BankMetrics.HISTORY_READ.start();
+        lock.lock();
+        try {
+            return cursor.next(into);
+        } finally {
+            lock.unlock();
+            BankMetrics.HISTORY_READ.stop(timer);
+        }
+    }
+
+    /**
+     * Fills {@code page} with the next page of {@code query}'s matches and sets its nextToken.
+     *
+     * @throws IllegalArgumentException if query.token was not issued for a query in the same direction
+     */
+    void queryHistory(HistoryQuery query, HistoryQuery.Page page) {
+        long timer = BankMetrics.HISTORY_READ.start();
+        lock.lock();
+        try {
+            int lo = history.lowerBound(query.fromMicros);
+            int hi = query.toMicros == Long.MAX_VALUE ? history.size() : history.lowerBound(query.toMicros);
+            HistoryRecord[] scan = page.scan;
+            int limit = page.records.length;
+            int count = 0;
+            if (!query.newestFirst) {
+                int pos = query.token == 0 ? lo : Math.max(lo, query.tokenIndex());
+                HistoryCursor cursor = history.cursor(pos);
+                while (count < limit && pos < hi) {
+                    int n = cursor.next(scan);
+                    if (n == 0) break;
+                    for (int i = 0; i < n && pos < hi && count < limit; i++, pos++) {
+                        if (query.matches(scan[i].type)) page.records[count++].copyFrom(scan[i]);
+                    }
+                }
+                page.nextToken = pos < hi ? query.tokenAt(pos) : 0L;
+            } else {
+                int end = query.token == 0 ? hi : Math.min(hi, query.tokenIndex());
+                while (count < limit && end > lo) {
+                    int start = Math.max(lo, end - scan.length);
+                    int n = Math.min(history.cursor(start).next(scan), end - start);
+                    for (int i = n - 1; i >= 0 && count < limit; i--, end--) {
+                        if (query.matches(scan[i].type)) page.records[count++].copyFrom(scan[i]);
+                    }
+                }
+                page.nextToken = end > lo ? query.tokenAt(end) : 0L;
+            }
+            page.count = count;
+        } finally {
+            lock.unlock();
+            BankMetrics.HISTORY_READ.stop(timer);
+        }
+    }
+
+    private static HistoryRecord[] newHistoryPage() {
+        HistoryRecord[] page = new HistoryRecord[HISTORY_PAGE_SIZE];
+        for (int i = 0; i < page.length; i++) page[i] = new HistoryRecord();
+        return page;
+    }
+
+    private static String renderEntry(HistoryRecord r) {
+        return HistoryFormatter.get().render(r).toString();
+    }
+
+    public void printAccountSummary() {
+        OutputSink out = BufferedOutputSink.console();
+        printAccountSummary(out);
+        out.flush();
+    }
+
+    /** Streams the summary through HistoryFormatter, building no Strings. */
+    public void printAccountSummary(OutputSink out) {
+        HistoryFormatter f = HistoryFormatter.get();
+        f.begin().append("\n--- Account Summary ---");
+        f.println(out);
+        f.begin().append("Account Number : ").append(accountNumber);
+        f.println(out);
+        f.begin().append("Account Holder : ").append(accountHolderName);
+        f.println(out);
+        Money.appendTo(f.begin().append("Current Balance: "), getBalanceCents());
+        f.println(out);
+    }
+
+    public void printTransactionHistory() {
+        OutputSink out = BufferedOutputSink.console();
+        printTransactionHistory(out);
+        out.flush();
+    }
+
+    /** Streams every entry, a page at a time, with no per-entry garbage (see HistoryFormatter). */
+    public void printTransactionHistory(OutputSink out) {
+        HistoryFormatter f = HistoryFormatter.get();
+        f.begin().append("\n--- Transaction History for Account ").append(accountNumber).append(" (")
+                .append(accountHolderName).append(") ---");
+        f.println(out);
+        HistoryRecord[] page = newHistoryPage();
+        // One cursor for the whole walk: spilled tiers are located once, not once per page.
+        HistoryCursor cursor = openHistoryCursor(0);
+        int n;
+        while ((n = readHistoryPage(cursor, page)) > 0) {
+            for (int i = 0; i < n; i++) f.println(out, page[i]);
+        }
+        if (cursor.position() == 0) out.println("No transactions found.");
+    }
+
+    /** Statement view: the newest {@code n} entries, oldest first. */
+    public void printRecentTransactions(int n, OutputSink out) {
+        HistoryFormatter f = HistoryFormatter.get();
+        f.begin().append("\n--- Recent Transactions for Account ").append(accountNumber).append(" (")
+                .append(accountHolderName).append(") ---");
+        f.println(out);
+        HistoryQuery.Page page = new HistoryQuery.Page(n);
+        queryHistory(HistoryQuery.latest(), page);
+        for (int i = page.count - 1; i >= 0; i--) f.println(out, page.records[i]);
+        if (page.count == 0) out.println("No transactions found.");
+        else if (page.nextToken != 0) {
+            f.begin().append("(Showing the last ").append(page.count).append(" of ").append(historySize()).append(" entries.)");
+            f.println(out);
+        }
+    }
+
+    public String getAccountNumber() { return accountNumber; }
+    public String getAccountHolderName() { return accountHolderName; }
+}
@@ -0,0 +1,68 @@
+/**
+ * Hook through which {@link Account} records every mutation before acknowledging it.
+ *
+ * Notes:
+ * - log*() is called by whichever thread holds the account's lock and is draining its applied
+ *   mutations, oldest first, so records for one account appear in the journal in the same
+ *   order the mutations were applied. It must not block on I/O.
+ * - awaitDurable() is called after the lock is released; it blocks until the record with
+ *   the given sequence number is as durable as the journal's policy promises.
+ * - Records describe outcomes (amount and resulting balance), so replay never re-validates.
+ */
+interface AccountJournal {
+    AccountJournal NONE = new AccountJournal() {
+        @Override
+        public long logCreate(long epochMillis, String accountNumber, String holderName, byte[] pinHash, long initialCents) {
+            return 0L;
+        }
+
+        @Override
+        public long logDeposit(long epochMillis, String accountNumber, long cents, long balanceAfter) {
+            return 0L;
+        }
+
+        @Override
+        public long logWithdraw(long epochMillis, String accountNumber, long cents, long balanceAfter, boolean rejected) {
+            return 0L;
+        }
+
+        @Override
+        public long logTransfer(long epochMillis, String fromAccount, String toAccount, long cents,
+                                long fromBalanceAfter, long toBalanceAfter, boolean rejected) {
+            return 0L;
+        }
+
+        @Override
+        public long logMigrateOut(long epochMillis, String accountNumber) {
+            return 0L;
+        }
+
+        @Override
+        public long logMigrateIn(long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                                 long balanceCents) {
+            return 0L;
+        }
+
+        @Override
+        public void awaitDurable(long lsn) {
+        }
+    };
+
+    long logCreate(long epochMillis, String accountNumber, String holderName, byte[] pinHash, long initialCents);
+
+    long logDeposit(long epochMillis, String accountNumber, long cents, long balanceAfter);
+
+    long logWithdraw(long epochMillis, String accountNumber, long cents, long balanceAfter, boolean rejected);
+
+    /** Called with both accounts' locks held; one record covers both sides of the transfer. */
+    long logTransfer(long epochMillis, String fromAccount, String toAccount, long cents, long fromBalanceAfter,
+                     long toBalanceAfter, boolean rejected);
+
+    /** The account left this node for another cluster node (see ClusterRouter); replay drops it. */
+    long logMigrateOut(long epochMillis, String accountNumber);
+
+    /** The account arrived from another cluster node with {@code balanceCents}; replay recreates it. */
+    long logMigrateIn(long epochMillis, String accountNumber, String holderName, byte[] pinHash, long balanceCents);
+
+    void awaitDurable(long lsn);
+}
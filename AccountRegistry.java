@@ -0,0 +1,53 @@
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Lookup table of accounts by account number, safe to share between threads.
+ */
+interface AccountRegistry {
+    /** Returns the account, or null if none is registered under that number. */
+    Account get(String accountNumber);
+
+    boolean contains(String accountNumber);
+
+    /**
+     * Atomically registers the account built by {@code factory} if the number is still free.
+     * The factory runs at most once and only when the number is free; returns the new account,
+     * or null if the number was already taken.
+     */
+    Account createIfAbsent(String accountNumber, Function<String, Account> factory);
+
+    /**
+     * Runs {@code beforeRemove} on the account (e.g. journaling its departure), then unregisters
+     * it, atomically with respect to whileCreatesPaused(); returns the account, or null if none
+     * is registered under that number.
+     */
+    Account remove(String accountNumber, Consumer<Account> beforeRemove);
+
+    /** Registers an existing account (e.g. during recovery) unless the number is taken. */
+    boolean putIfAbsent(Account account);
+
+    int size();
+
+    boolean isEmpty();
+
+    void forEach(Consumer<Account> action);
+
+    /**
+     * Runs {@code action} on every account whose number starts with {@code prefix} (e.g. a
+     * branch code). The default scans every account; CompactAccountRegistry uses its sorted
+     * key index and visits them in account-number order.
+     */
+    default void forEachWithPrefix(String prefix, Consumer<Account> action) {
+        forEach(account -> {
+            if (account.getAccountNumber().startsWith(prefix)) action.accept(account);
+        });
+    }
+
+    /**
+     * Runs {@code action} while no createIfAbsent() is in progress, so every account whose
+     * creation was journaled before it ran is already visible to get() and forEach().
+     */
+    <T> T whileCreatesPaused(Supplier<T> action);
+}
@@ -0,0 +1,379 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshots of the account table, so a restart loads the newest snapshot and
+ * replays only the WAL records written after it instead of the whole log.
+ *
+ * File layout (big-endian), named snapshot-<walLsn>.snap:
+ *   header : int magic | int version | long walOffset | long walLsn | int historyShards
+ *   chunk  : int length | int crc32(entries) | int entryCount | entries   (repeated)
+ *   entry  : short len + account number | short len + holder name | 32-byte PIN hash |
+ *            long balanceCents | long lastLsn | int historySize | long historyTail
+ *   trailer: int 0 | long accountCount | historyShards x long nextBlock | int crc32(header + trailer)
+ *
+ * Snapshots are fuzzy: mutations continue while one is written. (walOffset, walLsn) is the
+ * WAL position taken (with creates paused) before the first account is read, and each entry
+ * is copied under its account's lock together with the LSN of the newest mutation it
+ * reflects. Recovery replays from walOffset and skips, per account, every record at or below
+ * that account's lastLsn (see Account.replay*).
+ *
+ * Notes:
+ * - History is not copied: entries point into the MappedHistoryStore segment files, which
+ *   are forced before the snapshot is published, so snapshots need --history-dir.
+ * - Chunks (~1 MiB each) carry their own checksum, so a restart decodes them on all cores.
+ * - A snapshot is written to snapshot.tmp, forced, then atomically renamed; older snapshots
+ *   are deleted only after that, so a crash never leaves the directory without a valid one.
+ */
+final class AccountSnapshot implements Closeable {
+    private static final int MAGIC = 0x424E4B53; // "BNKS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 28;
+    private static final int CHUNK_HEADER_BYTES = 12;
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    /** One account as captured by Account.captureSnapshot(); reused across accounts. */
+    static final class Entry {
+        String accountNumber;
+        String holderName;
+        byte[] pinHash;
+        long balanceCents;
+        long lastLsn;
+        int historySize;
+        long historyTail;
+    }
+
+    /** Result of load(): where WAL replay resumes, and the reopened history store. */
+    static final class Loaded {
+        long walOffset;
+        long walLsn;
+        long accounts;
+        MappedHistoryStore historyStore;
+    }
+
+    private final Path dir;
+    private final AccountRegistry accounts;
+    private final WriteAheadLog wal;
+    private final MappedHistoryStore historyStore;
+    private final long intervalMillis;
+    private final Object signal = new Object();
+    private final Thread thread;
+    private boolean closed; // guarded by signal
+
+    private AccountSnapshot(Path dir, AccountRegistry accounts, WriteAheadLog wal, MappedHistoryStore historyStore,
+                            long intervalMillis) {
+        this.dir = dir;
+        this.accounts = accounts;
+        this.wal = wal;
+        this.historyStore = historyStore;
+        this.intervalMillis = intervalMillis;
+        this.thread = intervalMillis > 0 ? new Thread(this::runPeriodically, "snapshotter") : null;
+    }
+
+    /**
+     * Starts taking a snapshot every {@code intervalSeconds} in the background (never, if 0);
+     * close() always takes a final one.
+     */
+    static AccountSnapshot start(Path dir, AccountRegistry accounts, WriteAheadLog wal, MappedHistoryStore historyStore,
+                                 long intervalSeconds) throws IOException {
+        Files.createDirectories(dir);
+        AccountSnapshot snapshots = new AccountSnapshot(dir, accounts, wal, historyStore, intervalSeconds * 1000L);
+        if (snapshots.thread != null) {
+            snapshots.thread.setDaemon(true);
+            snapshots.thread.start();
+        }
+        return snapshots;
+    }
+
+    private void runPeriodically() {
+        while (true) {
+            synchronized (signal) {
+                if (!closed) {
+                    try {
+                        signal.wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+            }
+            try {
+                take();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("ERROR: Snapshot failed — " + e.getMessage());
+            }
+        }
+    }
+
+    /** Writes a new snapshot and deletes the older ones; returns its path. */
+    synchronized Path take() throws IOException {
+        long[] mark = accounts.whileCreatesPaused(wal::mark);
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(mark[0]).putLong(mark[1]).putInt(historyStore.shardCount());
+            writeFully(channel, header.flip());
+            ChunkWriter out = new ChunkWriter(channel);
+            Entry entry = new Entry();
+            try {
+                accounts.forEach(account -> {
+                    account.captureSnapshot(entry);
+                    out.put(entry);
+                });
+                out.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // Entries may reflect records appended after the mark; they must not outlive the WAL.
+            wal.awaitDurable(wal.lastLsn());
+            long[] nextBlocks = historyStore.nextBlocks();
+            historyStore.force();
+            ByteBuffer trailer = ByteBuffer.allocate(4 + 8 + nextBlocks.length * 8 + 4);
+            trailer.putInt(0).putLong(out.accounts);
+            for (long next : nextBlocks) trailer.putLong(next);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_BYTES);
+            crc.update(trailer.array(), 0, trailer.position());
+            trailer.putInt((int) crc.getValue());
+            writeFully(channel, trailer.flip());
+            channel.force(true);
+        }
+        Path file = dir.resolve(String.format("%s%020d%s", PREFIX, mark[1], SUFFIX));
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : old) if (!p.equals(file)) Files.deleteIfExists(p);
+        }
+        return file;
+    }
+
+    /** Stops the background thread and takes a final snapshot. */
+    @Override
+    public void close() throws IOException {
+        synchronized (signal) {
+            if (closed) return;
+            closed = true;
+            signal.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        take();
+    }
+
+    /** Returns the newest snapshot in {@code dir}, or null if there is none. */
+    static Path latest(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return null;
+        Path newest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : files) {
+                if (newest == null || p.getFileName().toString().compareTo(newest.getFileName().toString()) > 0) {
+                    newest = p;
+                }
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Registers every account of {@code file} in {@code accounts} and reopens the history
+     * segments in {@code historyDir} they point into. Chunks are decoded in parallel, one
+     * task per chunk, while this thread keeps reading the file.
+     *
+     * @throws IOException if the file is truncated or fails a checksum
+     */
+    static Loaded load(Path file, Path historyDir, AccountRegistry accounts) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0L);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IOException("Not an account snapshot: " + file);
+            Loaded loaded = new Loaded();
+            loaded.walOffset = header.getLong(8);
+            loaded.walLsn = header.getLong(16);
+            int shards = header.getInt(24);
+            if (shards < 1) throw new IOException("Corrupt snapshot header: " + file);
+
+            // Find the trailer first: the history store must be open before any entry is decoded.
+            long position = HEADER_BYTES;
+            ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+            List<Long> chunkOffsets = new ArrayList<>();
+            while (true) {
+                chunkHeader.clear().limit(4);
+                readFully(channel, chunkHeader, position);
+                int length = chunkHeader.getInt(0);
+                if (length == 0) break;
+                if (length < 0) throw new IOException("Corrupt snapshot chunk: " + file);
+                chunkOffsets.add(position);
+                position += CHUNK_HEADER_BYTES + length;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4 + 8 + shards * 8 + 4);
+            readFully(channel, trailer, position);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_BYTES);
+            crc.update(trailer.array(), 0, trailer.capacity() - 4);
+            if ((int) crc.getValue() != trailer.getInt(trailer.capacity() - 4)) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            long expectedCount = trailer.getLong(4);
+            long[] nextBlocks = new long[shards];
+            for (int i = 0; i < shards; i++) nextBlocks[i] = trailer.getLong(12 + i * 8);
+
+            MappedHistoryStore historyStore = MappedHistoryStore.openExisting(historyDir, nextBlocks);
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "snapshot-loader");
+                t.setDaemon(true);
+                return t;
+            });
+            Semaphore inFlight = new Semaphore(threads * 2);
+            try {
+                List<Future<Integer>> decoded = new ArrayList<>(chunkOffsets.size());
+                for (long offset : chunkOffsets) {
+                    chunkHeader.clear();
+                    readFully(channel, chunkHeader, offset);
+                    ByteBuffer chunk = ByteBuffer.allocate(chunkHeader.getInt(0));
+                    readFully(channel, chunk, offset + CHUNK_HEADER_BYTES);
+                    int expectedCrc = chunkHeader.getInt(4);
+                    int entries = chunkHeader.getInt(8);
+                    inFlight.acquire();
+                    decoded.add(pool.submit(() -> {
+                        try {
+                            return decodeChunk(chunk.flip(), expectedCrc, entries, historyStore, accounts);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                }
+                long count = 0;
+                for (Future<Integer> f : decoded) count += f.get();
+                if (count != expectedCount) throw new IOException("Snapshot account count mismatch: " + file);
+                loaded.accounts = count;
+                loaded.historyStore = historyStore;
+                return loaded;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                historyStore.close();
+                throw new IOException("Interrupted while loading snapshot " + file, e);
+            } catch (ExecutionException e) {
+                historyStore.close();
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new IOException("Failed to load snapshot " + file + ": " + e.getCause(), e.getCause());
+            } catch (IOException | RuntimeException e) {
+                historyStore.close();
+                throw e;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static int decodeChunk(ByteBuffer chunk, int expectedCrc, int entries, MappedHistoryStore historyStore,
+                                   AccountRegistry accounts) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 0, chunk.limit());
+        if ((int) crc.getValue() != expectedCrc) throw new IOException("Snapshot chunk checksum mismatch");
+        byte[] array = chunk.array();
+        for (int i = 0; i < entries; i++) {
+            String number = getString(chunk, array);
+            String holder = getString(chunk, array);
+            byte[] pinHash = new byte[PinHasher.HASH_BYTES];
+            chunk.get(pinHash);
+            long balance = chunk.getLong();
+            long lastLsn = chunk.getLong();
+            int historySize = chunk.getInt();
+            long historyTail = chunk.getLong();
+            accounts.putIfAbsent(Account.restoreSnapshot(number, holder, pinHash, balance, lastLsn,
+                    historyStore.restore(number, historySize, historyTail)));
+        }
+        if (chunk.hasRemaining()) throw new IOException("Snapshot chunk has trailing bytes");
+        return entries;
+    }
+
+    private static String getString(ByteBuffer chunk, byte[] array) {
+        int len = chunk.getShort() & 0xFFFF;
+        String s = new String(array, chunk.position(), len, StandardCharsets.UTF_8);
+        chunk.position(chunk.position() + len);
+        return s;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) throw new IOException("Truncated snapshot");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) channel.write(src);
+    }
+
+    /** Packs entries into checksummed chunks of about CHUNK_BYTES and writes each one out. */
+    private static final class ChunkWriter {
+        final FileChannel channel;
+        final CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_HEADER_BYTES + CHUNK_BYTES);
+        int entries;
+        long accounts;
+
+        ChunkWriter(FileChannel channel) {
+            this.channel = channel;
+            buf.position(CHUNK_HEADER_BYTES);
+        }
+
+        void put(Entry e) {
+            byte[] number = e.accountNumber.getBytes(StandardCharsets.UTF_8);
+            byte[] holder = e.holderName.getBytes(StandardCharsets.UTF_8);
+            int needed = 2 + number.length + 2 + holder.length + PinHasher.HASH_BYTES + 28;
+            if (buf.remaining() < needed) {
+                if (entries > 0) flush();
+                if (buf.remaining() < needed) {
+                    buf = ByteBuffer.allocate(CHUNK_HEADER_BYTES + needed);
+                    buf.position(CHUNK_HEADER_BYTES);
+                }
+            }
+            buf.putShort((short) number.length).put(number);
+            buf.putShort((short) holder.length).put(holder);
+            buf.put(e.pinHash, 0, PinHasher.HASH_BYTES);
+            buf.putLong(e.balanceCents).putLong(e.lastLsn).putInt(e.historySize).putLong(e.historyTail);
+            entries++;
+            accounts++;
+        }
+
+        void flush() {
+            if (entries == 0) return;
+            int length = buf.position() - CHUNK_HEADER_BYTES;
+            crc.reset();
+            crc.update(buf.array(), CHUNK_HEADER_BYTES, length);
+            buf.putInt(0, length).putInt(4, (int) crc.getValue()).putInt(8, entries);
+            try {
+                writeFully(channel, buf.flip());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buf.clear().position(CHUNK_HEADER_BYTES);
+            entries = 0;
+        }
+    }
+}
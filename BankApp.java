@@ -1,435 +1,476 @@
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.LongSupplier;
 
 /**
  * Menu-driven bank simulation with PIN-based authentication and robust input validation.
  *
  * Features:
- * - Account (encapsulates account data, balance with BigDecimal, transaction history, and PIN hash)
- * - BankApp (driver with secure menu, input helpers, delays for smooth UX, and corner-case handling)
+ * - Account (encapsulates account data, fixed-point cents balance, transaction history, and PIN hash)
+ * - BankSession (secure menu, input helpers, delays for smooth UX, and corner-case handling)
+ * - BankApp (driver: storage, batch and server modes, then one console session)
  *
  * Notes:
- * - Money arithmetic uses BigDecimal with scale 2 (cents).
+ * - Balances are held as long cents (see Money); BigDecimal is only used at the API edge.
  * - PINs are stored as SHA-256 hashes (not reversible).
  * - All operations require authentication where applicable.
  * - Delay() method simulates ATM-like smooth UI transitions.
+ * - With --wal, every mutation is logged (see WriteAheadLog) before it is acknowledged.
+ * - With --server, the same accounts are served over TCP (see BankServer) instead of the menu.
+ * - With --router, no accounts are kept here: requests are forwarded to --cluster-node servers
+ *   (see ClusterRouter), and nodes are added from standard input.
+ * - With --replication-port, replicas can follow the WAL (see LogShipper); with --replica-of,
+ *   this process is such a replica, serving reads until "promote" is typed on standard input.
+ * - Status lines go to a BufferedOutputSink over System.out, flushed before reading standard
+ *   input, when main returns and at the end of each shutdown hook. Background components
+ *   (server, replication, router, snapshots, metrics) report on System.err as they happen.
+ * - Account operations are timed into BankMetrics; --metrics-port and --metrics-file export
+ *   them with the gauges and counters registered here (see MetricsExporter), and batch and
+ *   server runs end with a p50/p99/p999 line per operation.
  */
-class Account {
-    private final String accountNumber;
-    private final String accountHolderName;
-    private BigDecimal balance;
-    private final List<String> transactionHistory;
-    private final String pinHash; // SHA-256 hash of the PIN
-    private static final DateTimeFormatter TS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-    public Account(String accountNumber, String accountHolderName, BigDecimal initialDeposit, String plainPin) {
-        this.accountNumber = accountNumber;
-        this.accountHolderName = accountHolderName;
-        this.balance = BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
-        this.transactionHistory = new ArrayList<>();
-        this.pinHash = hashPin(plainPin);
+public class BankApp {
+    private static AccountRegistry accounts = new ConcurrentAccountRegistry(); // replaced before use with --compact-index
+    private static AccountJournal journal = AccountJournal.NONE;
+    private static HistoryStore historyStore = HistoryStore.HEAP;
+    private static AccountSnapshot snapshots;
+    private static LogShipper shipper;
+    private static MetricsExporter metrics;
+    private static final String WAL_LSN_HELP = "Newest LSN in this process's write-ahead log.";
+    private static final BufferedOutputSink console = BufferedOutputSink.console();
 
-        if (initialDeposit != null && initialDeposit.compareTo(BigDecimal.ZERO) > 0) {
-            deposit(initialDeposit, false); // internal deposit doesn't print messages
-            addTransaction("Account created with initial deposit: " + formatMoney(initialDeposit));
-        } else {
-            addTransaction("Account created with no initial deposit.");
+    public static void main(String[] args) {
+        try {
+            start(args);
+        } finally {
+            console.flush(); // modes that return (server, batch, errors) leave their status lines here
         }
     }
 
-    private static String hashPin(String pin) {
+    private static void start(String[] args) {
+        BankOptions options;
+        WriteAheadLog wal;
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(pin.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 not available", e);
+            options = BankOptions.parse(args);
+            LatencyHistogram.setSamplePeriod(options.metricsSample);
+            if (options.compactIndex) accounts = new CompactAccountRegistry();
+            wal = options.routerPort != -1 ? null : openStorage(options);
+        } catch (IllegalArgumentException | IOException e) {
+            console.println("ERROR: " + e.getMessage());
+            console.println(BankOptions.USAGE);
+            return;
         }
-    }
-
-    public boolean verifyPin(String plainPin) {
-        if (plainPin == null) return false;
-        return hashPin(plainPin).equals(pinHash);
-    }
-
-    public synchronized boolean deposit(BigDecimal amount) {
-        return deposit(amount, true);
-    }
-
-    private synchronized boolean deposit(BigDecimal amount, boolean verbose) {
-        if (amount == null) {
-            if (verbose) System.out.println("ERROR: Deposit amount cannot be null.");
-            return false;
+        if (options.routerPort != -1) {
+            runRouter(options);
+            return;
         }
-        if (amount.scale() > 2) amount = amount.setScale(2, RoundingMode.HALF_UP);
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            if (verbose) System.out.println("ERROR: Deposit failed — amount must be greater than zero.");
-            return false;
+        enableStripedDeposits(options);
+        if ((options.metricsPort != -1 || options.metricsFile != null) && !startMetrics(options)) {
+            try {
+                closeStorage(wal);
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
+            return;
         }
-        BigDecimal cap = new BigDecimal("1000000000.00");
-        if (amount.compareTo(cap) > 0) {
-            if (verbose) System.out.println("ERROR: Deposit exceeds allowed single-transaction limit.");
-            return false;
+        if (options.batchFile != null) {
+            runBatch(options, wal);
+            return;
         }
-
-        balance = balance.add(amount).setScale(2, RoundingMode.HALF_UP);
-        addTransaction("Deposited: " + formatMoney(amount) + " | Balance: " + formatMoney(balance));
-        if (verbose) System.out.println("SUCCESS: Deposited " + formatMoney(amount));
-        return true;
-    }
-
-    public synchronized boolean withdraw(BigDecimal amount) {
-        if (amount == null) {
-            System.out.println("ERROR: Withdrawal amount cannot be null.");
-            return false;
+        if (options.replicaOf != null) {
+            runReplica(options, wal);
+            return;
         }
-        if (amount.scale() > 2) amount = amount.setScale(2, RoundingMode.HALF_UP);
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            System.out.println("ERROR: Withdrawal failed — amount must be greater than zero.");
-            return false;
-        }
-        BigDecimal cap = new BigDecimal("1000000000.00");
-        if (amount.compareTo(cap) > 0) {
-            System.out.println("ERROR: Withdrawal exceeds allowed single-transaction limit.");
-            return false;
+        if (options.replicationPort != -1 && !startShipper(options, wal)) {
+            try {
+                closeStorage(wal);
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
+            return;
         }
-
-        if (amount.compareTo(balance) > 0) {
-            addTransaction("Failed withdrawal attempt: " + formatMoney(amount) + " | Balance: " + formatMoney(balance));
-            System.out.println("ERROR: Withdrawal failed — insufficient funds.");
-            return false;
+        if (options.serverPort != -1) {
+            runServer(options, wal);
+            return;
         }
 
-        balance = balance.subtract(amount).setScale(2, RoundingMode.HALF_UP);
-        addTransaction("Withdrew: " + formatMoney(amount) + " | Balance: " + formatMoney(balance));
-        System.out.println("SUCCESS: Withdrew " + formatMoney(amount));
-        return true;
-    }
-
-    public synchronized BigDecimal getBalance() {
-        return balance.setScale(2, RoundingMode.HALF_UP);
-    }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            delay();
+            console.println("\nShutting down bank application...");
+            try {
+                closeStorage(wal);
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
+            console.flush();
+        }));
 
-    public synchronized List<String> getTransactionHistoryCopy() {
-        return new ArrayList<>(transactionHistory);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        new BankSession(accounts, journal, historyStore, in, console, BankSession.MENU_DELAY_MILLIS).run();
     }
 
-    private void addTransaction(String message) {
-        String entry = "[" + LocalDateTime.now().format(TS_FORMAT) + "] " + message;
-        synchronized (transactionHistory) {
-            transactionHistory.add(entry);
+    /** Runs a command file headlessly (no prompts, no delays) and reports throughput. */
+    private static void runBatch(BankOptions options, WriteAheadLog wal) {
+        console.flush(); // recovery's status lines go out before the batch output
+        BatchRunner runner = new BatchRunner(accounts, journal, historyStore);
+        try (BufferedReader in = Files.newBufferedReader(options.batchFile, StandardCharsets.UTF_8);
+             Writer out = options.batchOutput != null
+                     ? Files.newBufferedWriter(options.batchOutput, StandardCharsets.UTF_8)
+                     : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            BatchRunner.Summary summary = options.sequencerRing > 0 ? runner.runSequenced(in, out, options.sequencerRing)
+                    : options.shards > 0 ? runner.runSharded(in, out, options.shards) : runner.run(in, out);
+            System.err.printf("INFO: %d command(s), %d failed, %.3f s, %.0f ops/sec%n", summary.commands,
+                    summary.failed, summary.nanos / 1e9, summary.opsPerSecond());
+            if (summary.results.total() > 0) System.err.println("INFO: Outcomes: " + summary.results + ".");
+            System.err.print(latencySummary());
+        } catch (IOException | RuntimeException e) { // RuntimeException: a failed WAL or sequencer
+            System.err.println("ERROR: Batch run failed: " + e.getMessage());
+        } finally {
+            try {
+                closeStorage(wal);
+            } catch (IOException e) {
+                System.err.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
         }
     }
 
-    public void printAccountSummary() {
-        System.out.println("\n--- Account Summary ---");
-        System.out.println("Account Number : " + accountNumber);
-        System.out.println("Account Holder : " + accountHolderName);
-        System.out.println("Current Balance: " + formatMoney(getBalance()));
-    }
-
-    public void printTransactionHistory() {
-        System.out.println("\n--- Transaction History for Account " + accountNumber + " (" + accountHolderName + ") ---");
-        List<String> records = getTransactionHistoryCopy();
-        if (records.isEmpty()) {
-            System.out.println("No transactions found.");
-        } else {
-            for (String r : records) System.out.println(r);
+    /**
+     * Serves the restored accounts over TCP until the JVM is stopped; the event-loop threads
+     * keep it alive after main returns.
+     */
+    private static void runServer(BankOptions options, WriteAheadLog wal) {
+        BankServer server;
+        try {
+            InetSocketAddress address = new InetSocketAddress(options.serverPort);
+            server = options.clusterNode
+                    ? BankServer.startNode(accounts, journal, historyStore, address, options.serverThreads)
+                    : BankServer.start(accounts, address, options.serverThreads);
+        } catch (IOException e) {
+            console.println("ERROR: Could not start server: " + e.getMessage());
+            return;
         }
+        ResultCounters.export(BankMetrics.REGISTRY, server::resultCounts);
+        console.println("INFO: Serving " + accounts.size() + " account(s) on port " + server.port()
+                + " with " + options.serverThreads + " event loop(s)" + (options.clusterNode ? " as a cluster node." : "."));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            console.println("\nShutting down bank server...");
+            try {
+                server.close();
+                console.println("INFO: Outcomes: " + server.resultCounts() + ".");
+                console.print(latencySummary());
+                closeStorage(wal);
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
+            console.flush();
+        }));
     }
 
-    public String getAccountNumber() { return accountNumber; }
-    public String getAccountHolderName() { return accountHolderName; }
-
-    private static String formatMoney(BigDecimal amount) {
-        return "$" + amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
-    }
-    public static String formatMoneyPublic(BigDecimal amount) {
-        return formatMoney(amount);
-    }
-}
-
-public class BankApp {
-    private static final Map<String, Account> accounts = new HashMap<>();
-    private static final Scanner SC = new Scanner(System.in, StandardCharsets.UTF_8);
-    private static final int MAX_PIN_ATTEMPTS = 3;
-
-    public static void main(String[] args) {
+    /**
+     * Follows the --replica-of primary, serving its accounts read-only over TCP. Reads commands
+     * from standard input: "status" prints the replication lag, "promote" stops following and
+     * makes this process a primary (shipping its log on --replication-port, if given).
+     */
+    private static void runReplica(BankOptions options, WriteAheadLog wal) {
+        LogReplica replica;
+        BankServer server;
+        try {
+            long[] mark = wal.mark();
+            wal.close(); // the replica appends the shipped bytes itself until promoted
+            accounts.forEach(account -> account.attachJournal(AccountJournal.NONE));
+            journal = AccountJournal.NONE;
+            replica = LogReplica.start(ClusterRouter.addressOf(options.replicaOf), options.walPath, mark[0], mark[1],
+                    new Recovery());
+            server = BankServer.start(accounts, new InetSocketAddress(options.serverPort), options.serverThreads);
+            server.setReadOnly(true);
+        } catch (IOException e) {
+            console.println("ERROR: Could not start replica: " + e.getMessage());
+            return;
+        }
+        registerReplicaGauges(replica::appliedLsn, replica::lagRecords, replica::lagMillis);
+        ResultCounters.export(BankMetrics.REGISTRY, server::resultCounts);
+        console.println("INFO: Serving " + accounts.size() + " account(s) read-only on port " + server.port()
+                + ", replicating " + options.replicaOf + ".");
+        WriteAheadLog[] promoted = new WriteAheadLog[1];
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            delay();
-            System.out.println("\nShutting down bank application...");
+            console.println("\nShutting down replica...");
+            try {
+                server.close();
+                if (promoted[0] == null) replica.close();
+                closeStorage(promoted[0]);
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close storage: " + e.getMessage());
+            }
+            console.flush();
         }));
-
-        while (true) {
-            delay();
-            printMainMenu();
-            int choice = readIntWithPrompt("Enter your choice: ");
-            switch (choice) {
-                case 1 -> createAccountFlow();
-                case 2 -> { if (ensureAtLeastOneAccount()) depositFlow(); }
-                case 3 -> { if (ensureAtLeastOneAccount()) withdrawFlow(); }
-                case 4 -> { if (ensureAtLeastOneAccount()) balanceFlow(); }
-                case 5 -> { if (ensureAtLeastOneAccount()) historyFlow(); }
-                case 6 -> {
-                    delay();
-                    System.out.println("Goodbye — thank you for using Java Bank.");
-                    SC.close();
-                    return;
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = readLine(in)) != null) {
+            String command = line.trim();
+            if (command.equals("status")) {
+                if (promoted[0] != null) {
+                    console.println("INFO: Primary at lsn " + promoted[0].lastLsn() + ".");
+                } else {
+                    console.println("INFO: Replica at lsn " + replica.appliedLsn() + ", lag " + replica.lagRecords()
+                            + " record(s), " + replica.lagMillis() + " ms, primary "
+                            + (replica.connected() ? "connected." : "unreachable."));
+                }
+            } else if (command.equals("promote")) {
+                if (promoted[0] != null) {
+                    console.println("INFO: Already the primary.");
+                    continue;
+                }
+                try {
+                    long[] end = replica.promote();
+                    WriteAheadLog log = WriteAheadLog.open(options.walPath, options.fsyncPolicy,
+                            options.fsyncIntervalMillis, options.fsyncBatchSize, end[0], end[1], new Recovery());
+                    accounts.forEach(account -> account.attachJournal(log));
+                    journal = log;
+                    promoted[0] = log;
+                    registerReplicaGauges(log::lastLsn, () -> 0L, () -> 0L);
+                    if (options.replicationPort != -1) startShipper(options, log);
+                    server.setReadOnly(false);
+                    console.println("SUCCESS: Promoted to primary at lsn " + end[1] + "; accepting writes.");
+                } catch (IOException e) {
+                    console.println("ERROR: Promotion failed — " + e.getMessage());
                 }
-                default -> { delay(); System.out.println("ERROR: Invalid choice. Please select a valid menu option."); }
+            } else if (!command.isEmpty()) {
+                console.println("ERROR: Unknown command. Use 'status' or 'promote'.");
             }
         }
     }
 
-    private static void printMainMenu() {
-        System.out.println("\n===== Java Bank =====");
-        System.out.println("1. Create Account");
-        System.out.println("2. Deposit Money");
-        System.out.println("3. Withdraw Money");
-        System.out.println("4. Check Balance");
-        System.out.println("5. View Transaction History");
-        System.out.println("6. Exit");
-    }
-
-    private static boolean ensureAtLeastOneAccount() {
-        if (accounts.isEmpty()) {
-            delay();
-            System.out.println("INFO: No accounts found. Please create an account first (Option 1).");
+    /** Starts shipping {@code wal} to replicas on --replication-port; false (reported) if it cannot listen. */
+    private static boolean startShipper(BankOptions options, WriteAheadLog wal) {
+        try {
+            shipper = LogShipper.start(wal, new InetSocketAddress(options.replicationPort));
+        } catch (IOException e) {
+            console.println("ERROR: Could not start log shipping: " + e.getMessage());
             return false;
         }
+        console.println("INFO: Shipping " + options.walPath + " to replicas on port " + shipper.port() + ".");
         return true;
     }
 
-    private static void createAccountFlow() {
-        System.out.println("\n--- Create Account ---");
-        delay();
-        String accNum;
-        while (true) {
-            accNum = readNonEmptyString("Enter Account Number (alphanumeric, no spaces): ").trim();
-            if (accNum.contains(" ")) {
-                delay();
-                System.out.println("ERROR: Account number cannot contain spaces.");
-                continue;
-            }
-            if (accounts.containsKey(accNum)) {
-                delay();
-                System.out.println("ERROR: Account number already exists. Choose a different one.");
-                continue;
-            }
-            break;
+    /**
+     * Routes to the --nodes until the JVM is stopped. Reads admin commands from standard input:
+     * "add host:port" adds a node and rebalances onto it, "nodes" lists the ring.
+     */
+    private static void runRouter(BankOptions options) {
+        ClusterRouter router;
+        try {
+            router = ClusterRouter.start(new InetSocketAddress(options.routerPort), options.nodes);
+        } catch (IOException e) {
+            console.println("ERROR: Could not start router: " + e.getMessage());
+            return;
         }
-
-        String name = readNonEmptyString("Enter Account Holder Name: ").trim();
-        BigDecimal initialDeposit = readBigDecimalAllowZero("Enter Initial Deposit (0 allowed): ");
-
-        // PIN setup
-        String pin;
-        while (true) {
-            pin = readNonEmptyString("Set a 4-6 digit numeric PIN: ").trim();
-            if (!pin.matches("\\d{4,6}")) {
-                delay();
-                System.out.println("ERROR: PIN must be 4 to 6 digits numeric.");
-                continue;
+        console.println("INFO: Routing on port " + router.port() + " to " + options.nodes.size() + " node(s).");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            console.println("\nShutting down cluster router...");
+            try {
+                router.close();
+            } catch (IOException e) {
+                console.println("ERROR: Failed to close router: " + e.getMessage());
             }
-            String pinConfirm = readNonEmptyString("Confirm PIN: ").trim();
-            if (!pin.equals(pinConfirm)) {
-                delay();
-                System.out.println("ERROR: PINs do not match. Try again.");
-                continue;
+            console.flush();
+        }));
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = readLine(in)) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("nodes")) {
+                console.println("INFO: Nodes: " + String.join(", ", router.nodes()));
+            } else if (words[0].equals("add") && words.length == 2) {
+                try {
+                    long start = System.nanoTime();
+                    int moved = router.addNode(words[1]);
+                    console.println(String.format("SUCCESS: Added %s, moved %d account(s) in %d ms.", words[1], moved,
+                            (System.nanoTime() - start) / 1_000_000L));
+                } catch (IllegalArgumentException | IOException e) {
+                    console.println("ERROR: Could not add node — " + e.getMessage());
+                }
+            } else if (!words[0].isEmpty()) {
+                console.println("ERROR: Unknown command. Use 'add host:port' or 'nodes'.");
             }
-            break;
         }
-
-        Account account = new Account(accNum, name, initialDeposit, pin);
-        accounts.put(accNum, account);
-        delay();
-        System.out.println("SUCCESS: Account created for '" + name + "' with Account Number: " + accNum);
     }
 
-    private static void depositFlow() {
-        System.out.println("\n--- Deposit ---");
-        delay();
-        Account account = authenticateAccount();
-        if (account == null) return;
-
-        BigDecimal amount = readBigDecimalStrict("Enter deposit amount (greater than 0): ");
-        if (amount == null) return;
-
-        delay();
-        account.deposit(amount);
+    /**
+     * Registers the gauges of every mode and starts exporting BankMetrics on --metrics-port
+     * and/or to --metrics-file; false (reported) if it cannot.
+     */
+    private static boolean startMetrics(BankOptions options) {
+        BankMetrics.REGISTRY.gauge("bank_accounts", "", "Accounts held by this process.", () -> accounts.size());
+        try {
+            metrics = MetricsExporter.start(BankMetrics.REGISTRY, options.metricsPort, options.metricsFile,
+                    options.metricsIntervalSeconds);
+        } catch (IOException e) {
+            console.println("ERROR: Could not start metrics: " + e.getMessage());
+            return false;
+        }
+        if (metrics.port() != -1) console.println("INFO: Metrics on http://127.0.0.1:" + metrics.port() + "/metrics.");
+        if (options.metricsFile != null) console.println("INFO: Writing metrics to " + options.metricsFile + ".");
+        return true;
     }
 
-    private static void withdrawFlow() {
-        System.out.println("\n--- Withdraw ---");
-        delay();
-        Account account = authenticateAccount();
-        if (account == null) return;
-
-        BigDecimal amount = readBigDecimalStrict("Enter withdrawal amount (greater than 0): ");
-        if (amount == null) return;
-
-        delay();
-        account.withdraw(amount);
+    /** Points the log gauges at a replica's state, or at the log it was promoted to. */
+    private static void registerReplicaGauges(LongSupplier lsn, LongSupplier lagRecords, LongSupplier lagMillis) {
+        BankMetrics.REGISTRY.gauge("bank_wal_last_lsn", "", WAL_LSN_HELP, lsn);
+        BankMetrics.REGISTRY.gauge("bank_replica_lag_records", "", "Records the primary logged that are not applied here.",
+                lagRecords);
+        BankMetrics.REGISTRY.gauge("bank_replica_lag_millis", "", "How long this replica has been behind its primary.",
+                lagMillis);
     }
 
-    private static void balanceFlow() {
-        System.out.println("\n--- Check Balance ---");
-        delay();
-        Account account = authenticateAccount();
-        if (account == null) return;
+    /** "INFO: Latency ..." and one line per operation timed so far; empty if none was. */
+    private static String latencySummary() {
+        StringBuilder lines = new StringBuilder();
+        BankMetrics.REGISTRY.writeLatencySummary(lines);
+        if (lines.length() == 0) return "";
+        String nl = System.lineSeparator();
+        StringBuilder sb = new StringBuilder("INFO: Latency, 1 in " + LatencyHistogram.samplePeriod() + " call(s) timed:" + nl);
+        for (String line : lines.toString().split("\n")) sb.append("  ").append(line).append(nl);
+        return sb.toString();
+    }
 
-        delay();
-        account.printAccountSummary();
+    /** Flushes the console first, so whatever was reported before waiting for input is seen. */
+    private static String readLine(BufferedReader in) {
+        console.flush();
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        }
     }
 
-    private static void historyFlow() {
-        System.out.println("\n--- Transaction History ---");
-        delay();
-        Account account = authenticateAccount();
-        if (account == null) return;
+    // -----------------------
+    // Persistence
+    // -----------------------
 
-        delay();
-        account.printTransactionHistory();
+    /**
+     * Opens the history store and, when --wal is given, the write-ahead log, rebuilding
+     * {@code accounts} from the newest snapshot (if --snapshot-dir has one) plus the log records
+     * after it. Returns null when persistence is disabled.
+     */
+    private static WriteAheadLog openStorage(BankOptions options) throws IOException {
+        Path snapshot = options.snapshotDir != null ? AccountSnapshot.latest(options.snapshotDir) : null;
+        long walOffset = 0L;
+        long walLsn = 0L;
+        if (snapshot != null) {
+            long start = System.nanoTime();
+            AccountSnapshot.Loaded loaded = AccountSnapshot.load(snapshot, options.historyDir, accounts);
+            historyStore = loaded.historyStore;
+            walOffset = loaded.walOffset;
+            walLsn = loaded.walLsn;
+            console.println(String.format("INFO: Loaded %d account(s) from %s in %d ms.", loaded.accounts,
+                    snapshot.getFileName(), (System.nanoTime() - start) / 1_000_000L));
+        } else if (options.historyRing > 0) {
+            historyStore = TieredHistoryStore.open(options.historyDir, options.historyShards, options.historyRing);
+        } else if (options.historyDir != null) {
+            historyStore = MappedHistoryStore.open(options.historyDir, options.historyShards);
+        }
+        if (options.walPath == null) return null;
+
+        WriteAheadLog wal = WriteAheadLog.open(options.walPath, options.fsyncPolicy, options.fsyncIntervalMillis,
+                options.fsyncBatchSize, walOffset, walLsn, new Recovery());
+        accounts.forEach(account -> account.attachJournal(wal));
+        journal = wal;
+        BankMetrics.REGISTRY.gauge("bank_wal_last_lsn", "", WAL_LSN_HELP, wal::lastLsn);
+        console.println("INFO: Restored " + accounts.size() + " account(s) from " + options.walPath
+                + " (fsync=" + options.fsyncPolicy.name().toLowerCase(Locale.ROOT) + ").");
+        if (options.snapshotDir != null) {
+            snapshots = AccountSnapshot.start(options.snapshotDir, accounts, wal, (MappedHistoryStore) historyStore,
+                    options.snapshotIntervalSeconds);
+        }
+        return wal;
     }
 
-    private static Account authenticateAccount() {
-        String accNum = readNonEmptyString("Enter Account Number: ").trim();
-        Account account = accounts.get(accNum);
-        if (account == null) {
-            delay();
-            System.out.println("ERROR: Account not found. Please check the account number.");
-            return null;
+    /**
+     * Rebuilds {@code accounts} from log records: the write-ahead log's own on startup, and a
+     * replica's shipped ones as they arrive (see LogReplica).
+     */
+    private static final class Recovery implements WriteAheadLog.Visitor {
+        @Override
+        public void onCreate(long lsn, long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                             long initialCents) {
+            if (accounts.contains(accountNumber)) return; // already in the snapshot
+            accounts.putIfAbsent(
+                    Account.restore(lsn, epochMillis, accountNumber, holderName, pinHash, initialCents, historyStore));
         }
 
-        for (int attempt = 1; attempt <= MAX_PIN_ATTEMPTS; attempt++) {
-            String pin = readNonEmptyString("Enter PIN (attempt " + attempt + "/" + MAX_PIN_ATTEMPTS + "): ").trim();
-            if (account.verifyPin(pin)) {
-                delay();
-                return account;
-            } else {
-                delay();
-                System.out.println("ERROR: Incorrect PIN.");
-            }
+        @Override
+        public void onDeposit(long lsn, long epochMillis, String accountNumber, long cents, long balanceAfter) {
+            Account account = accounts.get(accountNumber);
+            if (account != null) account.replayDeposit(lsn, epochMillis, cents, balanceAfter);
         }
-        delay();
-        System.out.println("ERROR: Maximum PIN attempts exceeded. Operation aborted.");
-        return null;
-    }
 
-    // -----------------------
-    // Input helper utilities
-    // -----------------------
+        @Override
+        public void onWithdraw(long lsn, long epochMillis, String accountNumber, long cents, long balanceAfter,
+                               boolean rejected) {
+            Account account = accounts.get(accountNumber);
+            if (account != null) account.replayWithdraw(lsn, epochMillis, cents, balanceAfter, rejected);
+        }
 
-    private static String readNonEmptyString(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String line;
-            try {
-                line = SC.nextLine();
-            } catch (NoSuchElementException | IllegalStateException e) {
-                delay();
-                System.out.println("ERROR: Input stream closed unexpectedly.");
-                return "";
+        @Override
+        public void onTransfer(long lsn, long epochMillis, String fromAccount, String toAccount, long cents,
+                               long fromBalanceAfter, long toBalanceAfter, boolean rejected) {
+            Account from = accounts.get(fromAccount);
+            Account to = accounts.get(toAccount);
+            if (from != null && to != null) {
+                Account.replayTransfer(from, to, lsn, epochMillis, cents, fromBalanceAfter, toBalanceAfter, rejected);
             }
-            if (line == null || line.trim().isEmpty()) {
-                delay();
-                System.out.println("ERROR: Input cannot be empty. Try again.");
-                continue;
-            }
-            return line;
         }
-    }
 
-    private static int readIntWithPrompt(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String line;
-            try {
-                line = SC.nextLine();
-            } catch (NoSuchElementException | IllegalStateException e) {
-                delay();
-                System.out.println("ERROR: Input stream closed. Exiting.");
-                return -1;
-            }
-            try {
-                return Integer.parseInt(line.trim());
-            } catch (NumberFormatException e) {
-                delay();
-                System.out.println("ERROR: Invalid number. Please enter a valid integer.");
-            }
+        @Override
+        public void onMigrateOut(long lsn, long epochMillis, String accountNumber) {
+            Account account = accounts.get(accountNumber);
+            if (account != null && account.replayMigrateOut(lsn)) accounts.remove(accountNumber, moved -> { });
         }
-    }
 
-    private static BigDecimal readBigDecimalAllowZero(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String line = SC.nextLine();
-            if (line == null) {
-                delay();
-                System.out.println("ERROR: Input closed unexpectedly.");
-                return BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
-            }
-            line = line.trim();
-            if (line.isEmpty()) return BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
-            try {
-                BigDecimal bd = new BigDecimal(line).setScale(2, RoundingMode.HALF_UP);
-                if (bd.compareTo(BigDecimal.ZERO) < 0) {
-                    delay();
-                    System.out.println("ERROR: Amount cannot be negative. Try again.");
-                    continue;
-                }
-                return bd;
-            } catch (NumberFormatException | ArithmeticException ex) {
-                delay();
-                System.out.println("ERROR: Invalid amount. Use numeric format (e.g., 1000.00).");
-            }
+        @Override
+        public void onMigrateIn(long lsn, long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                                long balanceCents) {
+            if (accounts.contains(accountNumber)) return; // already in the snapshot
+            accounts.putIfAbsent(Account.restoreMigrated(lsn, epochMillis, accountNumber, holderName, pinHash,
+                    balanceCents, historyStore));
         }
     }
 
-    private static BigDecimal readBigDecimalStrict(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String line = SC.nextLine();
-            if (line == null) {
-                delay();
-                System.out.println("ERROR: Input closed unexpectedly.");
-                return null;
-            }
-            line = line.trim();
-            if (line.isEmpty()) {
-                delay();
-                System.out.println("ERROR: Amount cannot be empty. Try again.");
-                continue;
-            }
-            try {
-                BigDecimal bd = new BigDecimal(line).setScale(2, RoundingMode.HALF_UP);
-                if (bd.compareTo(BigDecimal.ZERO) <= 0) {
-                    delay();
-                    System.out.println("ERROR: Amount must be greater than zero.");
-                    continue;
-                }
-                return bd;
-            } catch (NumberFormatException | ArithmeticException ex) {
-                delay();
-                System.out.println("ERROR: Invalid amount. Use numeric format (e.g., 50.25).");
+    /** Switches the --striped-accounts that exist after recovery to striped deposits. */
+    private static void enableStripedDeposits(BankOptions options) {
+        for (String number : options.stripedAccounts) {
+            Account account = accounts.get(number);
+            if (account == null) {
+                console.println("INFO: Striped account " + number + " not found — deposits stay unstriped.");
+            } else {
+                account.enableStripedDeposits();
             }
         }
     }
 
+    /** Stops log shipping and takes the final snapshot (if enabled), then closes the WAL and the history store. */
+    private static void closeStorage(WriteAheadLog wal) throws IOException {
+        if (metrics != null) metrics.close(); // the last dump, with every operation counted
+        if (shipper != null) shipper.close();
+        if (snapshots != null) snapshots.close();
+        if (wal != null) wal.close();
+        historyStore.close();
+    }
+
     // -----------------------
     // Delay utility
     // -----------------------
     private static void delay() {
         try {
-            Thread.sleep(450); // smooth ATM-like transition
+            Thread.sleep(BankSession.MENU_DELAY_MILLIS); // smooth ATM-like transition
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Blocking client for {@link BankServer}.
+ *
+ * Requests are encoded into a send buffer by the send* methods and only hit the socket on
+ * flush(), so callers can pipeline: send N requests, flush once, then call readResponse() N
+ * times. After readResponse() the payload of that response is available through balance(),
+ * historyTotal(), readHistory() and nextToken() (or, for the cluster-node requests a router
+ * sends, listTotal(), readList() and readMigration()) until the next call.
+ *
+ * Notes:
+ * - Not thread-safe; use one client per thread (or per connection in a load generator).
+ */
+final class BankClient implements Closeable {
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocate(4096);
+    private ByteBuffer in = ByteBuffer.allocate(4096).flip();
+    private int requestStart;
+    private int frameStart;
+    private int consumed;
+
+    private BankClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    static BankClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        return new BankClient(channel);
+    }
+
+    void sendAuth(String account, String pin) {
+        begin(BankProtocol.AUTH, 2 + 2 * BankProtocol.MAX_STRING_BYTES);
+        BankProtocol.putString(out, account);
+        BankProtocol.putString(out, pin);
+        end();
+    }
+
+    void sendDeposit(long cents) {
+        begin(BankProtocol.DEPOSIT, 8);
+        out.putLong(cents);
+        end();
+    }
+
+    void sendWithdraw(long cents) {
+        begin(BankProtocol.WITHDRAW, 8);
+        out.putLong(cents);
+        end();
+    }
+
+    void sendBalance() {
+        begin(BankProtocol.BALANCE, 0);
+        end();
+    }
+
+    void sendHistory(int from, int max) {
+        begin(BankProtocol.HISTORY, 6);
+        out.putInt(from).putShort((short) Math.min(max, BankProtocol.MAX_HISTORY_PAGE));
+        end();
+    }
+
+    /** Sends one page of {@code query}; read it with readHistory() and continue with nextToken(). */
+    void sendQuery(HistoryQuery query, int max) {
+        begin(BankProtocol.QUERY, 31);
+        out.putLong(query.fromMicros).putLong(query.toMicros).putInt(query.typeMask)
+                .put((byte) (query.newestFirst ? 1 : 0))
+                .putShort((short) Math.min(max, BankProtocol.MAX_HISTORY_PAGE))
+                .putLong(query.token);
+        end();
+    }
+
+    void sendTransfer(String toAccount, long cents) {
+        begin(BankProtocol.TRANSFER, 1 + BankProtocol.MAX_STRING_BYTES + 8);
+        BankProtocol.putString(out, toAccount);
+        out.putLong(cents);
+        end();
+    }
+
+    void sendCreate(String account, String pin, String holderName, long initialCents) {
+        begin(BankProtocol.CREATE, 3 + 3 * BankProtocol.MAX_STRING_BYTES + 8);
+        BankProtocol.putString(out, account);
+        BankProtocol.putString(out, pin);
+        BankProtocol.putString(out, holderName);
+        out.putLong(initialCents);
+        end();
+    }
+
+    void sendList(int offset, int max) {
+        begin(BankProtocol.LIST, 6);
+        out.putInt(offset).putShort((short) Math.min(max, BankProtocol.MAX_LIST_PAGE));
+        end();
+    }
+
+    void sendExport(String account) {
+        begin(BankProtocol.EXPORT, 1 + BankProtocol.MAX_STRING_BYTES);
+        BankProtocol.putString(out, account);
+        end();
+    }
+
+    void sendImport(String account, Account.Migration migration) {
+        begin(BankProtocol.IMPORT, 2 + 2 * BankProtocol.MAX_STRING_BYTES + BankProtocol.PIN_HASH_BYTES + 8);
+        BankProtocol.putString(out, account);
+        BankProtocol.putString(out, migration.holderName);
+        out.put(migration.pinHash, 0, BankProtocol.PIN_HASH_BYTES).putLong(migration.balanceCents);
+        end();
+    }
+
+    void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    /** Blocks until the next response has arrived and returns its status. */
+    byte readResponse() throws IOException {
+        in.position(in.position() + consumed);
+        consumed = 0;
+        int length;
+        while (true) {
+            if (in.remaining() >= BankProtocol.HEADER_BYTES) {
+                length = in.getInt(in.position());
+                if (length < 1 || length > BankProtocol.MAX_FRAME) throw new IOException("Corrupt response frame length " + length);
+                if (in.remaining() >= BankProtocol.HEADER_BYTES + length) break;
+            }
+            fill();
+        }
+        frameStart = in.position() + BankProtocol.HEADER_BYTES;
+        consumed = BankProtocol.HEADER_BYTES + length;
+        return in.get(frameStart);
+    }
+
+    /** Balance carried by the last response (OK or REJECTED to anything but HISTORY). */
+    long balance() {
+        return in.getLong(frameStart + 1);
+    }
+
+    /**
+     * Why the last DEPOSIT, WITHDRAW or TRANSFER was REJECTED; null for any other response, or
+     * for a reason this build does not know.
+     */
+    TransactionResult rejection() {
+        if (in.get(frameStart) != BankProtocol.REJECTED || consumed - BankProtocol.HEADER_BYTES < 10) return null;
+        return BankProtocol.reason(in.get(frameStart + 9));
+    }
+
+    /** Total entries in the account's history, from the last HISTORY or QUERY response. */
+    int historyTotal() {
+        return in.getInt(frameStart + 1);
+    }
+
+    /** Decodes the records of the last HISTORY or QUERY response into {@code into}; returns how many. */
+    int readHistory(HistoryRecord[] into) {
+        int n = Math.min(in.getShort(frameStart + 5), into.length);
+        for (int i = 0; i < n; i++) into[i].readFrom(in, frameStart + 7 + i * HistoryRecord.BYTES);
+        return n;
+    }
+
+    /** Continuation token of the last QUERY response; 0 when the range is exhausted. */
+    long nextToken() {
+        return in.getLong(frameStart + 7 + in.getShort(frameStart + 5) * HistoryRecord.BYTES);
+    }
+
+    /** Total accounts on the node, from the last LIST response. */
+    int listTotal() {
+        return in.getInt(frameStart + 1);
+    }
+
+    /** Appends the account numbers of the last LIST response to {@code into}; returns how many. */
+    int readList(List<String> into) {
+        ByteBuffer page = in.duplicate().position(frameStart + 5);
+        int n = page.getShort();
+        for (int i = 0; i < n; i++) into.add(BankProtocol.getString(page));
+        return n;
+    }
+
+    /** Decodes the account state carried by the last OK response to EXPORT. */
+    Account.Migration readMigration() {
+        ByteBuffer payload = in.duplicate().position(frameStart + 1);
+        Account.Migration migration = new Account.Migration();
+        migration.holderName = BankProtocol.getString(payload);
+        migration.pinHash = new byte[BankProtocol.PIN_HASH_BYTES];
+        payload.get(migration.pinHash);
+        migration.balanceCents = payload.getLong();
+        return migration;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void begin(byte op, int maxPayload) {
+        int needed = BankProtocol.HEADER_BYTES + 1 + maxPayload;
+        if (out.remaining() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+            out = bigger.put(out.flip());
+        }
+        requestStart = out.position();
+        out.putInt(0).put(op);
+    }
+
+    private void end() {
+        out.putInt(requestStart, out.position() - requestStart - BankProtocol.HEADER_BYTES);
+    }
+
+    /** Reads more bytes into {@code in}, which is kept in read mode between calls. */
+    private void fill() throws IOException {
+        in.compact();
+        if (!in.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in = bigger.put(in.flip());
+        }
+        int n = channel.read(in);
+        in.flip();
+        if (n < 0) throw new EOFException("Server closed the connection");
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process's metrics registry and the latency histograms on the Account hot paths, one
+ * series per operation of bank_operation_duration_seconds. BankApp adds its gauges and counters
+ * to the same registry and exports it (see MetricsExporter).
+ *
+ * Notes:
+ * - history_read is one page or query read under the account lock; a statement that pages
+ *   through a long history counts one read per page.
+ * - authenticate is the server's AUTH (lookup plus PIN check); the menu's authentication waits
+ *   on the user, so only its verify_pin is timed.
+ */
+final class BankMetrics {
+    static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    private static final String LATENCY = "bank_operation_duration_seconds";
+    private static final String LATENCY_HELP = "Latency of account operations, from a sample of calls.";
+
+    static final LatencyHistogram DEPOSIT = latency("deposit");
+    static final LatencyHistogram WITHDRAW = latency("withdraw");
+    static final LatencyHistogram TRANSFER = latency("transfer");
+    static final LatencyHistogram VERIFY_PIN = latency("verify_pin");
+    static final LatencyHistogram AUTHENTICATE = latency("authenticate");
+    static final LatencyHistogram HISTORY_READ = latency("history_read");
+    static final LongAdder AUTH_FAILURES = REGISTRY.counter("bank_auth_failures_total", "",
+            "AUTH requests refused for an unknown account or a wrong PIN.");
+
+    private BankMetrics() {
+    }
+
+    private static LatencyHistogram latency(String operation) {
+        return REGISTRY.histogram(LATENCY, "operation=\"" + operation + "\"", LATENCY_HELP);
+    }
+}
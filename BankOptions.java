@@ -0,0 +1,208 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Command-line options for {@link BankApp}. Every option is optional; with none the app runs
+ * the classic in-memory interactive menu.
+ */
+final class BankOptions {
+    static final String USAGE = "Usage: java BankApp [--wal <file>] [--fsync always|batch|none]"
+            + " [--fsync-interval-ms <n>] [--fsync-batch <n>] [--history-dir <dir>] [--history-shards <n>]"
+            + " [--history-ring <records>] [--striped-accounts <account,...>] [--compact-index]"
+            + " [--snapshot-dir <dir> [--snapshot-interval-s <n>]]"
+            + " [--batch <commands file> [--out <file>] [--sequencer <ring slots> | --shards <n>]]"
+            + " [--server <port> [--server-threads <n>] [--cluster-node]]"
+            + " [--router <port> --nodes <host:port,...>]"
+            + " [--replication-port <port>] [--replica-of <host:port>]"
+            + " [--metrics-port <port>] [--metrics-file <file> [--metrics-interval-s <n>]] [--metrics-sample <n>]";
+
+    Path walPath;
+    WriteAheadLog.FsyncPolicy fsyncPolicy = WriteAheadLog.FsyncPolicy.ALWAYS;
+    long fsyncIntervalMillis = 5;
+    int fsyncBatchSize = 256;
+    Path historyDir;
+    int historyShards = 16;
+    /** Newest entries kept in memory per account (TieredHistoryStore); 0 keeps them all mapped. */
+    int historyRing;
+    /** Hot, deposit-heavy accounts whose deposits are striped (see Account.enableStripedDeposits). */
+    Set<String> stripedAccounts = Set.of();
+    /**
+     * Keep accounts in a CompactAccountRegistry (packed keys, prefix index) instead of the
+     * default map: faster lookups and prefix scans, but no less memory per account.
+     */
+    boolean compactIndex;
+    Path snapshotDir;
+    /** Seconds between background snapshots; 0 takes one only at shutdown. */
+    long snapshotIntervalSeconds = 60;
+    Path batchFile;
+    Path batchOutput;
+    /** Ring slots of the CommandSequencer that runs the batch; 0 runs it on the reading thread. */
+    int sequencerRing;
+    /** ShardedBank workers that run the batch; 0 runs it without shards. */
+    int shards;
+    /** TCP port for BankServer; -1 runs the menu (or batch) instead. */
+    int serverPort = -1;
+    int serverThreads = Runtime.getRuntime().availableProcessors();
+    /** Serve as a ClusterRouter node: also answer the requests the router places and moves accounts with. */
+    boolean clusterNode;
+    /** TCP port for ClusterRouter; -1 unless routing. */
+    int routerPort = -1;
+    List<String> nodes = List.of();
+    /** TCP port LogShipper streams the WAL to replicas on; -1 ships nothing. */
+    int replicationPort = -1;
+    /** Primary's replication address ("host:port"); set, this process is a read-only LogReplica. */
+    String replicaOf;
+    /** Loopback port MetricsExporter serves GET /metrics on; -1 serves nothing. */
+    int metricsPort = -1;
+    Path metricsFile;
+    /** Seconds between rewrites of --metrics-file; 0 writes it only at start and shutdown. */
+    long metricsIntervalSeconds = 10;
+    /** One Account operation in this many is timed (see LatencyHistogram); a power of two. */
+    int metricsSample = 8;
+
+    static BankOptions parse(String[] args) {
+        BankOptions o = new BankOptions();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--wal" -> o.walPath = Path.of(requireValue(args[i], value));
+                case "--fsync" -> {
+                    try {
+                        o.fsyncPolicy = WriteAheadLog.FsyncPolicy.valueOf(requireValue(args[i], value).toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown fsync policy: " + value);
+                    }
+                }
+                case "--fsync-interval-ms" -> o.fsyncIntervalMillis = parseLong(args[i], value);
+                case "--fsync-batch" -> o.fsyncBatchSize = parseInt(args[i], value);
+                case "--history-dir" -> o.historyDir = Path.of(requireValue(args[i], value));
+                case "--history-shards" -> o.historyShards = parseInt(args[i], value);
+                case "--history-ring" -> o.historyRing = parseInt(args[i], value);
+                case "--striped-accounts" -> {
+                    o.stripedAccounts = new LinkedHashSet<>();
+                    for (String number : requireValue(args[i], value).split(",")) {
+                        if (!number.isBlank()) o.stripedAccounts.add(number.trim());
+                    }
+                    if (o.stripedAccounts.isEmpty()) throw new IllegalArgumentException("--striped-accounts needs at least one account");
+                }
+                case "--compact-index" -> {
+                    o.compactIndex = true;
+                    continue; // takes no value
+                }
+                case "--snapshot-dir" -> o.snapshotDir = Path.of(requireValue(args[i], value));
+                case "--snapshot-interval-s" -> o.snapshotIntervalSeconds = parseLong(args[i], value);
+                case "--batch" -> o.batchFile = Path.of(requireValue(args[i], value));
+                case "--out" -> o.batchOutput = Path.of(requireValue(args[i], value));
+                case "--sequencer" -> o.sequencerRing = parseInt(args[i], value);
+                case "--shards" -> o.shards = parseInt(args[i], value);
+                case "--server" -> o.serverPort = parseInt(args[i], value);
+                case "--server-threads" -> o.serverThreads = parseInt(args[i], value);
+                case "--cluster-node" -> {
+                    o.clusterNode = true;
+                    continue; // takes no value
+                }
+                case "--replication-port" -> o.replicationPort = parseInt(args[i], value);
+                case "--replica-of" -> o.replicaOf = requireValue(args[i], value);
+                case "--router" -> o.routerPort = parseInt(args[i], value);
+                case "--nodes" -> {
+                    o.nodes = new ArrayList<>();
+                    for (String node : requireValue(args[i], value).split(",")) {
+                        if (!node.isBlank()) o.nodes.add(node.trim());
+                    }
+                }
+                case "--metrics-port" -> o.metricsPort = parseInt(args[i], value);
+                case "--metrics-file" -> o.metricsFile = Path.of(requireValue(args[i], value));
+                case "--metrics-interval-s" -> o.metricsIntervalSeconds = parseLong(args[i], value);
+                case "--metrics-sample" -> o.metricsSample = parseInt(args[i], value);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        if (o.batchOutput != null && o.batchFile == null) throw new IllegalArgumentException("--out requires --batch");
+        if (o.sequencerRing != 0) {
+            if (o.batchFile == null) throw new IllegalArgumentException("--sequencer requires --batch");
+            if (o.sequencerRing < 2 || Integer.bitCount(o.sequencerRing) != 1) {
+                throw new IllegalArgumentException("--sequencer must be a power of two of at least 2");
+            }
+        }
+        if (o.serverPort != -1 && (o.serverPort < 0 || o.serverPort > 65535)) {
+            throw new IllegalArgumentException("Invalid port for --server: " + o.serverPort);
+        }
+        if (o.serverPort != -1 && o.batchFile != null) throw new IllegalArgumentException("--server and --batch are exclusive");
+        if (o.clusterNode && o.serverPort == -1) throw new IllegalArgumentException("--cluster-node requires --server");
+        if (o.routerPort != -1) {
+            if (o.routerPort < 0 || o.routerPort > 65535) throw new IllegalArgumentException("Invalid port for --router: " + o.routerPort);
+            if (o.nodes.isEmpty()) throw new IllegalArgumentException("--router requires --nodes");
+            if (o.serverPort != -1 || o.batchFile != null) throw new IllegalArgumentException("--router cannot be used with --server or --batch");
+            for (String node : o.nodes) ClusterRouter.addressOf(node);
+        } else if (!o.nodes.isEmpty()) {
+            throw new IllegalArgumentException("--nodes requires --router");
+        }
+        if (o.snapshotDir != null && (o.walPath == null || o.historyDir == null)) {
+            throw new IllegalArgumentException("--snapshot-dir requires --wal and --history-dir");
+        }
+        if (o.historyShards < 1) throw new IllegalArgumentException("--history-shards must be at least 1");
+        if (o.historyRing != 0) {
+            if (o.historyRing < 2) throw new IllegalArgumentException("--history-ring must be at least 2");
+            if (o.historyDir == null) throw new IllegalArgumentException("--history-ring requires --history-dir");
+            if (o.snapshotDir != null) throw new IllegalArgumentException("--history-ring cannot be used with --snapshot-dir");
+        }
+        if (o.shards != 0) {
+            if (o.batchFile == null) throw new IllegalArgumentException("--shards requires --batch");
+            if (o.shards < 1) throw new IllegalArgumentException("--shards must be at least 1");
+            if (o.sequencerRing != 0) throw new IllegalArgumentException("--shards and --sequencer are exclusive");
+        }
+        if (o.replicationPort != -1) {
+            if (o.replicationPort < 0 || o.replicationPort > 65535) {
+                throw new IllegalArgumentException("Invalid port for --replication-port: " + o.replicationPort);
+            }
+            if (o.walPath == null) throw new IllegalArgumentException("--replication-port requires --wal");
+            if (o.batchFile != null) throw new IllegalArgumentException("--replication-port cannot be used with --batch");
+        }
+        if (o.replicaOf != null) {
+            ClusterRouter.addressOf(o.replicaOf);
+            if (o.walPath == null || o.serverPort == -1) throw new IllegalArgumentException("--replica-of requires --wal and --server");
+            if (o.snapshotDir != null || o.clusterNode) {
+                throw new IllegalArgumentException("--replica-of cannot be used with --snapshot-dir or --cluster-node");
+            }
+        }
+        if (o.metricsPort != -1 || o.metricsFile != null) {
+            if (o.metricsPort != -1 && (o.metricsPort < 0 || o.metricsPort > 65535)) {
+                throw new IllegalArgumentException("Invalid port for --metrics-port: " + o.metricsPort);
+            }
+            if (o.routerPort != -1) throw new IllegalArgumentException("--metrics-port and --metrics-file cannot be used with --router");
+        }
+        if (o.metricsIntervalSeconds < 0) throw new IllegalArgumentException("--metrics-interval-s cannot be negative");
+        if (o.metricsSample < 1 || Integer.bitCount(o.metricsSample) != 1) {
+            throw new IllegalArgumentException("--metrics-sample must be a power of two (1 times every operation)");
+        }
+        if (o.snapshotIntervalSeconds < 0) throw new IllegalArgumentException("--snapshot-interval-s cannot be negative");
+        if (o.serverThreads < 1) throw new IllegalArgumentException("--server-threads must be at least 1");
+        return o;
+    }
+
+    private static String requireValue(String option, String value) {
+        if (value == null) throw new IllegalArgumentException("Missing value for " + option);
+        return value;
+    }
+
+    private static long parseLong(String option, String value) {
+        try {
+            return Long.parseLong(requireValue(option, value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    private static int parseInt(String option, String value) {
+        long parsed = parseLong(option, value);
+        if (parsed < Integer.MIN_VALUE || parsed > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+        return (int) parsed;
+    }
+}
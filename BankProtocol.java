@@ -0,0 +1,114 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format shared by {@link BankServer} and {@link BankClient}.
+ *
+ * Every frame is {@code int length | byte code | payload}, where length counts the code byte
+ * and the payload. Requests carry an opcode, responses a status; all integers are big-endian
+ * and strings are {@code unsigned byte length | UTF-8 bytes}.
+ *
+ * Requests:
+ *   AUTH     str account | str pin
+ *   DEPOSIT  long cents
+ *   WITHDRAW long cents
+ *   BALANCE  (empty)
+ *   HISTORY  int from | short max
+ *   TRANSFER str toAccount | long cents
+ *   QUERY    long fromMicros | long toMicros | int typeMask | byte newestFirst | short max | long token
+ *
+ * Cluster-node requests (only a server started with a journal for them, see ClusterRouter;
+ * no authentication needed, so a node must only be reachable by its router):
+ *   CREATE   str account | str pin | str holder | long initialCents
+ *   LIST     int offset | short max
+ *   EXPORT   str account
+ *   IMPORT   str account | str holder | 32-byte pinHash | long balanceCents
+ *
+ * Responses:
+ *   OK / REJECTED to AUTH, DEPOSIT, WITHDRAW, BALANCE, TRANSFER: long balanceCents
+ *                  (REJECTED to DEPOSIT, WITHDRAW, TRANSFER: then byte reason, see reasonCode())
+ *   OK to HISTORY: int totalEntries | short count | count x 48-byte HistoryRecord
+ *   OK to QUERY:   the HISTORY payload followed by long nextToken (see HistoryQuery)
+ *   OK / REJECTED to CREATE, IMPORT: long balanceCents (REJECTED: the number is taken)
+ *   OK to LIST:    int totalAccounts | short count | count x str account (sorted)
+ *   OK to EXPORT:  str holder | 32-byte pinHash | long balanceCents; the node has dropped the account
+ *   any other status: empty payload
+ *
+ * Notes:
+ * - Requests on one connection are answered strictly in order, so clients may pipeline.
+ * - A read-only server (a replica) answers READ_ONLY to every write, authenticated or not.
+ * - SERVER_ERROR means the request failed inside the server; a write answered so may or may
+ *   not have been applied, and is not durable.
+ * - Every operation except AUTH and the cluster-node requests applies to the account the
+ *   connection authenticated as. An account that has moved off the node answers NOT_FOUND.
+ */
+final class BankProtocol {
+    static final int HEADER_BYTES = 4;
+    static final int MAX_FRAME = 64 * 1024;
+    static final int MAX_STRING_BYTES = 255;
+    static final int MAX_HISTORY_PAGE = (MAX_FRAME - 24) / HistoryRecord.BYTES;
+    static final int MAX_LIST_PAGE = (MAX_FRAME - 16) / (1 + MAX_STRING_BYTES);
+    static final int PIN_HASH_BYTES = 32;
+
+    static final byte AUTH = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte BALANCE = 4;
+    static final byte HISTORY = 5;
+    static final byte TRANSFER = 6;
+    static final byte QUERY = 7;
+    static final byte CREATE = 8;
+    static final byte LIST = 9;
+    static final byte EXPORT = 10;
+    static final byte IMPORT = 11;
+
+    static final byte OK = 0;
+    static final byte REJECTED = 1;
+    static final byte NOT_AUTHENTICATED = 2;
+    static final byte AUTH_FAILED = 3;
+    static final byte NOT_FOUND = 4;
+    static final byte BAD_REQUEST = 5;
+    static final byte READ_ONLY = 6; // a write sent to a replica (see LogReplica)
+    static final byte SERVER_ERROR = 7; // the server could not complete the request (e.g. its log failed)
+
+    private static final TransactionResult[] REASONS = TransactionResult.values();
+    private static final String[] STATUS_NAMES = {"OK", "REJECTED", "NOT_AUTHENTICATED", "AUTH_FAILED", "NOT_FOUND",
+            "BAD_REQUEST", "READ_ONLY", "SERVER_ERROR"};
+
+    private BankProtocol() {
+    }
+
+    static void putString(ByteBuffer buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) throw new IllegalArgumentException("String too long for the protocol: " + value);
+        buf.put((byte) bytes.length);
+        buf.put(bytes);
+    }
+
+    /** @throws java.nio.BufferUnderflowException if the frame ends inside the string */
+    static String getString(ByteBuffer buf) {
+        int len = buf.get() & 0xFF;
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Whether the request changes accounts, and so is refused by a read-only server. */
+    static boolean isWrite(byte op) {
+        return op == DEPOSIT || op == WITHDRAW || op == TRANSFER || op == CREATE || op == EXPORT || op == IMPORT;
+    }
+
+    /** Wire code of a rejection reason: its TransactionResult ordinal, so results are only added at the end. */
+    static byte reasonCode(TransactionResult result) {
+        return (byte) result.ordinal();
+    }
+
+    /** The TransactionResult for a wire reason code, or null for one this build does not know. */
+    static TransactionResult reason(byte code) {
+        return code >= 0 && code < REASONS.length ? REASONS[code] : null;
+    }
+
+    static String statusName(byte status) {
+        return status >= 0 && status < STATUS_NAMES.length ? STATUS_NAMES[status] : "STATUS_" + status;
+    }
+}
@@ -0,0 +1,533 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking TCP front end speaking {@link BankProtocol}, dispatching to the same
+ * {@link Account} methods as the menu and the batch runner.
+ *
+ * Notes:
+ * - One acceptor thread hands connections round-robin to a fixed set of event loops, each
+ *   owning a Selector; a connection stays on its loop for life, so its state needs no locking.
+ * - Every complete frame in the read buffer is handled before the loop writes, so pipelined
+ *   requests are answered in order with as few write() calls as possible.
+ * - Responses produced in one select round are only written after a single wait for the WAL
+ *   (Account.DurabilityBatch), so a round of mutations shares one group commit.
+ * - Reading pauses while a connection has more than OUT_HIGH_WATER bytes of unsent responses.
+ * - Started with startNode(), it also answers the cluster-node requests (CREATE, LIST, EXPORT,
+ *   IMPORT) a ClusterRouter uses to place and move accounts; otherwise those get BAD_REQUEST.
+ * - setReadOnly() makes it answer READ_ONLY to writes, for a replica serving reads.
+ * - A refused deposit, withdrawal or transfer carries its TransactionResult on the wire, and
+ *   each loop counts outcomes per reason (resultCounts()).
+ * - A request that throws (a failed or closed WAL) is answered SERVER_ERROR. If the round's
+ *   wait for the WAL fails, the connections with responses in that round are closed
+ *   unanswered rather than acknowledged, and the loop keeps serving.
+ */
+final class BankServer implements Closeable {
+    static final int MAX_AUTH_ATTEMPTS = 3;
+
+    private static final int BUFFER_BYTES = 4096;
+    private static final int OUT_HIGH_WATER = 256 * 1024;
+
+    private final AccountRegistry accounts;
+    private final AccountJournal journal; // null unless started as a cluster node
+    private final HistoryStore historyStore;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private volatile boolean closed;
+    private volatile boolean readOnly;
+
+    private BankServer(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore,
+                       ServerSocketChannel serverChannel, int loopCount) throws IOException {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.historyStore = historyStore;
+        this.serverChannel = serverChannel;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) loops[i] = new EventLoop(Selector.open());
+        this.acceptor = new Thread(this::acceptLoop, "bank-server-acceptor");
+    }
+
+    static BankServer start(AccountRegistry accounts, InetSocketAddress address, int loopCount) throws IOException {
+        return start(accounts, null, null, address, loopCount);
+    }
+
+    /** Like start(), also answering the cluster-node requests, which create accounts in {@code journal}. */
+    static BankServer startNode(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore,
+                                InetSocketAddress address, int loopCount) throws IOException {
+        return start(accounts, journal, historyStore, address, loopCount);
+    }
+
+    private static BankServer start(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore,
+                                    InetSocketAddress address, int loopCount) throws IOException {
+        if (loopCount < 1) throw new IllegalArgumentException("Server threads must be at least 1");
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(address, 1024);
+        BankServer server = new BankServer(accounts, journal, historyStore, channel, loopCount);
+        for (int i = 0; i < loopCount; i++) {
+            Thread t = new Thread(server.loops[i], "bank-server-loop-" + i);
+            server.loops[i].thread = t;
+            t.start();
+        }
+        server.acceptor.start();
+        return server;
+    }
+
+    int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** Deposit, withdrawal and transfer outcomes answered so far, summed over the event loops. */
+    ResultCounters resultCounts() {
+        ResultCounters sum = new ResultCounters();
+        for (EventLoop loop : loops) loop.results.addTo(sum);
+        return sum;
+    }
+
+    /** Refuses (or, with false, accepts again) every write from the next request on. */
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        for (EventLoop loop : loops) loop.selector.wakeup();
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (!closed) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                loop.pending.add(channel);
+                loop.selector.wakeup();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) System.err.println("ERROR: Accept failed — " + e.getMessage());
+            }
+        }
+    }
+
+    /** Per-connection state; only ever touched by the owning event loop. */
+    private static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        /** Kept in write mode: position is the end of the unsent responses. */
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+        int responseStart;
+        Account account;
+        int failedAuths;
+        boolean closeWhenFlushed;
+        boolean flushQueued;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        final List<Connection> toFlush = new ArrayList<>();
+        final Account.DurabilityBatch durability = new Account.DurabilityBatch();
+        final ResultCounters results = new ResultCounters();
+        Thread thread;
+        private String lastError;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            Account.batchDurability(durability);
+            try {
+                while (!closed) {
+                    selector.select();
+                    registerPending();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) read(c);
+                            if (key.isValid() && (key.isWritable() || c.out.position() > 0) && !c.flushQueued) {
+                                c.flushQueued = true;
+                                toFlush.add(c);
+                            }
+                        } catch (IOException e) {
+                            close(c);
+                        }
+                    }
+                    try {
+                        durability.awaitAll();
+                    } catch (RuntimeException e) {
+                        // Nothing in this round is durable: drop its responses with their connections.
+                        report(e);
+                        for (Connection c : toFlush) close(c);
+                    }
+                    for (Connection c : toFlush) {
+                        c.flushQueued = false;
+                        try {
+                            if (c.key.isValid()) flush(c);
+                        } catch (IOException e) {
+                            close(c);
+                        }
+                    }
+                    toFlush.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("ERROR: Server loop failed — " + e.getMessage());
+            } finally {
+                Account.batchDurability(null); // nothing is flushed from here on, so no need to wait
+
+                for (SelectionKey key : selector.keys()) close((Connection) key.attachment());
+                SocketChannel channel;
+                while ((channel = pending.poll()) != null) closeQuietly(channel);
+                closeQuietly(selector);
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                Connection c = new Connection(channel);
+                try {
+                    c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                } catch (ClosedChannelException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void read(Connection c) throws IOException {
+            if (!c.in.hasRemaining()) c.in = grow(c.in, c.in.capacity() * 2);
+            if (c.channel.read(c.in) < 0) {
+                close(c);
+                return;
+            }
+            ByteBuffer in = c.in.flip();
+            while (in.remaining() >= BankProtocol.HEADER_BYTES && !c.closeWhenFlushed) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > BankProtocol.MAX_FRAME) {
+                    close(c);
+                    return;
+                }
+                if (in.remaining() < BankProtocol.HEADER_BYTES + length) {
+                    int needed = BankProtocol.HEADER_BYTES + length;
+                    if (needed > in.capacity()) {
+                        c.in = grow(in.compact(), needed);
+                        return;
+                    }
+                    break;
+                }
+                int end = in.position() + BankProtocol.HEADER_BYTES + length;
+                int limit = in.limit();
+                in.position(in.position() + BankProtocol.HEADER_BYTES).limit(end);
+                handle(c, in);
+                in.limit(limit).position(end);
+            }
+            in.compact();
+        }
+
+        private void handle(Connection c, ByteBuffer req) {
+            byte op = req.get();
+            try {
+                if (op == BankProtocol.AUTH) {
+                    auth(c, BankProtocol.getString(req), BankProtocol.getString(req));
+                    return;
+                }
+                if (readOnly && BankProtocol.isWrite(op)) {
+                    respond(c, BankProtocol.READ_ONLY);
+                    return;
+                }
+                if (op >= BankProtocol.CREATE && op <= BankProtocol.IMPORT) {
+                    if (journal == null) respond(c, BankProtocol.BAD_REQUEST);
+                    else node(c, op, req);
+                    return;
+                }
+                Account account = c.account;
+                if (account == null) {
+                    respond(c, BankProtocol.NOT_AUTHENTICATED);
+                    return;
+                }
+                if (account.migrated()) { // exported since this connection authenticated
+                    c.account = null;
+                    respond(c, BankProtocol.NOT_FOUND);
+                    return;
+                }
+                switch (op) {
+                    case BankProtocol.DEPOSIT -> respondResult(c, ResultCounters.DEPOSIT,
+                            account.depositCents(req.getLong()), account);
+                    case BankProtocol.WITHDRAW -> respondResult(c, ResultCounters.WITHDRAW,
+                            account.withdrawCents(req.getLong()), account);
+                    case BankProtocol.BALANCE -> respondBalance(c, true, account);
+                    case BankProtocol.HISTORY -> history(c, account, req.getInt(), req.getShort());
+                    case BankProtocol.QUERY -> query(c, account, req);
+                    case BankProtocol.TRANSFER -> {
+                        Account to = accounts.get(BankProtocol.getString(req));
+                        long cents = req.getLong();
+                        if (to == null || to.migrated()) respond(c, BankProtocol.NOT_FOUND);
+                        else respondResult(c, ResultCounters.TRANSFER, Account.transferCents(account, to, cents),
+                                account);
+                    }
+                    default -> respond(c, BankProtocol.BAD_REQUEST);
+                }
+            } catch (BufferUnderflowException e) {
+                respond(c, BankProtocol.BAD_REQUEST);
+            } catch (RuntimeException e) {
+                report(e);
+                respond(c, BankProtocol.SERVER_ERROR);
+            }
+        }
+
+        /** Prints a request failure, once per distinct message so a failed log does not flood the console. */
+        private void report(RuntimeException e) {
+            String message = String.valueOf(e.getMessage());
+            if (message.equals(lastError)) return;
+            lastError = message;
+            System.err.println("ERROR: Request failed — " + message);
+        }
+
+        private void auth(Connection c, String number, String pin) {
+            long timer = BankMetrics.AUTHENTICATE.start();
+            Account account = accounts.get(number);
+            if (account != null && account.migrated()) account = null;
+            boolean verified = account != null && account.verifyPin(pin);
+            BankMetrics.AUTHENTICATE.stop(timer);
+            if (verified) {
+                c.account = account;
+                c.failedAuths = 0;
+                respondBalance(c, true, account);
+                return;
+            }
+            c.account = null;
+            BankMetrics.AUTH_FAILURES.increment();
+            respond(c, account == null ? BankProtocol.NOT_FOUND : BankProtocol.AUTH_FAILED);
+            if (++c.failedAuths >= MAX_AUTH_ATTEMPTS) c.closeWhenFlushed = true;
+        }
+
+        private void node(Connection c, byte op, ByteBuffer req) {
+            switch (op) {
+                case BankProtocol.CREATE -> {
+                    String number = BankProtocol.getString(req);
+                    String pin = BankProtocol.getString(req);
+                    String holder = BankProtocol.getString(req);
+                    long initialCents = req.getLong();
+                    if (number.isBlank() || holder.isBlank() || !pin.matches("\\d{4,6}") || initialCents < 0) {
+                        respond(c, BankProtocol.BAD_REQUEST);
+                        return;
+                    }
+                    Account created = accounts.createIfAbsent(number, n -> Account.createPending(n, holder,
+                            Money.toBigDecimal(initialCents), pin, journal, historyStore));
+                    created(c, created);
+                }
+                case BankProtocol.LIST -> list(c, req.getInt(), req.getShort());
+                case BankProtocol.EXPORT -> {
+                    Account.Migration migration = new Account.Migration();
+                    boolean[] exported = new boolean[1];
+                    accounts.remove(BankProtocol.getString(req), a -> exported[0] = a.migrateOut(migration));
+                    if (!exported[0]) {
+                        respond(c, BankProtocol.NOT_FOUND);
+                        return;
+                    }
+                    begin(c, BankProtocol.OK, 1 + BankProtocol.MAX_STRING_BYTES + BankProtocol.PIN_HASH_BYTES + 8);
+                    BankProtocol.putString(c.out, migration.holderName);
+                    c.out.put(migration.pinHash).putLong(migration.balanceCents);
+                    end(c);
+                }
+                default -> { // IMPORT
+                    String number = BankProtocol.getString(req);
+                    String holder = BankProtocol.getString(req);
+                    byte[] pinHash = new byte[BankProtocol.PIN_HASH_BYTES];
+                    req.get(pinHash);
+                    long balanceCents = req.getLong();
+                    if (balanceCents < 0 || balanceCents > Account.MAX_BALANCE_CENTS) {
+                        respond(c, BankProtocol.BAD_REQUEST);
+                        return;
+                    }
+                    created(c, accounts.createIfAbsent(number,
+                            n -> Account.migrateIn(n, holder, pinHash, balanceCents, journal, historyStore)));
+                }
+            }
+        }
+
+        /** Answers CREATE or IMPORT; the wait for the journaled create joins the loop's DurabilityBatch. */
+        private void created(Connection c, Account created) {
+            if (created == null) {
+                begin(c, BankProtocol.REJECTED, 8);
+                c.out.putLong(0L);
+                end(c);
+                return;
+            }
+            created.awaitDurable();
+            respondBalance(c, true, created);
+        }
+
+        private void list(Connection c, int offset, int max) {
+            if (offset < 0 || max < 0) {
+                respond(c, BankProtocol.BAD_REQUEST);
+                return;
+            }
+            List<String> numbers = new ArrayList<>(accounts.size());
+            accounts.forEach(a -> {
+                if (!a.migrated()) numbers.add(a.getAccountNumber());
+            });
+            Collections.sort(numbers);
+            int n = Math.max(0, Math.min(Math.min(max, BankProtocol.MAX_LIST_PAGE), numbers.size() - offset));
+            begin(c, BankProtocol.OK, 6 + n * (1 + BankProtocol.MAX_STRING_BYTES));
+            c.out.putInt(numbers.size()).putShort((short) n);
+            for (int i = 0; i < n; i++) BankProtocol.putString(c.out, numbers.get(offset + i));
+            end(c);
+        }
+
+        private void history(Connection c, Account account, int from, int max) {
+            if (from < 0 || max < 0) {
+                respond(c, BankProtocol.BAD_REQUEST);
+                return;
+            }
+            int pageSize = Math.min(max, BankProtocol.MAX_HISTORY_PAGE);
+            HistoryRecord[] page = new HistoryRecord[Math.max(pageSize, 1)];
+            for (int i = 0; i < pageSize; i++) page[i] = new HistoryRecord();
+            int total = account.historySize();
+            int n = pageSize == 0 ? 0 : account.readHistoryPage(from, page);
+            begin(c, BankProtocol.OK, 6 + n * HistoryRecord.BYTES);
+            ByteBuffer out = c.out;
+            out.putInt(total).putShort((short) n);
+            for (int i = 0; i < n; i++) {
+                page[i].writeTo(out, out.position());
+                out.position(out.position() + HistoryRecord.BYTES);
+            }
+            end(c);
+        }
+
+        private void query(Connection c, Account account, ByteBuffer req) {
+            HistoryQuery q = new HistoryQuery();
+            q.fromMicros = req.getLong();
+            q.toMicros = req.getLong();
+            q.typeMask = req.getInt();
+            q.newestFirst = req.get() != 0;
+            int max = req.getShort();
+            q.token = req.getLong();
+            if (max < 1) {
+                respond(c, BankProtocol.BAD_REQUEST);
+                return;
+            }
+            HistoryQuery.Page page = new HistoryQuery.Page(Math.min(max, BankProtocol.MAX_HISTORY_PAGE));
+            try {
+                account.queryHistory(q, page);
+            } catch (IllegalArgumentException e) { // token from another query
+                respond(c, BankProtocol.BAD_REQUEST);
+                return;
+            }
+            int n = page.count;
+            begin(c, BankProtocol.OK, 14 + n * HistoryRecord.BYTES);
+            ByteBuffer out = c.out;
+            out.putInt(account.historySize()).putShort((short) n);
+            for (int i = 0; i < n; i++) {
+                page.records[i].writeTo(out, out.position());
+                out.position(out.position() + HistoryRecord.BYTES);
+            }
+            out.putLong(page.nextToken);
+            end(c);
+        }
+
+        private void respondBalance(Connection c, boolean ok, Account account) {
+            begin(c, ok ? BankProtocol.OK : BankProtocol.REJECTED, 8);
+            c.out.putLong(account.getBalanceCents());
+            end(c);
+        }
+
+        /** OK with the balance, or REJECTED with the balance and the reason; counted per reason either way. */
+        private void respondResult(Connection c, int operation, TransactionResult result, Account account) {
+            results.record(operation, result);
+            if (result == TransactionResult.OK) {
+                respondBalance(c, true, account);
+                return;
+            }
+            begin(c, BankProtocol.REJECTED, 9);
+            c.out.putLong(account.getBalanceCents()).put(BankProtocol.reasonCode(result));
+            end(c);
+        }
+
+        private void respond(Connection c, byte status) {
+            begin(c, status, 0);
+            end(c);
+        }
+
+        private void begin(Connection c, byte status, int payloadBytes) {
+            int needed = BankProtocol.HEADER_BYTES + 1 + payloadBytes;
+            if (c.out.remaining() < needed) c.out = grow(c.out, c.out.position() + needed);
+            c.responseStart = c.out.position();
+            c.out.putInt(0).put(status);
+        }
+
+        private void end(Connection c) {
+            c.out.putInt(c.responseStart, c.out.position() - c.responseStart - BankProtocol.HEADER_BYTES);
+        }
+
+        private void flush(Connection c) throws IOException {
+            ByteBuffer out = c.out.flip();
+            if (out.hasRemaining()) c.channel.write(out);
+            out.compact();
+            int pendingBytes = out.position();
+            if (pendingBytes == 0 && c.closeWhenFlushed) {
+                close(c);
+                return;
+            }
+            int ops = pendingBytes > OUT_HIGH_WATER || c.closeWhenFlushed ? 0 : SelectionKey.OP_READ;
+            if (pendingBytes > 0) ops |= SelectionKey.OP_WRITE;
+            if (c.key.interestOps() != ops) c.key.interestOps(ops);
+        }
+
+        private void close(Connection c) {
+            c.key.cancel();
+            closeQuietly(c.channel);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buf, int minCapacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(minCapacity, buf.capacity() * 2));
+        bigger.put(buf.flip());
+        return bigger;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do with a failed close of a dropped connection.
+        }
+    }
+}
@@ -0,0 +1,422 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One interactive ATM session: the menu and its flows, reading from its own input and writing
+ * to its own output instead of the process console, so many sessions can run at once.
+ *
+ * Notes:
+ * - Flows are plain blocking code; run each session on its own thread, ideally a virtual one
+ *   (newSessionExecutor()).
+ * - Nothing here blocks while holding an Account lock: accounts drop their lock before
+ *   waiting for durability, and the write-ahead log waits on a Condition, so a virtual thread
+ *   parks without pinning its carrier.
+ * - A session ends on Exit or when its input is exhausted.
+ */
+final class BankSession implements Runnable {
+    static final long MENU_DELAY_MILLIS = 450;
+    private static final int MAX_PIN_ATTEMPTS = 3;
+    private static final int STATEMENT_ENTRIES = 20;
+
+    private final AccountRegistry accounts;
+    private final AccountJournal journal;
+    private final HistoryStore historyStore;
+    private final BufferedReader in;
+    private final OutputSink out; // flushed whenever the session waits for input
+    private final long delayMillis;
+    private boolean inputClosed;
+
+    /** {@code delayMillis} paces the UI (MENU_DELAY_MILLIS at a real terminal, 0 for simulated sessions). */
+    BankSession(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore, BufferedReader in,
+                OutputSink out, long delayMillis) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.historyStore = historyStore;
+        this.in = in;
+        this.out = out;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * One new virtual thread per session on Java 21+, found reflectively so the code still
+     * compiles and runs on Java 17; there, one platform thread per session.
+     */
+    static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread t = new Thread(task, "session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Whether newSessionExecutor() runs sessions on virtual threads on this JVM. */
+    static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            runMenu();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void runMenu() {
+        while (true) {
+            delay();
+            printMainMenu();
+            int choice = readIntWithPrompt("Enter your choice: ");
+            if (inputClosed) return;
+            switch (choice) {
+                case 1 -> createAccountFlow();
+                case 2 -> { if (ensureAtLeastOneAccount()) depositFlow(); }
+                case 3 -> { if (ensureAtLeastOneAccount()) withdrawFlow(); }
+                case 4 -> { if (ensureAtLeastOneAccount()) balanceFlow(); }
+                case 5 -> { if (ensureAtLeastOneAccount()) historyFlow(); }
+                case 6 -> {
+                    delay();
+                    out.println("Goodbye — thank you for using Java Bank.");
+                    return;
+                }
+                case 7 -> { if (ensureAtLeastOneAccount()) transferFlow(); }
+                default -> { delay(); out.println("ERROR: Invalid choice. Please select a valid menu option."); }
+            }
+        }
+    }
+
+    private void printMainMenu() {
+        out.println("\n===== Java Bank =====");
+        out.println("1. Create Account");
+        out.println("2. Deposit Money");
+        out.println("3. Withdraw Money");
+        out.println("4. Check Balance");
+        out.println("5. View Transaction History");
+        out.println("6. Exit");
+        out.println("7. Transfer Money");
+    }
+
+    private boolean ensureAtLeastOneAccount() {
+        if (accounts.isEmpty()) {
+            delay();
+            out.println("INFO: No accounts found. Please create an account first (Option 1).");
+            return false;
+        }
+        return true;
+    }
+
+    private void createAccountFlow() {
+        out.println("\n--- Create Account ---");
+        delay();
+        String accNum;
+        while (true) {
+            accNum = readNonEmptyString("Enter Account Number (alphanumeric, no spaces): ");
+            if (accNum == null) return;
+            accNum = accNum.trim();
+            if (accNum.contains(" ")) {
+                delay();
+                out.println("ERROR: Account number cannot contain spaces.");
+                continue;
+            }
+            if (accounts.contains(accNum)) {
+                delay();
+                out.println("ERROR: Account number already exists. Choose a different one.");
+                continue;
+            }
+            break;
+        }
+
+        String name = readNonEmptyString("Enter Account Holder Name: ");
+        if (name == null) return;
+        String holder = name.trim();
+        BigDecimal initialDeposit = readBigDecimalAllowZero("Enter Initial Deposit (0 allowed): ");
+
+        // PIN setup
+        String pin;
+        while (true) {
+            pin = readNonEmptyString("Set a 4-6 digit numeric PIN: ");
+            if (pin == null) return;
+            pin = pin.trim();
+            if (!pin.matches("\\d{4,6}")) {
+                delay();
+                out.println("ERROR: PIN must be 4 to 6 digits numeric.");
+                continue;
+            }
+            String pinConfirm = readNonEmptyString("Confirm PIN: ");
+            if (pinConfirm == null) return;
+            if (!pin.equals(pinConfirm.trim())) {
+                delay();
+                out.println("ERROR: PINs do not match. Try again.");
+                continue;
+            }
+            break;
+        }
+
+        // The factory runs under a registry lock, so only log there and wait for durability after.
+        String finalPin = pin;
+        Account account = accounts.createIfAbsent(accNum,
+                number -> Account.createPending(number, holder, initialDeposit, finalPin, journal, historyStore));
+        if (account != null) account.awaitDurable();
+        delay();
+        if (account == null) {
+            out.println("ERROR: Account number already exists. Choose a different one.");
+            return;
+        }
+        out.println("SUCCESS: Account created for '" + holder + "' with Account Number: " + accNum);
+    }
+
+    private void depositFlow() {
+        out.println("\n--- Deposit ---");
+        delay();
+        Account account = authenticateAccount();
+        if (account == null) return;
+
+        BigDecimal amount = readBigDecimalStrict("Enter deposit amount (greater than 0): ");
+        if (amount == null) return;
+
+        delay();
+        TransactionResult result = account.deposit(amount);
+        if (result != TransactionResult.OK) {
+            reportFailure("Deposit", result);
+            return;
+        }
+        HistoryFormatter f = HistoryFormatter.get();
+        Money.appendTo(f.begin().append("SUCCESS: Deposited "), Money.toCents(amount));
+        f.println(out);
+    }
+
+    private void withdrawFlow() {
+        out.println("\n--- Withdraw ---");
+        delay();
+        Account account = authenticateAccount();
+        if (account == null) return;
+
+        BigDecimal amount = readBigDecimalStrict("Enter withdrawal amount (greater than 0): ");
+        if (amount == null) return;
+
+        delay();
+        TransactionResult result = account.withdraw(amount);
+        if (result != TransactionResult.OK) {
+            reportFailure("Withdrawal", result);
+            return;
+        }
+        HistoryFormatter f = HistoryFormatter.get();
+        Money.appendTo(f.begin().append("SUCCESS: Withdrew "), Money.toCents(amount));
+        f.println(out);
+    }
+
+    private void balanceFlow() {
+        out.println("\n--- Check Balance ---");
+        delay();
+        Account account = authenticateAccount();
+        if (account == null) return;
+
+        delay();
+        account.printAccountSummary(out);
+    }
+
+    private void historyFlow() {
+        out.println("\n--- Transaction History ---");
+        delay();
+        Account account = authenticateAccount();
+        if (account == null) return;
+
+        delay();
+        account.printRecentTransactions(STATEMENT_ENTRIES, out);
+    }
+
+    private void transferFlow() {
+        out.println("\n--- Transfer ---");
+        delay();
+        Account from = authenticateAccount();
+        if (from == null) return;
+
+        String toNumber = readNonEmptyString("Enter destination Account Number: ");
+        if (toNumber == null) return;
+        Account to = accounts.get(toNumber.trim());
+        if (to == null) {
+            delay();
+            out.println("ERROR: Destination account not found. Please check the account number.");
+            return;
+        }
+
+        BigDecimal amount = readBigDecimalStrict("Enter transfer amount (greater than 0): ");
+        if (amount == null) return;
+
+        delay();
+        TransactionResult result = Account.transfer(from, to, amount);
+        if (result != TransactionResult.OK) {
+            reportFailure("Transfer", result);
+            return;
+        }
+        HistoryFormatter f = HistoryFormatter.get();
+        Money.appendTo(f.begin().append("SUCCESS: Transferred "), Money.toCents(amount)).append(" to ")
+                .append(to.getAccountNumber());
+        f.println(out);
+    }
+
+    /** "ERROR: Deposit failed — insufficient funds." and the like; {@code what} names the operation. */
+    private void reportFailure(String what, TransactionResult result) {
+        HistoryFormatter f = HistoryFormatter.get();
+        StringBuilder line = f.begin().append("ERROR: ").append(what);
+        switch (result) {
+            case OVER_TRANSACTION_LIMIT -> line.append(" exceeds allowed single-transaction limit.");
+            // A transfer only ever credits, and so only ever fills, the destination.
+            case OVER_BALANCE_LIMIT -> line.append(" failed — ").append(what.equals("Transfer") ? "destination " : "")
+                    .append(result.reason).append('.');
+            default -> line.append(" failed — ").append(result.reason).append('.');
+        }
+        f.println(out);
+    }
+
+    private Account authenticateAccount() {
+        String accNum = readNonEmptyString("Enter Account Number: ");
+        if (accNum == null) return null;
+        Account account = accounts.get(accNum.trim());
+        if (account == null) {
+            delay();
+            out.println("ERROR: Account not found. Please check the account number.");
+            return null;
+        }
+
+        for (int attempt = 1; attempt <= MAX_PIN_ATTEMPTS; attempt++) {
+            String pin = readNonEmptyString("Enter PIN (attempt " + attempt + "/" + MAX_PIN_ATTEMPTS + "): ");
+            if (pin == null) return null;
+            if (account.verifyPin(pin.trim())) {
+                delay();
+                return account;
+            } else {
+                delay();
+                out.println("ERROR: Incorrect PIN.");
+            }
+        }
+        delay();
+        out.println("ERROR: Maximum PIN attempts exceeded. Operation aborted.");
+        return null;
+    }
+
+    // -----------------------
+    // Input helper utilities
+    // -----------------------
+
+    /** Next input line, or null once the input is exhausted (reported once). */
+    private String nextLine() {
+        if (inputClosed) return null;
+        out.flush(); // the prompt and everything before it, in one write
+        String line;
+        try {
+            line = in.readLine();
+        } catch (IOException e) {
+            line = null;
+        }
+        if (line == null) {
+            inputClosed = true;
+            delay();
+            out.println("ERROR: Input stream closed unexpectedly.");
+        }
+        return line;
+    }
+
+    /** Returns null once the input is exhausted. */
+    private String readNonEmptyString(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String line = nextLine();
+            if (line == null) return null;
+            if (line.trim().isEmpty()) {
+                delay();
+                out.println("ERROR: Input cannot be empty. Try again.");
+                continue;
+            }
+            return line;
+        }
+    }
+
+    private int readIntWithPrompt(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String line = nextLine();
+            if (line == null) return -1;
+            try {
+                return Integer.parseInt(line.trim());
+            } catch (NumberFormatException e) {
+                delay();
+                out.println("ERROR: Invalid number. Please enter a valid integer.");
+            }
+        }
+    }
+
+    private BigDecimal readBigDecimalAllowZero(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String line = nextLine();
+            if (line == null) return BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
+            line = line.trim();
+            if (line.isEmpty()) return BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
+            try {
+                BigDecimal bd = new BigDecimal(line).setScale(2, RoundingMode.HALF_UP);
+                if (bd.compareTo(BigDecimal.ZERO) < 0) {
+                    delay();
+                    out.println("ERROR: Amount cannot be negative. Try again.");
+                    continue;
+                }
+                return bd;
+            } catch (NumberFormatException | ArithmeticException ex) {
+                delay();
+                out.println("ERROR: Invalid amount. Use numeric format (e.g., 1000.00).");
+            }
+        }
+    }
+
+    private BigDecimal readBigDecimalStrict(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String line = nextLine();
+            if (line == null) return null;
+            line = line.trim();
+            if (line.isEmpty()) {
+                delay();
+                out.println("ERROR: Amount cannot be empty. Try again.");
+                continue;
+            }
+            try {
+                BigDecimal bd = new BigDecimal(line).setScale(2, RoundingMode.HALF_UP);
+                if (bd.compareTo(BigDecimal.ZERO) <= 0) {
+                    delay();
+                    out.println("ERROR: Amount must be greater than zero.");
+                    continue;
+                }
+                return bd;
+            } catch (NumberFormatException | ArithmeticException ex) {
+                delay();
+                out.println("ERROR: Invalid amount. Use numeric format (e.g., 50.25).");
+            }
+        }
+    }
+
+    // -----------------------
+    // Delay utility
+    // -----------------------
+    private void delay() {
+        if (delayMillis <= 0) return;
+        try {
+            Thread.sleep(delayMillis); // smooth ATM-like transition
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
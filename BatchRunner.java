@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Headless execution of a command file against the same {@link Account} logic as the
+ * interactive menu, with no prompts and no delays.
+ *
+ * Commands (one per line, whitespace-separated; blank lines and lines starting with # are skipped):
+ *   CREATE   <account> <pin> <initialDeposit> <holder name...>
+ *   DEPOSIT  <account> <amount>
+ *   WITHDRAW <account> <amount>
+ *   TRANSFER <from> <to> <amount>
+ *   BALANCE  <account>
+ *   HISTORY  <account> [<last n entries>]
+ *
+ * Notes:
+ * - Command files are trusted input: no PIN is asked for, only CREATE takes one.
+ * - Amounts are parsed straight to cents (Money.parseCents) with the usual HALF_UP rounding.
+ * - Every command produces one result line (HISTORY: one line per entry) on the output writer.
+ * - Commands run through CommandSequencer.apply(), either directly on the reading thread
+ *   (run()), through a CommandSequencer pipeline (runSequenced()) or spread over ShardedBank
+ *   workers (runSharded()); the output is the same.
+ */
+final class BatchRunner {
+    /** Outcome counters of one run. */
+    static final class Summary {
+        long commands;
+        long failed;
+        long nanos;
+        final ResultCounters results = new ResultCounters(); // counted by whichever thread writes the results
+
+        /** Counts the outcome of a deposit, withdrawal or transfer that reached its account(s). */
+        void count(CommandSequencer.Command c) {
+            if (c.result == null) return;
+            results.record(c.type == CommandSequencer.DEPOSIT ? ResultCounters.DEPOSIT
+                    : c.type == CommandSequencer.WITHDRAW ? ResultCounters.WITHDRAW : ResultCounters.TRANSFER, c.result);
+        }
+
+        double opsPerSecond() {
+            return nanos == 0 ? 0 : commands * 1e9 / nanos;
+        }
+    }
+
+    private static final int MAX_FIELDS = 5;
+    private static final int SHARD_WINDOW = 4096; // commands runSharded() keeps in flight
+    private static final String UNKNOWN = "";
+    private static final String[] COMMANDS = {UNKNOWN, "CREATE", "DEPOSIT", "WITHDRAW", "TRANSFER", "BALANCE", "HISTORY"};
+    private static final byte[] TYPES = {CommandSequencer.NONE, CommandSequencer.CREATE, CommandSequencer.DEPOSIT,
+            CommandSequencer.WITHDRAW, CommandSequencer.TRANSFER, CommandSequencer.BALANCE, CommandSequencer.HISTORY};
+
+    private final AccountRegistry accounts;
+    private final AccountJournal journal;
+    private final HistoryStore historyStore;
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+
+    BatchRunner(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.historyStore = historyStore;
+    }
+
+    Summary run(BufferedReader in, Writer out) throws IOException {
+        Summary summary = new Summary();
+        CommandSequencer.Command command = new CommandSequencer.Command();
+        long start = System.nanoTime();
+        String line;
+        long lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            int fields = split(line);
+            if (fields == 0 || line.charAt(fieldStart[0]) == '#') continue;
+            summary.commands++;
+            String error = parse(line, fields, command);
+            if (error == null) CommandSequencer.apply(command, accounts, journal, historyStore);
+            if (!write(command, error, lineNo, out)) summary.failed++;
+            summary.count(command);
+        }
+        out.flush();
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Like run(), but every command goes through a {@link CommandSequencer} with a ring of
+     * {@code ringSize} slots: this thread only parses, the sequencer applies the commands and
+     * its reply thread writes the results. The output is the same as run()'s.
+     */
+    Summary runSequenced(BufferedReader in, Writer out, int ringSize) throws IOException {
+        Summary summary = new Summary();
+        IOException[] writeFailure = new IOException[1];
+        CommandSequencer sequencer = new CommandSequencer(accounts, journal, historyStore, ringSize,
+                (command, sequence, endOfBatch) -> {
+                    if (writeFailure[0] != null) return;
+                    try {
+                        if (!write(command, (String) command.attachment, command.tag, out)) summary.failed++;
+                        summary.count(command);
+                    } catch (IOException e) {
+                        writeFailure[0] = e;
+                    }
+                });
+        long start = System.nanoTime();
+        try {
+            String line;
+            long lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                int fields = split(line);
+                if (fields == 0 || line.charAt(fieldStart[0]) == '#') continue;
+                summary.commands++;
+                long sequence = sequencer.next();
+                CommandSequencer.Command command = sequencer.get(sequence);
+                String error = parse(line, fields, command);
+                if (error != null) command.type = CommandSequencer.NONE;
+                command.attachment = error;
+                command.tag = lineNo;
+                sequencer.publish(sequence);
+            }
+        } finally {
+            sequencer.close(); // joins the reply thread, so its counters and writes are visible here
+        }
+        if (writeFailure[0] != null) throw writeFailure[0];
+        out.flush();
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Like run(), but every command goes to the {@link ShardedBank} shard of its account, so
+     * commands on different shards run in parallel. Results are written in file order and are
+     * the same as run()'s, since each account still sees its commands in file order.
+     */
+    Summary runSharded(BufferedReader in, Writer out, int shardCount) throws IOException {
+        Summary summary = new Summary();
+        Pending[] window = new Pending[SHARD_WINDOW];
+        for (int i = 0; i < SHARD_WINDOW; i++) window[i] = new Pending();
+        ShardedBank.Callback callback = c -> ((Pending) c.attachment).done = true;
+        long start = System.nanoTime();
+        long submitted = 0;
+        long written = 0;
+        try (ShardedBank bank = new ShardedBank(accounts, journal, historyStore, shardCount)) {
+            String line;
+            long lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                int fields = split(line);
+                if (fields == 0 || line.charAt(fieldStart[0]) == '#') continue;
+                summary.commands++;
+                if (submitted - written == SHARD_WINDOW) written = writeNext(window, written, out, summary);
+                Pending p = window[(int) (submitted++ % SHARD_WINDOW)];
+                p.lineNo = lineNo;
+                p.error = parse(line, fields, p.command);
+                p.done = p.error != null;
+                p.command.attachment = p;
+                if (p.error == null) bank.submit(p.command, callback);
+            }
+            while (written < submitted) written = writeNext(window, written, out, summary);
+        }
+        out.flush();
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /** A command of runSharded() waiting for its result; slots of the window are reused. */
+    private static final class Pending {
+        final CommandSequencer.Command command = new CommandSequencer.Command();
+        long lineNo;
+        String error;
+        volatile boolean done;
+    }
+
+    /** Waits for the oldest unwritten command of the window, writes it and returns the new count. */
+    private long writeNext(Pending[] window, long written, Writer out, Summary summary) throws IOException {
+        Pending p = window[(int) (written % SHARD_WINDOW)];
+        while (!p.done) Thread.yield();
+        if (!write(p.command, p.error, p.lineNo, out)) summary.failed++;
+        summary.count(p.command);
+        p.command.attachment = null;
+        p.command.history = null;
+        return written + 1;
+    }
+
+    /** Fills {@code c} from the command line; returns null, or the reason the line is invalid. */
+    private String parse(String line, int fields, CommandSequencer.Command c) {
+        int index = commandIndex(line);
+        String command = COMMANDS[index];
+        c.type = TYPES[index];
+        c.result = null; // a line that fails to parse never reaches apply(), which sets it
+        try {
+            switch (command) {
+                case "CREATE" -> {
+                    if (fields < 5) return "usage: CREATE <account> <pin> <initialDeposit> <holder name>";
+                    c.account = field(line, 1);
+                    c.pin = field(line, 2);
+                    if (!isPin(c.pin)) return "PIN must be 4 to 6 digits numeric";
+                    c.cents = Money.parseCents(line, fieldStart[3], fieldEnd[3]);
+                    if (c.cents < 0) return "initial deposit cannot be negative";
+                    c.holderName = line.substring(fieldStart[4]).trim();
+                }
+                case "DEPOSIT", "WITHDRAW" -> {
+                    if (fields < 3) return "usage: " + command + " <account> <amount>";
+                    c.account = field(line, 1);
+                    c.cents = Money.parseCents(line, fieldStart[2], fieldEnd[2]);
+                }
+                case "TRANSFER" -> {
+                    if (fields < 4) return "usage: TRANSFER <from> <to> <amount>";
+                    c.account = field(line, 1);
+                    c.to = field(line, 2);
+                    c.cents = Money.parseCents(line, fieldStart[3], fieldEnd[3]);
+                }
+                case "BALANCE" -> {
+                    if (fields < 2) return "usage: BALANCE <account>";
+                    c.account = field(line, 1);
+                }
+                case "HISTORY" -> {
+                    if (fields < 2) return "usage: HISTORY <account> [<last n entries>]";
+                    c.account = field(line, 1);
+                    c.count = 0;
+                    if (fields > 2) {
+                        try {
+                            c.count = Integer.parseInt(field(line, 2));
+                        } catch (NumberFormatException e) {
+                            return "invalid entry count";
+                        }
+                        if (c.count < 1) return "invalid entry count";
+                    }
+                }
+                default -> {
+                    return "unknown command " + field(line, 0);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return "invalid amount";
+        }
+        return null;
+    }
+
+    /**
+     * Writes the result lines of one command (or the ERROR line for {@code error} or a failed
+     * outcome); returns whether it succeeded.
+     */
+    private static boolean write(CommandSequencer.Command c, String error, long lineNo, Writer out) throws IOException {
+        if (error == null) error = failure(c);
+        if (error != null) {
+            out.write("ERROR line " + lineNo + ": " + error);
+            out.write('\n');
+            return false;
+        }
+        switch (c.type) {
+            case CommandSequencer.CREATE -> out.write("OK CREATE ");
+            case CommandSequencer.DEPOSIT -> out.write("OK DEPOSIT ");
+            case CommandSequencer.WITHDRAW -> out.write("OK WITHDRAW ");
+            case CommandSequencer.TRANSFER -> out.write("OK TRANSFER ");
+            case CommandSequencer.BALANCE -> out.write("BALANCE ");
+            case CommandSequencer.HISTORY -> {
+                for (String entry : c.history) {
+                    out.write("HISTORY ");
+                    out.write(c.account);
+                    out.write(' ');
+                    out.write(entry);
+                    out.write('\n');
+                }
+                return true;
+            }
+            default -> throw new IllegalStateException("Unexpected command type " + c.type);
+        }
+        out.write(c.account);
+        if (c.type == CommandSequencer.BALANCE) {
+            out.write(' ');
+            out.write(Money.format(c.balanceCents));
+        }
+        out.write('\n');
+        return true;
+    }
+
+    /** The reason an applied command failed, or null if it succeeded. */
+    private static String failure(CommandSequencer.Command c) {
+        if (c.status == BankProtocol.OK) return null;
+        if (c.status == BankProtocol.NOT_FOUND) return "account not found";
+        if (c.status == BankProtocol.SERVER_ERROR) return COMMANDS[c.type] + " failed — not applied, or not durable";
+        String rejected = switch (c.type) {
+            case CommandSequencer.CREATE -> "account " + c.account + " already exists";
+            case CommandSequencer.DEPOSIT -> "DEPOSIT rejected for " + c.account;
+            case CommandSequencer.WITHDRAW -> "WITHDRAW rejected for " + c.account;
+            default -> "TRANSFER rejected";
+        };
+        return c.result == null ? rejected : rejected + " — " + c.result.reason;
+    }
+
+    /** Case-insensitive match of field 0 against COMMANDS without allocating; 0 if unknown. */
+    private int commandIndex(String line) {
+        int len = fieldEnd[0] - fieldStart[0];
+        for (int i = 1; i < COMMANDS.length; i++) {
+            String c = COMMANDS[i];
+            if (c.length() == len && line.regionMatches(true, fieldStart[0], c, 0, len)) return i;
+        }
+        return 0;
+    }
+
+    /** Records the bounds of up to MAX_FIELDS whitespace-separated fields; returns how many were found. */
+    private int split(String line) {
+        int n = 0;
+        int i = 0;
+        int len = line.length();
+        while (n < MAX_FIELDS) {
+            while (i < len && Character.isWhitespace(line.charAt(i))) i++;
+            if (i == len) break;
+            fieldStart[n] = i;
+            while (i < len && !Character.isWhitespace(line.charAt(i))) i++;
+            fieldEnd[n++] = i;
+        }
+        return n;
+    }
+
+    private String field(String line, int index) {
+        return line.substring(fieldStart[index], fieldEnd[index]);
+    }
+
+    private static boolean isPin(String pin) {
+        if (pin.length() < 4 || pin.length() > 6) return false;
+        for (int i = 0; i < pin.length(); i++) {
+            if (pin.charAt(i) < '0' || pin.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * OutputSink that encodes text into one byte buffer and hands it to the underlying stream in
+ * batches: when the buffer fills, and on flush(). A session flushes once per prompt, so a menu
+ * and the messages before it reach the terminal in one write instead of one per line.
+ *
+ * Notes:
+ * - With an ASCII-compatible charset, ASCII characters are copied straight into the buffer;
+ *   runs of other characters go through a CharsetEncoder, unmappable ones replaced as
+ *   PrintStream does.
+ * - Methods are synchronized, so a shutdown hook can report alongside the main thread; a sink
+ *   owned by one session thread never contends.
+ * - A failed write is remembered (checkError()) and later output dropped, as with PrintStream:
+ *   a console that went away must not fail the operation that was reporting to it.
+ */
+final class BufferedOutputSink implements OutputSink {
+    static final int DEFAULT_CAPACITY = 1 << 13;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder;
+    private final boolean asciiCompatible;
+    private final ByteBuffer buffer;
+    private boolean error;
+
+    BufferedOutputSink(OutputStream out, Charset charset) {
+        this(out, charset, DEFAULT_CAPACITY);
+    }
+
+    BufferedOutputSink(OutputStream out, Charset charset, int capacity) {
+        if (capacity < 16) throw new IllegalArgumentException("Buffer capacity must be at least 16 bytes: " + capacity);
+        this.out = out;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        String probe = "Az09 \n\u007f";
+        this.asciiCompatible = Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /** A sink over System.out, in the charset System.out encodes with. */
+    static BufferedOutputSink console() {
+        return new BufferedOutputSink(System.out, consoleCharset());
+    }
+
+    /**
+     * stdout.encoding (Java 19+), else sun.stdout.encoding (set for a Windows console), else
+     * the default charset: the order in which the JDK picks System.out's charset.
+     */
+    private static Charset consoleCharset() {
+        for (String property : new String[] {"stdout.encoding", "sun.stdout.encoding"}) {
+            String name = System.getProperty(property);
+            if (name == null) continue;
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                break; // unknown or unsupported; the JDK falls back to the default too
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    @Override
+    public synchronized void print(CharSequence text) {
+        append(text);
+    }
+
+    @Override
+    public synchronized void println(CharSequence line) {
+        append(line);
+        append(LINE_SEPARATOR);
+    }
+
+    @Override
+    public synchronized void flush() {
+        drain();
+        if (error) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /** Whether a write to the underlying stream has failed. */
+    synchronized boolean checkError() {
+        return error;
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    private void append(CharSequence text) {
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c < 0x80 && asciiCompatible) {
+                if (!buffer.hasRemaining()) drain();
+                buffer.put((byte) c);
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < len && (text.charAt(end) >= 0x80 || !asciiCompatible)) end++;
+            encode(CharBuffer.wrap(text, i, end)); // surrogate pairs are never split: both halves are >= 0x80
+            i = end;
+        }
+    }
+
+    private void encode(CharBuffer chars) {
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) drain();
+        while (encoder.flush(buffer).isOverflow()) drain();
+    }
+
+    private void drain() {
+        if (buffer.position() > 0 && !error) {
+            try {
+                out.write(buffer.array(), 0, buffer.position());
+            } catch (IOException e) {
+                error = true;
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thin front end for a cluster of BankServer nodes (each a BankApp process started with
+ * --server and --cluster-node): clients speak plain {@link BankProtocol} to the router, which
+ * forwards every frame to the node owning the account according to a {@link HashRing}.
+ *
+ * Routing:
+ *   AUTH, CREATE       to the owner of the account they name
+ *   everything else    to the node the connection authenticated on; when a rebalance has
+ *                      moved that account since, the saved AUTH is first replayed on its new node
+ *   LIST/EXPORT/IMPORT never from clients (BAD_REQUEST); only addNode() sends them
+ *
+ * addNode() rebalances: with routing paused, it lists every existing node and moves each
+ * account the new ring assigns to the new node (EXPORT on the old node, IMPORT on the new one;
+ * both are journaled, so a restarted node still knows what left and what arrived), then
+ * switches to the new ring.
+ *
+ * Notes:
+ * - One blocking thread per client connection (BankSession.newSessionExecutor(), virtual on
+ *   Java 21+), each with its own upstream connection per node; a frame is forwarded and its
+ *   response read back before the next one, so pipelined requests are still answered in order.
+ * - A TRANSFER to an account on another node is answered NOT_FOUND: each node journals its
+ *   own accounts and there is no cross-node commit protocol.
+ * - An account's history stays on the node it left; its new node starts it with one
+ *   "moved to this node" entry carrying the balance.
+ */
+final class ClusterRouter implements Closeable {
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = BankSession.newSessionExecutor();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    /** Read-locked while a frame is routed, write-locked while addNode() moves accounts. */
+    private final ReentrantReadWriteLock routing = new ReentrantReadWriteLock();
+    private final Thread acceptor;
+    private volatile HashRing ring;
+    private volatile long epoch; // bumped by every rebalance, so connections re-check their node
+    private volatile boolean closed;
+
+    private ClusterRouter(ServerSocket serverSocket, HashRing ring) {
+        this.serverSocket = serverSocket;
+        this.ring = ring;
+        this.acceptor = new Thread(this::acceptLoop, "cluster-router-acceptor");
+    }
+
+    /** Starts routing to {@code nodes} ("host:port" each), which must already be running. */
+    static ClusterRouter start(InetSocketAddress address, List<String> nodes) throws IOException {
+        for (String node : nodes) addressOf(node);
+        ServerSocket socket = new ServerSocket();
+        socket.bind(address, 1024);
+        ClusterRouter router = new ClusterRouter(socket, new HashRing(nodes));
+        router.acceptor.start();
+        return router;
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    List<String> nodes() {
+        return ring.nodes();
+    }
+
+    /**
+     * Adds a running, empty node and moves the accounts it now owns onto it; returns how many
+     * moved. Client requests wait meanwhile. If a move fails, the accounts moved so far are
+     * moved back and the ring is left as it was.
+     *
+     * @throws IllegalArgumentException if the node is already in the ring or holds accounts
+     */
+    int addNode(String node) throws IOException {
+        InetSocketAddress address = addressOf(node);
+        routing.writeLock().lock();
+        try {
+            HashRing next = ring.withNode(node);
+            List<String> moved = new ArrayList<>();
+            List<BankClient> sources = new ArrayList<>();
+            try (BankClient target = BankClient.connect(address)) {
+                if (!listAccounts(target).isEmpty()) throw new IllegalArgumentException("Node " + node + " is not empty");
+                try {
+                    for (String old : ring.nodes()) {
+                        BankClient source = BankClient.connect(addressOf(old));
+                        sources.add(source);
+                        for (String number : listAccounts(source)) {
+                            if (!next.owner(number).equals(node)) continue;
+                            if (move(source, target, number)) moved.add(number);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("ERROR: Rebalance onto " + node + " failed — moving " + moved.size()
+                            + " account(s) back: " + e.getMessage());
+                    for (int i = moved.size() - 1; i >= 0; i--) {
+                        String number = moved.get(i);
+                        try (BankClient back = BankClient.connect(addressOf(ring.owner(number)))) {
+                            move(target, back, number);
+                        } catch (IOException | RuntimeException again) {
+                            System.err.println("ERROR: Could not move " + number + " back — it stays on " + node);
+                        }
+                    }
+                    throw e;
+                } finally {
+                    for (BankClient source : sources) source.close();
+                }
+            }
+            ring = next;
+            epoch++;
+            return moved.size();
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) closeQuietly(client);
+        executor.shutdownNow();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                executor.execute(new Route(client));
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException e) {
+                if (!closed) System.err.println("ERROR: Router accept failed — " + e.getMessage());
+            }
+        }
+    }
+
+    // -----------------------
+    // Rebalancing helpers
+    // -----------------------
+
+    /** Every account on the node, sorted. */
+    private static List<String> listAccounts(BankClient node) throws IOException {
+        List<String> numbers = new ArrayList<>();
+        while (true) {
+            node.sendList(numbers.size(), BankProtocol.MAX_LIST_PAGE);
+            node.flush();
+            byte status = node.readResponse();
+            if (status != BankProtocol.OK) throw new IOException("LIST answered " + BankProtocol.statusName(status));
+            if (node.readList(numbers) == 0 || numbers.size() >= node.listTotal()) return numbers;
+        }
+    }
+
+    /**
+     * Moves one account; returns false if the source no longer had it. If the target refuses
+     * it, it is put back on the source and an IOException is thrown.
+     */
+    private static boolean move(BankClient from, BankClient to, String number) throws IOException {
+        from.sendExport(number);
+        from.flush();
+        if (from.readResponse() != BankProtocol.OK) return false;
+        Account.Migration migration = from.readMigration();
+        to.sendImport(number, migration);
+        to.flush();
+        byte status = to.readResponse();
+        if (status == BankProtocol.OK) return true;
+        from.sendImport(number, migration);
+        from.flush();
+        byte back = from.readResponse();
+        throw new IOException("IMPORT of " + number + " answered " + BankProtocol.statusName(status)
+                + (back == BankProtocol.OK ? "; it was put back" : "; putting it back answered " + BankProtocol.statusName(back)));
+    }
+
+    // -----------------------
+    // Client connections
+    // -----------------------
+
+    /** One client connection; only ever touched by its own thread. */
+    private final class Route implements Runnable {
+        final Socket client;
+        final Map<String, Upstream> upstreams = new HashMap<>();
+        byte[] authFrame; // the AUTH that succeeded, replayed when the account moves
+        String authAccount;
+        String authNode;
+        long authEpoch;
+
+        Route(Socket client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = client) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                byte[] frame;
+                while ((frame = readFrame(in)) != null) {
+                    routing.readLock().lock();
+                    try {
+                        route(frame, out);
+                    } finally {
+                        routing.readLock().unlock();
+                    }
+                    if (in.available() == 0) out.flush(); // more pipelined requests waiting: answer them together
+                }
+            } catch (IOException e) {
+                // Client or node went away; the connection is dropped either way.
+            } finally {
+                clients.remove(client);
+                for (Upstream upstream : upstreams.values()) closeQuietly(upstream.socket);
+            }
+        }
+
+        private void route(byte[] frame, DataOutputStream out) throws IOException {
+            byte op = frame[0];
+            ByteBuffer req = ByteBuffer.wrap(frame, 1, frame.length - 1);
+            try {
+                switch (op) {
+                    case BankProtocol.AUTH -> {
+                        String account = BankProtocol.getString(req);
+                        String node = ring.owner(account);
+                        byte[] response = forward(node, frame);
+                        boolean ok = response[0] == BankProtocol.OK;
+                        authFrame = ok ? frame : null;
+                        authAccount = ok ? account : null;
+                        authNode = node;
+                        authEpoch = epoch;
+                        write(out, response);
+                    }
+                    case BankProtocol.CREATE -> write(out, forward(ring.owner(BankProtocol.getString(req)), frame));
+                    case BankProtocol.LIST, BankProtocol.EXPORT, BankProtocol.IMPORT -> respond(out, BankProtocol.BAD_REQUEST);
+                    default -> {
+                        if (authFrame == null) {
+                            respond(out, BankProtocol.NOT_AUTHENTICATED);
+                            return;
+                        }
+                        if (authEpoch != epoch && !follow()) {
+                            respond(out, BankProtocol.NOT_FOUND);
+                            return;
+                        }
+                        if (op == BankProtocol.TRANSFER && !ring.owner(BankProtocol.getString(req)).equals(authNode)) {
+                            respond(out, BankProtocol.NOT_FOUND); // destination on another node: unsupported
+                            return;
+                        }
+                        write(out, forward(authNode, frame));
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                respond(out, BankProtocol.BAD_REQUEST);
+            }
+        }
+
+        /** The ring changed since this connection authenticated: re-authenticate on the account's new node if it moved. */
+        private boolean follow() throws IOException {
+            authEpoch = epoch;
+            String node = ring.owner(authAccount);
+            if (node.equals(authNode)) return true;
+            byte[] response = forward(node, authFrame);
+            authNode = node;
+            if (response[0] == BankProtocol.OK) return true;
+            authFrame = null;
+            authAccount = null;
+            return false;
+        }
+
+        /** Sends {@code frame} to {@code node} and returns its response (status byte first). */
+        private byte[] forward(String node, byte[] frame) throws IOException {
+            Upstream upstream = upstreams.get(node);
+            if (upstream == null) {
+                upstream = new Upstream(addressOf(node));
+                upstreams.put(node, upstream);
+            }
+            upstream.out.writeInt(frame.length);
+            upstream.out.write(frame);
+            upstream.out.flush();
+            byte[] response = readFrame(upstream.in);
+            if (response == null) throw new EOFException("Node " + node + " closed the connection");
+            return response;
+        }
+    }
+
+    /** A connection from the router to one node, on behalf of one client connection. */
+    private static final class Upstream {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Upstream(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getHostString(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    /** The code byte and payload of the next frame, or null at a clean end of stream. */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+        int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        if (length < 1 || length > BankProtocol.MAX_FRAME) throw new IOException("Corrupt frame length " + length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private static void write(DataOutputStream out, byte[] response) throws IOException {
+        out.writeInt(response.length);
+        out.write(response);
+    }
+
+    private static void respond(DataOutputStream out, byte status) throws IOException {
+        out.writeInt(1);
+        out.writeByte(status);
+    }
+
+    static InetSocketAddress addressOf(String node) {
+        int colon = node.lastIndexOf(':');
+        try {
+            if (colon <= 0) throw new NumberFormatException();
+            return new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+        } catch (IllegalArgumentException e) { // also NumberFormatException and out-of-range ports
+            throw new IllegalArgumentException("Node must be host:port, got: " + node);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do with a failed close of a dropped connection.
+        }
+    }
+}
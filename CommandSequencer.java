@@ -0,0 +1,367 @@
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Optional single-writer engine: account commands are funnelled through one pre-allocated
+ * ring and applied by a single business-logic thread in sequence order, disruptor style.
+ *
+ * Producers claim a sequence with next(), fill the slot returned by get() and publish() it.
+ * Three threads then follow each other around the ring:
+ *   1. logic:   applies published commands in order, a batch at a time, through the usual
+ *               Account methods with an Account.DurabilityBatch installed, so it never waits
+ *               for the journal and sees no lock contention
+ *   2. journal: waits once per applied batch until its newest LSN is durable (one group
+ *               commit per batch) while the logic thread already applies the next batch
+ *   3. reply:   hands every durable command to the Replier in sequence order, then frees the
+ *               slot for reuse
+ *
+ * Notes:
+ * - Outcomes are exactly those of calling Account directly in sequence order, so a single
+ *   producer gets deterministic results; concurrent producers are ordered by next().
+ * - Slots are reused and the pipeline itself allocates nothing per command; Account still
+ *   allocates its own op per mutation, CREATE its account and HISTORY its rendered lines.
+ * - Idle stages spin, then yield, then park briefly, so an idle engine costs little CPU.
+ * - A command that throws, or a batch whose journal wait fails, is answered SERVER_ERROR. The
+ *   first such failure is kept: every later command fails without being applied or journaled,
+ *   so the pipeline still drains, and next(), drain() and close() throw it.
+ */
+final class CommandSequencer implements Closeable {
+    /** Passes straight through to the Replier, keeping a producer's own message in order. */
+    static final byte NONE = 0;
+    static final byte CREATE = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte TRANSFER = 4;
+    static final byte BALANCE = 5;
+    static final byte HISTORY = 6;
+
+    private static final int MAX_BATCH = 1024;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50_000L;
+    private static final VarHandle CLAIMED;
+
+    static {
+        try {
+            CLAIMED = MethodHandles.lookup().findVarHandle(CommandSequencer.class, "claimed", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Receives completed commands on the reply thread, strictly in sequence order. */
+    interface Replier {
+        /** {@code endOfBatch} is set on the last command of a durable batch (a good time to flush). */
+        void reply(Command command, long sequence, boolean endOfBatch);
+    }
+
+    /**
+     * One ring slot. Producers set the request fields between next() and publish(); the result
+     * fields are valid inside Replier.reply(). Every reference is cleared when the slot is freed.
+     */
+    static final class Command {
+        // request
+        byte type;
+        String account;
+        String to; // TRANSFER destination
+        long cents; // amount; CREATE: initial deposit
+        String holderName; // CREATE
+        String pin; // CREATE
+        int count; // HISTORY: newest entries to render, 0 for all
+        long tag; // free for the producer, e.g. to correlate replies
+        Object attachment; // free for the producer
+        // result
+        /**
+         * BankProtocol.OK, REJECTED (validation, funds or limits, or CREATE of a taken number),
+         * NOT_FOUND, or SERVER_ERROR (not applied, or applied but not durable; see failure()).
+         */
+        byte status;
+        TransactionResult result; // DEPOSIT, WITHDRAW, TRANSFER that reached its account(s); else null
+        long balanceCents; // the account's balance after the command
+        List<String> history; // HISTORY
+
+        private volatile long published = -1L;
+
+        private void clear() {
+            account = to = holderName = pin = null;
+            attachment = null;
+            history = null;
+            result = null;
+        }
+    }
+
+    private final AccountRegistry accounts;
+    private final AccountJournal journal;
+    private final HistoryStore historyStore;
+    private final Replier replier;
+    private final Command[] ring;
+    private final int mask;
+    private final Thread logic;
+    private final Thread journaler;
+    private final Thread replies;
+    private final Account.DurabilityBatch durability = new Account.DurabilityBatch();
+
+    private volatile long claimed = -1L; // newest sequence handed out by next()
+    private volatile long applied = -1L; // newest sequence applied by the logic thread
+    private volatile long appliedLsn; // newest LSN logged by the logic thread; written before applied
+    private volatile long durable = -1L; // newest sequence whose journal records are durable
+    private volatile long replied = -1L; // newest sequence handed to the Replier; its slot is free
+    private volatile boolean closed;
+    private volatile boolean logicDone;
+    private volatile boolean journalDone;
+    private volatile RuntimeException failure; // the first command or journal failure
+
+    /** Starts the three stage threads; {@code ringSize} must be a power of two. */
+    CommandSequencer(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore, int ringSize,
+                     Replier replier) {
+        if (ringSize < 2 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two of at least 2");
+        }
+        this.accounts = accounts;
+        this.journal = journal;
+        this.historyStore = historyStore;
+        this.replier = replier;
+        this.ring = new Command[ringSize];
+        for (int i = 0; i < ringSize; i++) ring[i] = new Command();
+        this.mask = ringSize - 1;
+        this.logic = new Thread(this::runLogic, "sequencer-logic");
+        this.journaler = new Thread(this::runJournal, "sequencer-journal");
+        this.replies = new Thread(this::runReplies, "sequencer-reply");
+        for (Thread t : new Thread[] {logic, journaler, replies}) t.setDaemon(true);
+        logic.start();
+        journaler.start();
+        replies.start();
+    }
+
+    /** Claims the next sequence, waiting while the ring is full. */
+    long next() {
+        if (closed) throw new IllegalStateException("Sequencer is closed");
+        throwIfFailed();
+        long sequence = (long) CLAIMED.getAndAdd(this, 1L) + 1;
+        for (int idle = 0; sequence - ring.length > replied; idle++) backOff(idle);
+        return sequence;
+    }
+
+    /** The slot of a sequence claimed with next() and not yet published. */
+    Command get(long sequence) {
+        return ring[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        ring[(int) sequence & mask].published = sequence;
+    }
+
+    /**
+     * Blocks until every command published so far has been replied to.
+     *
+     * @throws IllegalStateException if a command or journal wait has failed
+     */
+    void drain() {
+        long target = claimed;
+        for (int idle = 0; replied < target; idle++) backOff(idle);
+        throwIfFailed();
+    }
+
+    /**
+     * Finishes every claimed command, then stops the stage threads.
+     *
+     * @throws IllegalStateException if a command or journal wait has failed
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            logic.join();
+            journaler.join();
+            replies.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throwIfFailed();
+    }
+
+    /** The first failure of a command or journal wait, or null. */
+    RuntimeException failure() {
+        return failure;
+    }
+
+    private void throwIfFailed() {
+        RuntimeException e = failure;
+        if (e != null) throw new IllegalStateException("Sequencer failed: " + e.getMessage(), e);
+    }
+
+    private synchronized void fail(RuntimeException e) {
+        if (failure == null) failure = e;
+    }
+
+    // -----------------------
+    // Stages
+    // -----------------------
+
+    private void runLogic() {
+        Account.batchDurability(durability);
+        try {
+            long next = 0;
+            for (int idle = 0; ; ) {
+                long end = next - 1;
+                while (end + 1 - next < MAX_BATCH && ring[(int) (end + 1) & mask].published == end + 1) end++;
+                if (end < next) {
+                    if (closed && claimed < next) return;
+                    backOff(idle++);
+                    continue;
+                }
+                idle = 0;
+                for (long s = next; s <= end; s++) {
+                    Command c = ring[(int) s & mask];
+                    if (failure != null) {
+                        failed(c);
+                        continue;
+                    }
+                    try {
+                        apply(c, accounts, journal, historyStore);
+                    } catch (RuntimeException e) {
+                        fail(e);
+                        failed(c);
+                    }
+                }
+                long lsn = durability.detach();
+                if (lsn != 0L) appliedLsn = lsn;
+                applied = end;
+                next = end + 1;
+            }
+        } finally {
+            Account.batchDurability(null);
+            logicDone = true;
+        }
+    }
+
+    private void runJournal() {
+        boolean journalFailed = false;
+        try {
+            for (int idle = 0; ; ) {
+                long done = durable;
+                long target = applied;
+                if (target == done) {
+                    if (logicDone && applied == done) return;
+                    backOff(idle++);
+                    continue;
+                }
+                idle = 0;
+                long lsn = appliedLsn; // read after applied, so it covers every command up to target
+                if (lsn != 0L && !journalFailed) {
+                    try {
+                        journal.awaitDurable(lsn);
+                    } catch (RuntimeException e) {
+                        fail(e);
+                        journalFailed = true;
+                    }
+                }
+                if (journalFailed) {
+                    // Nothing past the failed wait is known durable: answer the whole batch with an error.
+                    for (long s = done + 1; s <= target; s++) failed(ring[(int) s & mask]);
+                }
+                durable = target;
+            }
+        } finally {
+            journalDone = true;
+        }
+    }
+
+    private void runReplies() {
+        long next = 0;
+        for (int idle = 0; ; ) {
+            long end = durable;
+            if (end < next) {
+                if (journalDone && durable < next) return;
+                backOff(idle++);
+                continue;
+            }
+            idle = 0;
+            for (long s = next; s <= end; s++) {
+                Command c = ring[(int) s & mask];
+                try {
+                    replier.reply(c, s, s == end);
+                } catch (RuntimeException e) {
+                    System.err.println("ERROR: Sequencer reply failed — " + e);
+                }
+                c.clear();
+            }
+            replied = end;
+            next = end + 1;
+        }
+    }
+
+    /**
+     * Runs one command and fills in its result, with the same Account calls the other front
+     * ends make; the logic thread runs every command through here (as does BatchRunner when
+     * it runs without a sequencer).
+     */
+    static void apply(Command c, AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore) {
+        Account account = c.type == NONE ? null : accounts.get(c.account);
+        c.result = null;
+        switch (c.type) {
+            case NONE -> {
+                c.status = BankProtocol.OK;
+                return;
+            }
+            case CREATE -> {
+                // The factory runs under a registry lock, so only log there and wait for durability after.
+                Account created = account != null ? null : accounts.createIfAbsent(c.account,
+                        number -> Account.createPendingCents(number, c.holderName, c.cents, c.pin, journal,
+                                historyStore));
+                if (created != null) created.awaitDurable();
+                c.status = created != null ? BankProtocol.OK : BankProtocol.REJECTED;
+                c.balanceCents = created != null ? created.getBalanceCents() : 0L;
+                return;
+            }
+            case DEPOSIT, WITHDRAW -> {
+                if (account == null) break;
+                c.result = c.type == DEPOSIT ? account.depositCents(c.cents) : account.withdrawCents(c.cents);
+                c.status = c.result == TransactionResult.OK ? BankProtocol.OK : BankProtocol.REJECTED;
+            }
+            case TRANSFER -> {
+                Account to = accounts.get(c.to);
+                if (account == null || to == null) {
+                    account = null;
+                    break;
+                }
+                c.result = Account.transferCents(account, to, c.cents);
+                c.status = c.result == TransactionResult.OK ? BankProtocol.OK : BankProtocol.REJECTED;
+            }
+            case BALANCE -> c.status = account != null ? BankProtocol.OK : BankProtocol.NOT_FOUND;
+            case HISTORY -> {
+                if (account == null) break;
+                c.history = c.count > 0 ? account.getRecentTransactions(c.count) : account.getTransactionHistoryCopy();
+                c.status = BankProtocol.OK;
+            }
+            default -> {
+                c.status = BankProtocol.REJECTED;
+                return;
+            }
+        }
+        if (account == null) {
+            c.status = BankProtocol.NOT_FOUND;
+            c.balanceCents = 0L;
+        } else {
+            c.balanceCents = account.getBalanceCents();
+        }
+    }
+
+    /** Marks {@code c} SERVER_ERROR, dropping any partial result; also used by ShardedBank. */
+    static void failed(Command c) {
+        c.status = BankProtocol.SERVER_ERROR;
+        c.result = null;
+        c.balanceCents = 0L;
+        c.history = null;
+    }
+
+    private static void backOff(int idle) {
+        if (idle < SPINS) Thread.onSpinWait();
+        else if (idle < SPINS + YIELDS) Thread.yield();
+        else LockSupport.parkNanos(PARK_NANOS);
+    }
+}
@@ -0,0 +1,445 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * {@link AccountRegistry} keyed by account numbers packed into two longs, in an
+ * open-addressing table of primitive key arrays, with a sorted key index for prefix scans.
+ *
+ * Keys: numbers of 1..MAX_PACKED_LENGTH characters from [0-9A-Za-z] are packed 6 bits per
+ * character (0 pads, then 1..62 for the characters in ASCII order), WORD_CHARS characters per
+ * long, most significant first, so comparing (high, low)
+ * orders them like String.compareTo and a prefix is a contiguous key range. Any other number is
+ * kept in a ConcurrentHashMap on the side.
+ *
+ * Notes:
+ * - This is a lookup and prefix-scan speed-up only, not a memory saving: every Account still
+ *   holds its number String, so the packed keys sit beside the same object graph and the
+ *   index takes slightly more heap per account than the default map (see IndexBenchmark).
+ * - Lookups are lock-free: a probe compares two adjacent longs and touches no String or
+ *   Account until it hits, and never calls hashCode() or equals().
+ * - Writers (creates, puts, removes) serialize on this registry; the create factory runs under
+ *   it, so whileCreatesPaused() simply takes the same monitor.
+ * - An entry is published by a release store of its high key word, written last; a reader
+ *   that acquires it sees the low word and the value. Removed entries become tombstones, never
+ *   reused, and are dropped when the table is rebuilt.
+ * - The prefix index is built on the first forEachWithPrefix() call, then kept up to date:
+ *   creates append to a pending run that is sorted and merged in by the next scan.
+ */
+final class CompactAccountRegistry implements AccountRegistry {
+    static final int WORD_CHARS = 10; // 6 bits each
+    static final int MAX_PACKED_LENGTH = 2 * WORD_CHARS;
+
+    private static final int SYMBOL_BITS = 6;
+    private static final int MAX_SYMBOL = 62;
+    private static final byte[] SYMBOLS = new byte[128]; // ASCII -> 1..MAX_SYMBOL, or -1
+    private static final char[] CHARS = new char[MAX_SYMBOL + 1];
+    private static final Object REMOVED = new Object();
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /**
+     * One generation of the table; replaced whole (and tombstones dropped) when it fills up.
+     * Entry i's key is keys[2i] (high, never 0 for a packed number, so 0 marks a free entry)
+     * and keys[2i + 1] (low), side by side so a probe reads one cache line.
+     */
+    private static final class Table {
+        final long[] keys;
+        final Object[] values; // Account, or REMOVED
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[2 * capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean taken(int i) {
+            return (long) KEYS.getAcquire(keys, i << 1) != 0L;
+        }
+    }
+
+    static {
+        Arrays.fill(SYMBOLS, (byte) -1);
+        String alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        for (int i = 0; i < alphabet.length(); i++) {
+            SYMBOLS[alphabet.charAt(i)] = (byte) (i + 1);
+            CHARS[i + 1] = alphabet.charAt(i);
+        }
+    }
+
+    private volatile Table table;
+    private volatile int live; // packed accounts registered; written under this
+    private int used; // entries taken, tombstones included; guarded by this
+    private final ConcurrentHashMap<String, Account> others = new ConcurrentHashMap<>();
+
+    private long[] sortedHigh; // prefix index, null until the first scan; guarded by this
+    private long[] sortedLow;
+    private int sortedCount;
+    private long[] pendingHigh; // created since the last scan, unsorted; guarded by this
+    private long[] pendingLow;
+    private int pendingCount;
+
+    CompactAccountRegistry() {
+        this(16);
+    }
+
+    CompactAccountRegistry(int expectedAccounts) {
+        this.table = new Table(capacityFor(expectedAccounts));
+    }
+
+    @Override
+    public Account get(String accountNumber) {
+        long high = packWord(accountNumber, 0);
+        long low = packWord(accountNumber, WORD_CHARS);
+        if (high < 0 || low < 0) return others.get(accountNumber);
+        Table t = table;
+        for (int i = hash(high, low) & t.mask; ; i = (i + 1) & t.mask) {
+            long h = (long) KEYS.getAcquire(t.keys, i << 1);
+            if (h == 0L) return null;
+            if (h == high && t.keys[(i << 1) + 1] == low) {
+                Object value = VALUES.getAcquire(t.values, i);
+                if (value != REMOVED) return (Account) value;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String accountNumber) {
+        return get(accountNumber) != null;
+    }
+
+    @Override
+    public synchronized Account createIfAbsent(String accountNumber, Function<String, Account> factory) {
+        if (get(accountNumber) != null) return null;
+        Account account = factory.apply(accountNumber);
+        if (account != null) insert(account);
+        return account;
+    }
+
+    @Override
+    public synchronized Account remove(String accountNumber, Consumer<Account> beforeRemove) {
+        Account account = get(accountNumber);
+        if (account == null) return null;
+        beforeRemove.accept(account);
+        long high = packWord(accountNumber, 0);
+        long low = packWord(accountNumber, WORD_CHARS);
+        if (high < 0 || low < 0) {
+            others.remove(accountNumber, account);
+            return account;
+        }
+        Table t = table;
+        for (int i = hash(high, low) & t.mask; ; i = (i + 1) & t.mask) {
+            if (t.values[i] == account) {
+                VALUES.setRelease(t.values, i, REMOVED);
+                live--;
+                return account;
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(Account account) {
+        if (get(account.getAccountNumber()) != null) return false;
+        insert(account);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return live + others.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void forEach(Consumer<Account> action) {
+        Table t = table;
+        for (int i = 0; i < t.values.length; i++) {
+            if (!t.taken(i)) continue;
+            Object value = VALUES.getAcquire(t.values, i);
+            if (value != REMOVED) action.accept((Account) value);
+        }
+        others.values().forEach(action);
+    }
+
+    /** Packed accounts come in account-number order, then any unpacked ones in no order. */
+    @Override
+    public void forEachWithPrefix(String prefix, Consumer<Account> action) {
+        long[] high;
+        long[] low;
+        int from;
+        int to;
+        synchronized (this) {
+            updatePrefixIndex();
+            high = sortedHigh;
+            low = sortedLow;
+            from = 0;
+            to = 0;
+            if (packablePrefix(prefix)) {
+                from = search(packPadded(prefix, 0, 0), packPadded(prefix, WORD_CHARS, 0));
+                to = search(packPadded(prefix, 0, MAX_SYMBOL), packPadded(prefix, WORD_CHARS, MAX_SYMBOL) + 1);
+            }
+            high = Arrays.copyOfRange(high, from, to); // later merges must not move keys under the scan
+            low = Arrays.copyOfRange(low, from, to);
+        }
+        for (int i = 0; i < high.length; i++) {
+            Account account = get(unpack(high[i], low[i]));
+            if (account != null) action.accept(account); // null: removed since the index saw it
+        }
+        others.forEach((number, account) -> {
+            if (number.startsWith(prefix)) action.accept(account);
+        });
+    }
+
+    @Override
+    public synchronized <T> T whileCreatesPaused(Supplier<T> action) {
+        return action.get();
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    /** Registers {@code account}, known to be absent. Caller holds this. */
+    private void insert(Account account) {
+        String number = account.getAccountNumber();
+        long high = packWord(number, 0);
+        long low = packWord(number, WORD_CHARS);
+        if (high < 0 || low < 0) {
+            others.put(number, account);
+            return;
+        }
+        Table t = table;
+        if ((long) (used + 1) * 4 > (long) t.values.length * 3) {
+            t = rebuild(t, capacityFor(live + 1));
+            table = t; // volatile write publishes the whole rebuilt table
+        }
+        int i = hash(high, low) & t.mask;
+        while (t.keys[i << 1] != 0L) i = (i + 1) & t.mask;
+        t.values[i] = account;
+        t.keys[(i << 1) + 1] = low;
+        KEYS.setRelease(t.keys, i << 1, high); // publishes the entry
+        used++;
+        live++;
+        if (sortedHigh != null) {
+            if (pendingCount == pendingHigh.length) {
+                pendingHigh = Arrays.copyOf(pendingHigh, pendingCount * 2);
+                pendingLow = Arrays.copyOf(pendingLow, pendingCount * 2);
+            }
+            pendingHigh[pendingCount] = high;
+            pendingLow[pendingCount++] = low;
+        }
+    }
+
+    private Table rebuild(Table old, int capacity) {
+        Table t = new Table(capacity);
+        used = 0;
+        for (int j = 0; j < old.values.length; j++) {
+            long high = old.keys[j << 1];
+            long low = old.keys[(j << 1) + 1];
+            if (high == 0L || old.values[j] == REMOVED) continue;
+            int i = hash(high, low) & t.mask;
+            while (t.keys[i << 1] != 0L) i = (i + 1) & t.mask;
+            t.keys[i << 1] = high;
+            t.keys[(i << 1) + 1] = low;
+            t.values[i] = old.values[j];
+            used++;
+        }
+        return t;
+    }
+
+    /** Builds the prefix index, or merges the pending run into it. Caller holds this. */
+    private void updatePrefixIndex() {
+        if (sortedHigh == null) {
+            Table t = table;
+            long[] high = new long[Math.max(16, live)];
+            long[] low = new long[high.length];
+            int n = 0;
+            for (int i = 0; i < t.values.length; i++) {
+                if (t.keys[i << 1] != 0L && t.values[i] != REMOVED) {
+                    high[n] = t.keys[i << 1];
+                    low[n++] = t.keys[(i << 1) + 1];
+                }
+            }
+            sort(high, low, n);
+            sortedHigh = high;
+            sortedLow = low;
+            sortedCount = n;
+            pendingHigh = new long[16];
+            pendingLow = new long[16];
+            pendingCount = 0;
+            return;
+        }
+        if (pendingCount == 0) return;
+        sort(pendingHigh, pendingLow, pendingCount);
+        int total = sortedCount + pendingCount;
+        long[] high = new long[total];
+        long[] low = new long[total];
+        int n = merge(sortedHigh, sortedLow, sortedCount, pendingHigh, pendingLow, pendingCount, high, low);
+        sortedHigh = high;
+        sortedLow = low;
+        sortedCount = n;
+        pendingCount = 0;
+    }
+
+    /** First index in the prefix index whose key is at or after (high, low). */
+    private int search(long high, long low) {
+        int lo = 0;
+        int hi = sortedCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(sortedHigh[mid], sortedLow[mid], high, low) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Sorts the first {@code n} keys in place (bottom-up merge sort). */
+    private static void sort(long[] high, long[] low, int n) {
+        long[] th = new long[n];
+        long[] tl = new long[n];
+        long[] ah = high;
+        long[] al = low;
+        for (int width = 1; width < n; width <<= 1) {
+            for (int left = 0; left < n; left += 2 * width) {
+                int mid = Math.min(left + width, n);
+                int right = Math.min(left + 2 * width, n);
+                int i = left;
+                int j = mid;
+                int k = left;
+                while (i < mid && j < right) {
+                    if (compare(ah[i], al[i], ah[j], al[j]) <= 0) {
+                        th[k] = ah[i];
+                        tl[k++] = al[i++];
+                    } else {
+                        th[k] = ah[j];
+                        tl[k++] = al[j++];
+                    }
+                }
+                while (i < mid) {
+                    th[k] = ah[i];
+                    tl[k++] = al[i++];
+                }
+                while (j < right) {
+                    th[k] = ah[j];
+                    tl[k++] = al[j++];
+                }
+            }
+            long[] swap = ah;
+            ah = th;
+            th = swap;
+            swap = al;
+            al = tl;
+            tl = swap;
+        }
+        if (ah != high) {
+            System.arraycopy(ah, 0, high, 0, n);
+            System.arraycopy(al, 0, low, 0, n);
+        }
+    }
+
+    /**
+     * Merges two sorted runs into (high, low), keeping one copy of keys in both (an account
+     * removed and created again); returns the merged count.
+     */
+    private static int merge(long[] ah, long[] al, int an, long[] bh, long[] bl, int bn, long[] high, long[] low) {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < an || j < bn) {
+            int c = i == an ? 1 : j == bn ? -1 : compare(ah[i], al[i], bh[j], bl[j]);
+            long h = c <= 0 ? ah[i] : bh[j];
+            long l = c <= 0 ? al[i] : bl[j];
+            if (c <= 0) i++;
+            if (c >= 0) j++;
+            if (k == 0 || high[k - 1] != h || low[k - 1] != l) {
+                high[k] = h;
+                low[k++] = l;
+            }
+        }
+        return k;
+    }
+
+    private static int compare(long ah, long al, long bh, long bl) {
+        int c = Long.compare(ah, bh);
+        return c != 0 ? c : Long.compare(al, bl);
+    }
+
+    private static int capacityFor(int accounts) {
+        int capacity = 16;
+        while ((long) capacity * 3 < (long) accounts * 4 + 4) capacity <<= 1; // at most 3/4 full
+        return capacity;
+    }
+
+    /** MurmurHash3 fmix64 of the two key words, as HashRing finishes its hashes. */
+    private static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Characters from..from+WORD_CHARS of {@code number} packed, zero past its end; -1
+     * if the number is empty, longer than MAX_PACKED_LENGTH or has a character outside [0-9A-Za-z].
+     */
+    private static long packWord(String number, int from) {
+        int len = number.length();
+        if (len == 0 || len > MAX_PACKED_LENGTH) return -1L;
+        long word = 0L;
+        int end = Math.min(len, from + WORD_CHARS);
+        for (int i = from; i < end; i++) {
+            int symbol = symbol(number.charAt(i));
+            if (symbol < 0) return -1L;
+            word = (word << SYMBOL_BITS) | symbol;
+        }
+        return end <= from ? 0L : word << (SYMBOL_BITS * (from + WORD_CHARS - end));
+    }
+
+    private static boolean packablePrefix(String prefix) {
+        if (prefix.length() > MAX_PACKED_LENGTH) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (symbol(prefix.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    /** As packWord() for a prefix, with every position past it set to {@code pad}. */
+    private static long packPadded(String prefix, int from, int pad) {
+        long word = 0L;
+        for (int i = from; i < from + WORD_CHARS; i++) {
+            word = (word << SYMBOL_BITS) | (i < prefix.length() ? symbol(prefix.charAt(i)) : pad);
+        }
+        return word;
+    }
+
+    private static int symbol(char c) {
+        return c < SYMBOLS.length ? SYMBOLS[c] : -1;
+    }
+
+    private static String unpack(long high, long low) {
+        char[] chars = new char[MAX_PACKED_LENGTH];
+        int len = unpackWord(high, chars, 0);
+        if (len == WORD_CHARS) len += unpackWord(low, chars, WORD_CHARS);
+        return new String(chars, 0, len);
+    }
+
+    private static int unpackWord(long word, char[] into, int from) {
+        int len = 0;
+        for (; len < WORD_CHARS; len++) {
+            int symbol = (int) (word >>> (SYMBOL_BITS * (WORD_CHARS - 1 - len))) & 0x3F;
+            if (symbol == 0) break;
+            into[from + len] = CHARS[symbol];
+        }
+        return len;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * {@link AccountRegistry} backed by a ConcurrentHashMap.
+ *
+ * Notes:
+ * - Lookups are lock-free (volatile reads of the bin array).
+ * - Writers lock only the bin they touch, so creates are striped across the table instead of
+ *   serializing on one global lock.
+ * - createIfAbsent() runs the factory inside computeIfAbsent, so two threads racing for the
+ *   same number can never both create (or journal) an account.
+ * - Creates share the read side of createGate; whileCreatesPaused() takes the write side. Plain
+ *   lookups and mutations of existing accounts never touch it.
+ */
+final class ConcurrentAccountRegistry implements AccountRegistry {
+    private final ConcurrentHashMap<String, Account> accounts;
+    private final ReentrantReadWriteLock createGate = new ReentrantReadWriteLock();
+
+    ConcurrentAccountRegistry() {
+        this(16);
+    }
+
+    ConcurrentAccountRegistry(int expectedAccounts) {
+        this.accounts = new ConcurrentHashMap<>(expectedAccounts);
+    }
+
+    @Override
+    public Account get(String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    @Override
+    public boolean contains(String accountNumber) {
+        return accounts.containsKey(accountNumber);
+    }
+
+    @Override
+    public Account createIfAbsent(String accountNumber, Function<String, Account> factory) {
+        Account[] created = new Account[1];
+        createGate.readLock().lock();
+        try {
+            accounts.computeIfAbsent(accountNumber, number -> created[0] = factory.apply(number));
+        } finally {
+            createGate.readLock().unlock();
+        }
+        return created[0];
+    }
+
+    @Override
+    public Account remove(String accountNumber, Consumer<Account> beforeRemove) {
+        createGate.readLock().lock();
+        try {
+            Account account = accounts.get(accountNumber);
+            if (account == null) return null;
+            beforeRemove.accept(account);
+            accounts.remove(accountNumber, account);
+            return account;
+        } finally {
+            createGate.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(Account account) {
+        return accounts.putIfAbsent(account.getAccountNumber(), account) == null;
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return accounts.isEmpty();
+    }
+
+    @Override
+    public void forEach(Consumer<Account> action) {
+        accounts.values().forEach(action);
+    }
+
+    @Override
+    public <T> T whileCreatesPaused(Supplier<T> action) {
+        createGate.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            createGate.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent-hash ring mapping account numbers to cluster nodes (see ClusterRouter).
+ *
+ * Every node is placed on a 64-bit ring at VNODES points (hashes of "node#i"); an account
+ * belongs to the first point at or after its own hash, wrapping around. Adding a node only
+ * takes over the arcs in front of its points, so about 1/(n+1) of the accounts move and all of
+ * them move to the new node.
+ *
+ * Notes:
+ * - Immutable: withNode() returns a new ring, so readers never need a lock.
+ * - Hash: 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 fmix64 step so
+ *   similar account numbers spread evenly.
+ */
+final class HashRing {
+    static final int VNODES = 64;
+
+    private final List<String> nodes;
+    private final long[] points; // sorted
+    private final int[] owners; // index into nodes, parallel to points
+
+    HashRing(List<String> nodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("A ring needs at least one node");
+        this.nodes = List.copyOf(nodes);
+        long[] keyed = new long[nodes.size() * VNODES];
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < VNODES; v++) keyed[n * VNODES + v] = hash(nodes.get(n) + "#" + v);
+        }
+        Integer[] order = new Integer[keyed.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(keyed[a], keyed[b]));
+        this.points = new long[keyed.length];
+        this.owners = new int[keyed.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = keyed[order[i]];
+            owners[i] = order[i] / VNODES;
+        }
+    }
+
+    /** A ring with {@code node} added; this one is unchanged. */
+    HashRing withNode(String node) {
+        if (nodes.contains(node)) throw new IllegalArgumentException("Node already in the ring: " + node);
+        List<String> more = new ArrayList<>(nodes);
+        more.add(node);
+        return new HashRing(more);
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    String owner(String accountNumber) {
+        int i = Arrays.binarySearch(points, hash(accountNumber));
+        if (i < 0) i = -i - 1;
+        return nodes.get(owners[i == points.length ? 0 : i]);
+    }
+
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
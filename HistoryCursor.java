@@ -0,0 +1,41 @@
+/**
+ * Forward cursor over a {@link TransactionHistory}, oldest entry first.
+ *
+ * Notes:
+ * - Like every other history call, next() must be made while the owning Account's lock is
+ *   held; the cursor itself may be kept between calls, so a reader pages through a long
+ *   history without holding the lock for the whole walk.
+ * - Positions are history indexes, which never move (history is append-only), so a cursor
+ *   stays valid while new entries are appended.
+ */
+interface HistoryCursor {
+    /** Fills {@code page} from the current position and advances; returns how many were read (0 at the end). */
+    int next(HistoryRecord[] page);
+
+    /** Index of the next entry next() will return. */
+    int position();
+
+    /** Cursor for stores with cheap random access: every entry is read through read(index). */
+    final class Indexed implements HistoryCursor {
+        private final TransactionHistory history;
+        private int position;
+
+        Indexed(TransactionHistory history, int from) {
+            this.history = history;
+            this.position = from;
+        }
+
+        @Override
+        public int next(HistoryRecord[] page) {
+            int n = Math.max(0, Math.min(page.length, history.size() - position));
+            for (int i = 0; i < n; i++) history.read(position + i, page[i]);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int position() {
+            return position;
+        }
+    }
+}
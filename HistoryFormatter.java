@@ -0,0 +1,93 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Renders history entries and other account text into a reusable per-thread StringBuilder,
+ * straight from long cents and epoch microseconds, and writes finished lines to an OutputSink.
+ *
+ * Notes:
+ * - Allocation-free per entry: amounts are appended digit by digit (Money.appendTo), the
+ *   counterparty is decoded into the builder, and the "yyyy-MM-dd HH:mm:ss" timestamp is
+ *   formatted once per distinct second and reused for every entry in that second.
+ * - println() hands the builder itself to the sink, which encodes it (see BufferedOutputSink);
+ *   no String is made for the line.
+ * - One instance per thread (get()); a rendered line is only valid until that thread's next
+ *   render.
+ */
+final class HistoryFormatter {
+    private static final DateTimeFormatter TS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ThreadLocal<HistoryFormatter> LOCAL = ThreadLocal.withInitial(HistoryFormatter::new);
+
+    private final StringBuilder line = new StringBuilder(128);
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedTimestamp;
+
+    private HistoryFormatter() {
+    }
+
+    static HistoryFormatter get() {
+        return LOCAL.get();
+    }
+
+    /** Clears and returns the line builder, for callers that compose their own line. */
+    StringBuilder begin() {
+        line.setLength(0);
+        return line;
+    }
+
+    /** Renders {@code r} as "[timestamp] message" into the line builder and returns it. */
+    StringBuilder render(HistoryRecord r) {
+        StringBuilder sb = begin();
+        sb.append('[');
+        appendTimestamp(sb, r.epochMicros);
+        sb.append("] ");
+        switch (r.type) {
+            case HistoryRecord.CREATED -> {
+                if (r.amountCents > 0) Money.appendTo(sb.append("Account created with initial deposit: "), r.amountCents);
+                else sb.append("Account created with no initial deposit.");
+                return sb;
+            }
+            case HistoryRecord.DEPOSIT -> Money.appendTo(sb.append("Deposited: "), r.amountCents);
+            case HistoryRecord.WITHDRAW -> Money.appendTo(sb.append("Withdrew: "), r.amountCents);
+            case HistoryRecord.WITHDRAW_REJECTED -> Money.appendTo(sb.append("Failed withdrawal attempt: "), r.amountCents);
+            case HistoryRecord.TRANSFER_OUT -> appendTransfer(sb.append("Transferred to "), r);
+            case HistoryRecord.TRANSFER_IN -> appendTransfer(sb.append("Received from "), r);
+            case HistoryRecord.TRANSFER_REJECTED -> appendTransfer(sb.append("Failed transfer attempt to "), r);
+            case HistoryRecord.MIGRATED_IN -> {
+                Money.appendTo(sb.append("Moved to this node with balance: "), r.balanceCents);
+                return sb;
+            }
+            default -> {
+                sb.append("Unknown transaction type ").append(r.type);
+                return sb;
+            }
+        }
+        return Money.appendTo(sb.append(" | Balance: "), r.balanceCents);
+    }
+
+    /** Renders {@code r} and writes it as one line. */
+    void println(OutputSink out, HistoryRecord r) {
+        out.println(render(r));
+    }
+
+    /** Writes the line builder as one line to {@code out}. */
+    void println(OutputSink out) {
+        out.println(line);
+    }
+
+    private static void appendTransfer(StringBuilder sb, HistoryRecord r) {
+        r.appendCounterparty(sb);
+        Money.appendTo(sb.append(": "), r.amountCents);
+    }
+
+    private void appendTimestamp(StringBuilder sb, long epochMicros) {
+        long second = Math.floorDiv(epochMicros / 1000L, 1000L); // as Instant.ofEpochMilli(micros / 1000) does
+        if (second != cachedSecond) {
+            cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()).format(TS_FORMAT);
+            cachedSecond = second;
+        }
+        sb.append(cachedTimestamp);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * One page of an account's transaction history, selected by time range and transaction type
+ * and served by {@link Account#queryHistory(HistoryQuery, HistoryQuery.Page)}.
+ *
+ * Each page costs O(log n + page): the range bounds are found by binary search over the
+ * time-ordered history (see TransactionHistory.lowerBound), then only the page is read. A type
+ * filter adds the entries it skips.
+ *
+ * Notes:
+ * - Set the fields, run the query, then set {@link #token} to the page's nextToken for the next
+ *   page; keep the other fields unchanged between pages. The token is opaque (it encodes a
+ *   history position and the direction) and is 0 when there is nothing more to read.
+ * - Queries and pages are mutable holders meant to be reused, like HistoryRecord.
+ */
+final class HistoryQuery {
+    /** Earliest entry to return, inclusive. */
+    long fromMicros = Long.MIN_VALUE;
+    /** Latest entry to return, exclusive. */
+    long toMicros = Long.MAX_VALUE;
+    /** Bit {@code 1 << type} per HistoryRecord type to return; 0 returns every type. */
+    int typeMask;
+    /** Newest entries first (a statement's "last N"); otherwise oldest first. */
+    boolean newestFirst;
+    /** Continuation token from the previous page; 0 starts at the beginning of the range. */
+    long token;
+
+    /** The newest entries, newest first; the page size is the limit. */
+    static HistoryQuery latest() {
+        HistoryQuery q = new HistoryQuery();
+        q.newestFirst = true;
+        return q;
+    }
+
+    /** Entries from {@code fromMicros} (inclusive) to {@code toMicros} (exclusive), oldest first. */
+    static HistoryQuery range(long fromMicros, long toMicros) {
+        HistoryQuery q = new HistoryQuery();
+        q.fromMicros = fromMicros;
+        q.toMicros = toMicros;
+        return q;
+    }
+
+    /** Restricts the query to the given HistoryRecord types. */
+    HistoryQuery types(byte... types) {
+        typeMask = 0;
+        for (byte t : types) typeMask |= 1 << t;
+        return this;
+    }
+
+    boolean matches(byte type) {
+        return typeMask == 0 || (typeMask & (1 << type)) != 0;
+    }
+
+    /** Token resuming at history index {@code index}. */
+    long tokenAt(int index) {
+        return ((long) index + 1) << 1 | (newestFirst ? 1 : 0);
+    }
+
+    /** History index a non-zero token resumes at. */
+    int tokenIndex() {
+        if ((token & 1) != (newestFirst ? 1 : 0) || token >>> 1 == 0 || token >>> 1 > (long) Integer.MAX_VALUE + 1) {
+            throw new IllegalArgumentException("Invalid history continuation token");
+        }
+        return (int) ((token >>> 1) - 1);
+    }
+
+    /** Result holder; {@code records.length} is the page size. */
+    static final class Page {
+        final HistoryRecord[] records;
+        final HistoryRecord[] scan; // read buffer, so a type filter can skip entries
+        int count;
+        /** Token for the next page, or 0 if this page ends the range. */
+        long nextToken;
+
+        Page(int size) {
+            if (size < 1) throw new IllegalArgumentException("Page size must be at least 1");
+            records = new HistoryRecord[size];
+            scan = new HistoryRecord[size];
+            for (int i = 0; i < size; i++) {
+                records[i] = new HistoryRecord();
+                scan[i] = new HistoryRecord();
+            }
+        }
+    }
+}
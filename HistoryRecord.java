@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One transaction-history entry, encoded as a fixed-width 48-byte binary record.
+ *
+ * Layout: long epochMicros | long amountCents | long balanceCents | byte type |
+ *         byte counterpartyLength | 22 bytes counterparty (UTF-8, truncated)
+ *
+ * Instances are mutable holders meant to be reused while reading; text is only produced
+ * when a history page is rendered (see Account).
+ */
+final class HistoryRecord {
+    static final int BYTES = 48;
+    static final int MAX_COUNTERPARTY_BYTES = 22;
+
+    static final byte CREATED = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte WITHDRAW_REJECTED = 4;
+    static final byte TRANSFER_OUT = 5;
+    static final byte TRANSFER_IN = 6;
+    static final byte TRANSFER_REJECTED = 7;
+    static final byte MIGRATED_IN = 8; // moved here from another cluster node; amount = balance brought along
+
+    long epochMicros;
+    byte type;
+    long amountCents;
+    long balanceCents;
+    private final byte[] counterparty = new byte[MAX_COUNTERPARTY_BYTES];
+    private int counterpartyLength;
+
+    static void write(ByteBuffer buf, int offset, long epochMicros, byte type, long amountCents, long balanceCents,
+                      String counterparty) {
+        buf.putLong(offset, epochMicros);
+        buf.putLong(offset + 8, amountCents);
+        buf.putLong(offset + 16, balanceCents);
+        buf.put(offset + 24, type);
+        int len = 0;
+        if (counterparty != null) {
+            byte[] bytes = counterparty.getBytes(StandardCharsets.UTF_8);
+            len = Math.min(bytes.length, MAX_COUNTERPARTY_BYTES);
+            for (int i = 0; i < len; i++) buf.put(offset + 26 + i, bytes[i]);
+        }
+        buf.put(offset + 25, (byte) len);
+    }
+
+    void readFrom(ByteBuffer buf, int offset) {
+        epochMicros = buf.getLong(offset);
+        amountCents = buf.getLong(offset + 8);
+        balanceCents = buf.getLong(offset + 16);
+        type = buf.get(offset + 24);
+        counterpartyLength = buf.get(offset + 25);
+        for (int i = 0; i < counterpartyLength; i++) counterparty[i] = buf.get(offset + 26 + i);
+    }
+
+    /** Writes this record back out in the same 48-byte layout. */
+    void writeTo(ByteBuffer buf, int offset) {
+        buf.putLong(offset, epochMicros);
+        buf.putLong(offset + 8, amountCents);
+        buf.putLong(offset + 16, balanceCents);
+        buf.put(offset + 24, type);
+        buf.put(offset + 25, (byte) counterpartyLength);
+        for (int i = 0; i < counterpartyLength; i++) buf.put(offset + 26 + i, counterparty[i]);
+        for (int i = counterpartyLength; i < MAX_COUNTERPARTY_BYTES; i++) buf.put(offset + 26 + i, (byte) 0);
+    }
+
+    void copyFrom(HistoryRecord other) {
+        epochMicros = other.epochMicros;
+        type = other.type;
+        amountCents = other.amountCents;
+        balanceCents = other.balanceCents;
+        counterpartyLength = other.counterpartyLength;
+        System.arraycopy(other.counterparty, 0, counterparty, 0, counterpartyLength);
+    }
+
+    /** Appends the counterparty to {@code sb}; allocates only if it is not ASCII. */
+    void appendCounterparty(StringBuilder sb) {
+        for (int i = 0; i < counterpartyLength; i++) {
+            if (counterparty[i] < 0) {
+                sb.append(counterparty());
+                return;
+            }
+        }
+        for (int i = 0; i < counterpartyLength; i++) sb.append((char) counterparty[i]);
+    }
+
+    /** Decodes the counterparty; allocates, so only call it while rendering. */
+    String counterparty() {
+        return counterpartyLength == 0 ? null : new String(counterparty, 0, counterpartyLength, StandardCharsets.UTF_8);
+    }
+}
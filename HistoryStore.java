@@ -0,0 +1,65 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Creates the {@link TransactionHistory} backing each account.
+ *
+ * - HEAP keeps each account's records in its own growable heap buffer (the default).
+ * - MappedHistoryStore keeps them in memory-mapped segment files, one per account shard,
+ *   so history can grow past the heap.
+ */
+interface HistoryStore extends Closeable {
+    HistoryStore HEAP = new HistoryStore() {
+        @Override
+        public TransactionHistory newHistory(String accountNumber) {
+            return new HeapHistory();
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    TransactionHistory newHistory(String accountNumber);
+
+    @Override
+    void close() throws IOException;
+
+    /** Binary records in a private heap buffer that doubles as it fills. */
+    final class HeapHistory implements TransactionHistory {
+        private static final int INITIAL_RECORDS = 4;
+
+        private ByteBuffer records = ByteBuffer.allocate(INITIAL_RECORDS * HistoryRecord.BYTES);
+        private int size;
+
+        @Override
+        public void append(long epochMicros, byte type, long amountCents, long balanceCents, String counterparty) {
+            int offset = size * HistoryRecord.BYTES;
+            if (offset + HistoryRecord.BYTES > records.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2);
+                bigger.put(records.array(), 0, offset);
+                records = bigger;
+            }
+            HistoryRecord.write(records, offset, epochMicros, type, amountCents, balanceCents, counterparty);
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void read(int index, HistoryRecord into) {
+            Objects.checkIndex(index, size);
+            into.readFrom(records, index * HistoryRecord.BYTES);
+        }
+
+        @Override
+        public long tailPointer() {
+            return -1L;
+        }
+    }
+}
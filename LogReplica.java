@@ -0,0 +1,195 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replica side of log shipping: follows a primary's {@link LogShipper}, appends the shipped
+ * bytes to a local copy of the log and applies every complete record to a
+ * {@link WriteAheadLog.Visitor} (the same one BankApp replays its own log with), so the local
+ * accounts track the primary's and can serve reads.
+ *
+ * Lag: the primary reports its durable LSN with every chunk and heartbeat; lagRecords() is
+ * how many of those records are not applied here yet, lagMillis() how long the replica has
+ * been behind at all (0 when caught up).
+ *
+ * Notes:
+ * - Started from the end of the local log, which the caller has already replayed; the local
+ *   file is a byte-for-byte prefix of the primary's.
+ * - Reconnects every RETRY_MILLIS while the primary is unreachable.
+ * - promote() stops following and forces the local log; the caller then opens it as its own
+ *   WriteAheadLog and accepts writes.
+ */
+final class LogReplica implements Closeable {
+    static final long RETRY_MILLIS = 1000;
+    private static final int RECORD_HEADER_BYTES = 8; // int length | int crc32, see WriteAheadLog
+
+    private final InetSocketAddress primary;
+    private final FileChannel log;
+    private final WriteAheadLog.Visitor visitor;
+    private final Thread follower;
+    private volatile Socket socket;
+    private volatile boolean stopped;
+    private volatile boolean connected;
+
+    private long appliedEnd; // file offset just past the newest applied record; follower thread only
+    private volatile long appliedLsn;
+    private volatile long primaryLsn;
+    private volatile long behindSinceNanos; // 0 while caught up
+
+    private LogReplica(InetSocketAddress primary, FileChannel log, long endOffset, long lastLsn,
+                       WriteAheadLog.Visitor visitor) {
+        this.primary = primary;
+        this.log = log;
+        this.visitor = visitor;
+        this.appliedEnd = endOffset;
+        this.appliedLsn = lastLsn;
+        this.primaryLsn = lastLsn;
+        this.follower = new Thread(this::follow, "log-replica");
+        follower.setDaemon(true);
+    }
+
+    /**
+     * Starts following {@code primary}; {@code path} is the local log, already replayed up to
+     * {@code endOffset} (its last record having {@code lastLsn}). Anything after it is dropped.
+     */
+    static LogReplica start(InetSocketAddress primary, Path path, long endOffset, long lastLsn,
+                            WriteAheadLog.Visitor visitor) throws IOException {
+        FileChannel log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(endOffset);
+        LogReplica replica = new LogReplica(primary, log, endOffset, lastLsn, visitor);
+        replica.follower.start();
+        return replica;
+    }
+
+    long appliedLsn() {
+        return appliedLsn;
+    }
+
+    /** Records the primary has made durable that are not applied here yet. */
+    long lagRecords() {
+        return Math.max(0L, primaryLsn - appliedLsn);
+    }
+
+    /** How long this replica has been behind the primary; 0 when caught up. */
+    long lagMillis() {
+        long since = behindSinceNanos;
+        return since == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    boolean connected() {
+        return connected;
+    }
+
+    /**
+     * Stops following, forces the local log and returns {endOffset, lastLsn} of the newest
+     * applied record, for WriteAheadLog.open(). Records received but not complete are dropped.
+     */
+    long[] promote() throws IOException {
+        stop();
+        log.truncate(appliedEnd);
+        log.force(false);
+        log.close();
+        return new long[] {appliedEnd, appliedLsn};
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        log.close();
+    }
+
+    private void stop() throws IOException {
+        stopped = true;
+        Socket s = socket;
+        if (s != null) s.close();
+        LockSupport.unpark(follower); // not interrupt(): that would close the log channel mid-write
+        try {
+            follower.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void follow() {
+        ByteBuffer pending = ByteBuffer.allocate(64 * 1024); // shipped bytes not yet applied, in write mode
+        while (!stopped) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(primary);
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                new DataOutputStream(s.getOutputStream()).writeLong(appliedEnd);
+                pending.clear();
+                connected = true;
+                System.err.println("INFO: Following primary " + primary + " from lsn " + appliedLsn + ".");
+                while (!stopped) {
+                    long lsn = in.readLong();
+                    int length = in.readInt();
+                    if (pending.remaining() < length) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+                        pending = bigger.put(pending.flip());
+                    }
+                    in.readFully(pending.array(), pending.position(), length);
+                    pending.position(pending.position() + length);
+                    apply(pending, lsn);
+                }
+            } catch (IOException e) {
+                if (connected && !stopped) System.err.println("INFO: Lost primary " + primary + " — " + e.getMessage());
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (!stopped) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+        }
+    }
+
+    /**
+     * Appends the complete records in {@code pending} (write mode) to the local log, then
+     * applies them, keeping an incomplete tail for the next chunk. A corrupt or discontinuous
+     * record stops replication, with the local log cut back to the records applied.
+     */
+    private void apply(ByteBuffer pending, long reportedLsn) throws IOException {
+        pending.flip();
+        int start = pending.position();
+        int end = start;
+        while (pending.limit() - end >= RECORD_HEADER_BYTES) {
+            int length = pending.getInt(end);
+            if (length <= 0) throw new IOException("Corrupt shipped record length " + length);
+            if (pending.limit() - end < RECORD_HEADER_BYTES + length) break;
+            end += RECORD_HEADER_BYTES + length;
+        }
+        if (end > start) {
+            ByteBuffer records = pending.duplicate().limit(end);
+            long base = appliedEnd;
+            while (records.hasRemaining()) appliedEnd += log.write(records, appliedEnd);
+            records.position(start);
+            try {
+                appliedLsn = WriteAheadLog.decodeRecords(records, appliedLsn, visitor);
+            } catch (IOException | RuntimeException e) {
+                // decodeRecords stopped at the bad record; the ones before it, consecutive LSNs, were applied.
+                for (int at = start; at < records.position(); at += RECORD_HEADER_BYTES + pending.getInt(at)) appliedLsn++;
+                appliedEnd = base + records.position() - start;
+                log.truncate(appliedEnd);
+                stopped = true;
+                System.err.println("ERROR: Replication stopped — " + e.getMessage()
+                        + "; restart the replica to resume from its log.");
+                return;
+            }
+            pending.position(end);
+        }
+        pending.compact();
+        primaryLsn = Math.max(reportedLsn, appliedLsn);
+        if (appliedLsn >= primaryLsn) behindSinceNanos = 0L;
+        else if (behindSinceNanos == 0L) behindSinceNanos = System.nanoTime();
+    }
+}
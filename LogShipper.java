@@ -0,0 +1,123 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Primary side of log shipping: streams the durable bytes of the {@link WriteAheadLog} to
+ * every connected {@link LogReplica}, one thread per replica, straight from the log file.
+ *
+ * Stream (big-endian):
+ *   replica -> primary: long fromOffset (bytes of the log the replica already has)
+ *   primary -> replica: repeated long primaryLsn | int length | length log bytes
+ * A chunk may end inside a record; length 0 is a heartbeat, sent every HEARTBEAT_MILLIS while
+ * nothing new is durable, so the replica can tell how far behind it is.
+ *
+ * Notes:
+ * - Only records that are durable on the primary are shipped, so a replica never applies a
+ *   mutation the primary could still lose in a crash.
+ * - A replica asking for more bytes than the primary has is not a copy of this log and is
+ *   disconnected.
+ */
+final class LogShipper implements Closeable {
+    static final long HEARTBEAT_MILLIS = 100;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final WriteAheadLog wal;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    private LogShipper(WriteAheadLog wal, ServerSocket serverSocket) {
+        this.wal = wal;
+        this.serverSocket = serverSocket;
+        this.acceptor = new Thread(this::acceptLoop, "log-shipper-acceptor");
+        acceptor.setDaemon(true);
+    }
+
+    static LogShipper start(WriteAheadLog wal, InetSocketAddress address) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(address);
+        LogShipper shipper = new LogShipper(wal, socket);
+        shipper.acceptor.start();
+        return shipper;
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    int replicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket replica : replicas) replica.close();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket replica = serverSocket.accept();
+                replica.setTcpNoDelay(true);
+                replicas.add(replica);
+                Thread t = new Thread(() -> ship(replica), "log-shipper-" + replica.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException e) {
+                if (!closed) System.err.println("ERROR: Replica accept failed — " + e.getMessage());
+            }
+        }
+    }
+
+    private void ship(Socket replica) {
+        try (Socket socket = replica;
+             FileChannel log = FileChannel.open(wal.path(), StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_BYTES + 16));
+            long offset = in.readLong();
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+            System.err.println("INFO: Replica " + socket.getRemoteSocketAddress() + " connected at log offset " + offset + ".");
+            while (!closed) {
+                long[] durable = wal.awaitDurableEnd(offset, HEARTBEAT_MILLIS);
+                long end = durable[0];
+                if (offset > end) {
+                    System.err.println("ERROR: Replica " + socket.getRemoteSocketAddress() + " is ahead of this log — disconnected.");
+                    return;
+                }
+                chunk.clear().limit((int) Math.min(CHUNK_BYTES, end - offset));
+                while (chunk.hasRemaining()) {
+                    if (log.read(chunk, offset + chunk.position()) < 0) throw new IOException("Log ended before its durable end");
+                }
+                out.writeLong(durable[1]);
+                out.writeInt(chunk.position());
+                out.write(chunk.array(), 0, chunk.position());
+                out.flush();
+                offset += chunk.position();
+            }
+        } catch (IOException e) {
+            if (!closed) System.err.println("INFO: Replica " + replica.getRemoteSocketAddress() + " disconnected — " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicas.remove(replica);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Transaction history in memory-mapped segment files, one file per account shard.
+ *
+ * Each account owns a chain of fixed-size blocks inside its shard's file:
+ *   block = long prevBlock+1 (0 = none) | 8 reserved bytes | 16 x HistoryRecord
+ * Blocks are mapped in ~6 MiB segments as the file grows, so history is bounded by disk,
+ * not heap. The only per-account heap state is a directory of block numbers (8 bytes per
+ * 16 records) used for random access.
+ *
+ * Notes:
+ * - open() truncates the shard files, which are then rebuilt by WAL replay. openExisting()
+ *   keeps them for restarts from an AccountSnapshot, which records each account's tail block
+ *   and history size; the directory of a restored history is rebuilt lazily from the block
+ *   chain on its first read, so restoring costs O(1) per account.
+ * - Block allocation is synchronized per shard; record reads/writes use absolute buffer
+ *   access under the owning account's lock, so accounts never contend with each other.
+ */
+final class MappedHistoryStore implements HistoryStore {
+    static final int RECORDS_PER_BLOCK = 16;
+    private static final int BLOCK_HEADER_BYTES = 16;
+    static final int BLOCK_BYTES = BLOCK_HEADER_BYTES + RECORDS_PER_BLOCK * HistoryRecord.BYTES;
+    private static final int BLOCKS_PER_SEGMENT = 8192;
+    private static final long SEGMENT_BYTES = (long) BLOCK_BYTES * BLOCKS_PER_SEGMENT;
+
+    private final Shard[] shards;
+
+    private MappedHistoryStore(Shard[] shards) {
+        this.shards = shards;
+    }
+
+    /** Opens {@code shardCount} (rounded up to a power of two) empty segment files in {@code dir}. */
+    static MappedHistoryStore open(Path dir, int shardCount) throws IOException {
+        Files.createDirectories(dir);
+        int n = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        Shard[] shards = new Shard[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                shards[i] = new Shard(FileChannel.open(dir.resolve("history-" + i + ".seg"), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            }
+        } catch (IOException e) {
+            for (Shard shard : shards) if (shard != null) shard.channel.close();
+            throw e;
+        }
+        return new MappedHistoryStore(shards);
+    }
+
+    /**
+     * Reopens the segment files written before a restart without truncating them. Blocks below
+     * {@code nextBlocks[i]} (as saved by a snapshot) are kept; allocation resumes after them.
+     */
+    static MappedHistoryStore openExisting(Path dir, long[] nextBlocks) throws IOException {
+        Shard[] shards = new Shard[nextBlocks.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                Path file = dir.resolve("history-" + i + ".seg");
+                if (!Files.exists(file)) throw new IOException("Missing history segment file " + file);
+                shards[i] = new Shard(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+                shards[i].resume(nextBlocks[i]);
+            }
+        } catch (IOException e) {
+            for (Shard shard : shards) if (shard != null) shard.channel.close();
+            throw e;
+        }
+        return new MappedHistoryStore(shards);
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    /** Allocation high-water mark of every shard, for a snapshot. */
+    long[] nextBlocks() {
+        long[] next = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) next[i] = shards[i].nextBlock();
+        return next;
+    }
+
+    /** Reattaches a history saved by a snapshot: {@code size} records ending in block {@code tailPointer}. */
+    TransactionHistory restore(String accountNumber, int size, long tailPointer) {
+        return new MappedHistory(shardOf(accountNumber), size, tailPointer);
+    }
+
+    /** Flushes every mapped segment to disk. */
+    void force() {
+        for (Shard shard : shards) shard.force();
+    }
+
+    @Override
+    public TransactionHistory newHistory(String accountNumber) {
+        return new MappedHistory(shardOf(accountNumber));
+    }
+
+    private Shard shardOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (first == null) first = e;
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    private static final class Shard {
+        private final FileChannel channel;
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        private long nextBlock;
+
+        Shard(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized long allocate(long prevBlock) {
+            long block = nextBlock;
+            int segment = (int) (block / BLOCKS_PER_SEGMENT);
+            if (segment == segments.length) {
+                try {
+                    mapSegment(segment);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot grow history segment file", e);
+                }
+            }
+            nextBlock++;
+            ByteBuffer buf = segments[segment];
+            int offset = blockOffset(block);
+            buf.putLong(offset, prevBlock + 1);
+            buf.putLong(offset + 8, 0L);
+            return block;
+        }
+
+        private void mapSegment(int segment) throws IOException {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES, SEGMENT_BYTES);
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+            grown[segment] = mapped;
+            segments = grown;
+        }
+
+        /** Maps the segments holding blocks [0, next) of an existing file. */
+        synchronized void resume(long next) throws IOException {
+            int needed = (int) ((next + BLOCKS_PER_SEGMENT - 1) / BLOCKS_PER_SEGMENT);
+            if (channel.size() < needed * SEGMENT_BYTES) {
+                throw new IOException("History segment file is shorter than the snapshot expects");
+            }
+            for (int segment = 0; segment < needed; segment++) mapSegment(segment);
+            nextBlock = next;
+        }
+
+        synchronized long nextBlock() {
+            return nextBlock;
+        }
+
+        synchronized void force() {
+            for (MappedByteBuffer segment : segments) segment.force();
+        }
+
+        /** Block numbers of the {@code count} blocks of the chain ending in {@code tail}, oldest first. */
+        long[] chain(long tail, int count) {
+            long[] blocks = new long[Math.max(1, count)];
+            long block = tail;
+            for (int i = count - 1; i >= 0; i--) {
+                blocks[i] = block;
+                block = segmentOf(block).getLong(blockOffset(block)) - 1;
+            }
+            return blocks;
+        }
+
+        ByteBuffer segmentOf(long block) {
+            return segments[(int) (block / BLOCKS_PER_SEGMENT)];
+        }
+
+        static int blockOffset(long block) {
+            return (int) (block % BLOCKS_PER_SEGMENT) * BLOCK_BYTES;
+        }
+
+        synchronized void close() throws IOException {
+            for (MappedByteBuffer segment : segments) segment.force();
+            channel.close();
+        }
+    }
+
+    private static final class MappedHistory implements TransactionHistory {
+        private final Shard shard;
+        private long[] blocks; // null until first read after restore
+        private long tail = -1L;
+        private int size;
+
+        MappedHistory(Shard shard) {
+            this.shard = shard;
+            this.blocks = new long[1];
+        }
+
+        MappedHistory(Shard shard, int size, long tail) {
+            this.shard = shard;
+            this.size = size;
+            this.tail = tail;
+        }
+
+        @Override
+        public void append(long epochMicros, byte type, long amountCents, long balanceCents, String counterparty) {
+            int slot = size % RECORDS_PER_BLOCK;
+            if (slot == 0) {
+                tail = shard.allocate(tail);
+                if (blocks != null) {
+                    int blockIndex = size / RECORDS_PER_BLOCK;
+                    if (blockIndex == blocks.length) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                    blocks[blockIndex] = tail;
+                }
+            }
+            HistoryRecord.write(shard.segmentOf(tail), recordOffset(tail, slot), epochMicros, type, amountCents,
+                    balanceCents, counterparty);
+            size++;
+        }
+
+        @Override
+        public long tailPointer() {
+            return tail;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void read(int index, HistoryRecord into) {
+            Objects.checkIndex(index, size);
+            if (blocks == null) blocks = shard.chain(tail, (size + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK);
+            long block = blocks[index / RECORDS_PER_BLOCK];
+            into.readFrom(shard.segmentOf(block), recordOffset(block, index % RECORDS_PER_BLOCK));
+        }
+
+        private static int recordOffset(long block, int slot) {
+            return Shard.blockOffset(block) + BLOCK_HEADER_BYTES + slot * HistoryRecord.BYTES;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Publishes a {@link MetricsRegistry} in the Prometheus text format: over HTTP on a loopback
+ * port (GET /metrics), to a file rewritten every interval, or both.
+ *
+ * Notes:
+ * - The endpoint binds to the loopback address only; scraping from another host needs a
+ *   proxy in front of it.
+ * - The HTTP side is deliberately minimal: one connection at a time on the acceptor thread,
+ *   the request head read with a timeout, 200 for /metrics and 404 for anything else, and the
+ *   connection closed after the response (HTTP/1.0).
+ * - The file is written to a temporary sibling and moved over the old one, so a reader never
+ *   sees half a dump; close() writes it a last time.
+ * - Both threads are daemons, so an exporter never keeps the JVM alive.
+ */
+final class MetricsExporter implements Closeable {
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_REQUEST_HEAD = 8192;
+
+    private final MetricsRegistry registry;
+    private final ServerSocket serverSocket; // null without an endpoint
+    private final Path file; // null without a file
+    private final long intervalMillis;
+    private final Object signal = new Object();
+    private boolean closed; // guarded by signal
+    private Thread acceptor;
+    private Thread writer;
+
+    private MetricsExporter(MetricsRegistry registry, ServerSocket serverSocket, Path file, long intervalMillis) {
+        this.registry = registry;
+        this.serverSocket = serverSocket;
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Serves {@code registry} on loopback {@code port} (0 picks one, -1 serves nothing) and, if
+     * {@code file} is not null, writes it there every {@code intervalSeconds} (0: only on close()).
+     */
+    static MetricsExporter start(MetricsRegistry registry, int port, Path file, long intervalSeconds) throws IOException {
+        ServerSocket socket = null;
+        if (port != -1) {
+            socket = new ServerSocket();
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+        MetricsExporter exporter = new MetricsExporter(registry, socket, file, intervalSeconds * 1000L);
+        if (socket != null) {
+            exporter.acceptor = new Thread(exporter::acceptLoop, "metrics-endpoint");
+            exporter.acceptor.setDaemon(true);
+            exporter.acceptor.start();
+        }
+        if (file != null) {
+            exporter.write(); // fails here, not silently later, if the file cannot be written
+            if (intervalSeconds > 0) {
+                exporter.writer = new Thread(exporter::writePeriodically, "metrics-writer");
+                exporter.writer.setDaemon(true);
+                exporter.writer.start();
+            }
+        }
+        return exporter;
+    }
+
+    /** The endpoint's port, or -1 without one. */
+    int port() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /** The registry as Prometheus text. */
+    String dump() {
+        StringBuilder sb = new StringBuilder(4096);
+        registry.writePrometheus(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (signal) {
+            if (closed) return;
+            closed = true;
+            signal.notifyAll();
+        }
+        if (serverSocket != null) serverSocket.close();
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (file != null) write();
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    private void acceptLoop() {
+        while (true) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                respond(socket);
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) return;
+            } catch (IOException e) {
+                // the scraper went away or timed out; serve the next one
+            }
+        }
+    }
+
+    private void respond(Socket socket) throws IOException {
+        String requestLine = readRequestHead(socket.getInputStream());
+        String[] parts = requestLine.split(" ");
+        boolean found = parts.length >= 2 && parts[0].equals("GET")
+                && (parts[1].equals("/metrics") || parts[1].startsWith("/metrics?"));
+        byte[] body = (found ? dump() : "Not found. Try /metrics.\n").getBytes(StandardCharsets.UTF_8);
+        String head = (found ? "HTTP/1.0 200 OK\r\n" : "HTTP/1.0 404 Not Found\r\n")
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    /** Reads up to the blank line that ends the request head; returns its first line. */
+    private static String readRequestHead(InputStream in) throws IOException {
+        byte[] head = new byte[MAX_REQUEST_HEAD];
+        int n = 0;
+        while (n < head.length) {
+            int b = in.read();
+            if (b < 0) break;
+            head[n++] = (byte) b;
+            if (n >= 4 && head[n - 4] == '\r' && head[n - 3] == '\n' && head[n - 2] == '\r' && head[n - 1] == '\n') break;
+            if (n >= 2 && head[n - 2] == '\n' && head[n - 1] == '\n') break;
+        }
+        String text = new String(head, 0, n, StandardCharsets.US_ASCII);
+        int eol = text.indexOf('\n');
+        return (eol < 0 ? text : text.substring(0, eol)).trim();
+    }
+
+    private void writePeriodically() {
+        while (true) {
+            synchronized (signal) {
+                long deadline = System.currentTimeMillis() + intervalMillis;
+                long wait;
+                while (!closed && (wait = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        signal.wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+            }
+            try {
+                write();
+            } catch (IOException e) {
+                System.err.println("ERROR: Could not write metrics to " + file + " — " + e.getMessage());
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, dump(), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency histograms, written out in the Prometheus text format
+ * (version 0.0.4) by writePrometheus(), e.g. for MetricsExporter.
+ *
+ * A series is a metric name plus an optional label set, given pre-rendered
+ * ({@code operation="deposit"}); series of one name share its HELP and TYPE lines and must be
+ * registered with the same help and type.
+ *
+ * Notes:
+ * - Registration is rare and copies the series list; reading it for a dump takes no lock.
+ * - Registering a name and label set again replaces the old series, so a component that is
+ *   rebuilt (a replica promoted to primary) can point a gauge at its new state.
+ * - Counters and gauges given as a LongSupplier are read only when dumped; the supplier must be
+ *   safe to call from the exporting thread.
+ * - Histograms are exported as summaries: the QUANTILES, then _sum (estimated, see
+ *   LatencyHistogram) and _count (exact), in seconds. With no sampled call the quantiles are
+ *   NaN, as Prometheus client libraries report an empty summary (and _sum too, if calls were
+ *   counted).
+ */
+final class MetricsRegistry {
+    static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final List<Series> series = new CopyOnWriteArrayList<>();
+
+    /** A counter this registry owns; increment the returned adder. */
+    LongAdder counter(String name, String labels, String help) {
+        LongAdder adder = new LongAdder();
+        register(new Series(name, labels, help, "counter", adder::sum, null));
+        return adder;
+    }
+
+    /** A counter kept elsewhere, read through {@code value}. */
+    void counter(String name, String labels, String help, LongSupplier value) {
+        register(new Series(name, labels, help, "counter", value, null));
+    }
+
+    void gauge(String name, String labels, String help, LongSupplier value) {
+        register(new Series(name, labels, help, "gauge", value, null));
+    }
+
+    LatencyHistogram histogram(String name, String labels, String help) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        register(new Series(name, labels, help, "summary", null, histogram));
+        return histogram;
+    }
+
+    /** Appends every series, grouped by name in registration order of the names. */
+    void writePrometheus(StringBuilder out) {
+        Object[] all = series.toArray();
+        boolean[] written = new boolean[all.length];
+        for (int i = 0; i < all.length; i++) {
+            if (written[i]) continue;
+            Series first = (Series) all[i];
+            out.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+            out.append("# TYPE ").append(first.name).append(' ').append(first.type).append('\n');
+            for (int j = i; j < all.length; j++) {
+                Series s = (Series) all[j];
+                if (written[j] || !s.name.equals(first.name)) continue;
+                written[j] = true;
+                if (s.histogram == null) {
+                    sample(out, s.name, s.labels, null).append(s.value.getAsLong()).append('\n');
+                } else {
+                    LatencyHistogram.Snapshot snap = s.histogram.snapshot();
+                    for (double q : QUANTILES) {
+                        sample(out, s.name, s.labels, "quantile=\"" + q + "\"");
+                        long nanos = snap.valueAt(q);
+                        out.append(nanos < 0 ? "NaN" : seconds(nanos)).append('\n');
+                    }
+                    sample(out, s.name + "_sum", s.labels, null).append(seconds(snap.estimatedTotalNanos())).append('\n');
+                    sample(out, s.name + "_count", s.labels, null).append(snap.calls).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * One line per histogram with calls, e.g.
+     * "deposit: 1200 call(s), p50=1.9 us p99=12.3 us p999=40.1 us"; the label values name them.
+     * Quantiles read "n/a" while no call has been sampled.
+     */
+    void writeLatencySummary(StringBuilder out) {
+        for (Object o : series.toArray()) {
+            Series s = (Series) o;
+            if (s.histogram == null) continue;
+            LatencyHistogram.Snapshot snap = s.histogram.snapshot();
+            if (snap.calls == 0) continue;
+            out.append(labelValues(s.labels)).append(": ").append(snap.calls).append(" call(s), ");
+            for (int q = 0; q < QUANTILES.length; q++) {
+                long nanos = snap.valueAt(QUANTILES[q]);
+                out.append(q == 0 ? "p" : " p").append(quantileName(QUANTILES[q])).append('=')
+                        .append(nanos < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f us", nanos / 1e3));
+            }
+            out.append('\n');
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    private void register(Series s) {
+        synchronized (series) {
+            for (Series old : series) {
+                if (old.name.equals(s.name) && old.labels.equals(s.labels)) {
+                    series.set(series.indexOf(old), s);
+                    return;
+                }
+            }
+            series.add(s);
+        }
+    }
+
+    private static StringBuilder sample(StringBuilder out, String name, String labels, String extraLabel) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static String seconds(double nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /** "0.5" -> "50", "0.99" -> "99", "0.999" -> "999". */
+    private static String quantileName(double q) {
+        String digits = Double.toString(q).substring(2);
+        return digits.length() == 1 ? digits + "0" : digits;
+    }
+
+    /** {@code operation="deposit"} -> deposit; several labels are joined with '/'. */
+    private static String labelValues(String labels) {
+        StringBuilder sb = new StringBuilder();
+        for (String label : labels.split(",")) {
+            int quote = label.indexOf('"');
+            if (quote < 0) continue;
+            if (sb.length() > 0) sb.append('/');
+            sb.append(label, quote + 1, label.lastIndexOf('"'));
+        }
+        return sb.toString();
+    }
+
+    private static final class Series {
+        final String name;
+        final String labels;
+        final String help;
+        final String type;
+        final LongSupplier value; // counters and gauges
+        final LatencyHistogram histogram; // summaries
+
+        Series(String name, String labels, String help, String type, LongSupplier value, LatencyHistogram histogram) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+            this.histogram = histogram;
+        }
+    }
+}
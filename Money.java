@@ -0,0 +1,116 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money helpers. Amounts are held as a primitive {@code long} count of cents,
+ * so the hot paths in {@link Account} never allocate.
+ *
+ * Notes:
+ * - BigDecimal is only used at the API edge; conversions in both directions are lossless
+ *   for any value with at most two decimals.
+ * - format() and appendTo() print cents digit by digit, never through BigDecimal.
+ * - Balances cannot overflow: Account refuses a credit that would take a balance past
+ *   Account.MAX_BALANCE_CENTS (OVER_BALANCE_LIMIT); addExact()/subtractExact() throw
+ *   ArithmeticException for any other sum that would.
+ * - bench/MoneyEquivalence checks these paths against the original BigDecimal semantics.
+ */
+final class Money {
+    static final int SCALE = 2;
+    static final long CENTS_PER_UNIT = 100L;
+    /** Single-transaction cap: $1,000,000,000.00. */
+    static final long MAX_TRANSACTION_CENTS = 1_000_000_000L * CENTS_PER_UNIT;
+
+    private static final BigDecimal LONG_MAX_DECIMAL = BigDecimal.valueOf(Long.MAX_VALUE, SCALE);
+    private static final BigDecimal LONG_MIN_DECIMAL = BigDecimal.valueOf(Long.MIN_VALUE, SCALE);
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to cents, rounding HALF_UP to two decimals exactly like the
+     * BigDecimal code paths did. Values outside the long range saturate to
+     * Long.MAX_VALUE / Long.MIN_VALUE, which every caller rejects via the transaction cap.
+     */
+    static long toCents(BigDecimal amount) {
+        BigDecimal rounded = amount.scale() == SCALE ? amount : amount.setScale(SCALE, RoundingMode.HALF_UP);
+        if (rounded.compareTo(LONG_MAX_DECIMAL) > 0) return Long.MAX_VALUE;
+        if (rounded.compareTo(LONG_MIN_DECIMAL) < 0) return Long.MIN_VALUE;
+        return rounded.unscaledValue().longValue();
+    }
+
+    /**
+     * Parses a plain decimal ("12", "-3.5", "0.125") straight to cents without allocating,
+     * with the same HALF_UP rounding and saturation as toCents(BigDecimal). Anything else
+     * (exponents, grouping) falls back to BigDecimal parsing.
+     *
+     * @throws NumberFormatException if the text is not a number
+     */
+    static long parseCents(CharSequence text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) negative = text.charAt(i++) == '-';
+        long units = 0;
+        int fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        boolean sawDigit = false;
+        boolean saturated = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') break;
+            if (c < '0' || c > '9') return toCents(new BigDecimal(text.subSequence(start, end).toString()));
+            sawDigit = true;
+            if (units > (Long.MAX_VALUE / CENTS_PER_UNIT - 9) / 10) saturated = true;
+            else units = units * 10 + (c - '0');
+        }
+        if (i < end) {
+            for (i++; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') return toCents(new BigDecimal(text.subSequence(start, end).toString()));
+                sawDigit = true;
+                if (fractionDigits < SCALE) {
+                    fraction = fraction * 10 + (c - '0');
+                    fractionDigits++;
+                } else if (fractionDigits == SCALE) {
+                    roundUp = c >= '5';
+                    fractionDigits++;
+                }
+            }
+        }
+        if (!sawDigit) throw new NumberFormatException("Not a number: " + text.subSequence(start, end));
+        if (saturated) return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+        for (int d = Math.min(fractionDigits, SCALE); d < SCALE; d++) fraction *= 10;
+        long cents = units * CENTS_PER_UNIT + fraction + (roundUp ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    static long addExact(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    static long subtractExact(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /** "$" plus the plain decimal amount, e.g. "$1234.50" or "$-0.05". */
+    static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /** Appends format(cents) to {@code sb} without allocating; returns {@code sb}. */
+    static StringBuilder appendTo(StringBuilder sb, long cents) {
+        long units = cents / CENTS_PER_UNIT;
+        int fraction = (int) (cents % CENTS_PER_UNIT);
+        sb.append('$');
+        if (cents < 0) {
+            sb.append('-');
+            units = -units; // no overflow: |Long.MIN_VALUE / 100| fits
+            fraction = -fraction;
+        }
+        return sb.append(units).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+}
@@ -0,0 +1,268 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact account table for tens of millions of accounts: one fixed 64-byte slot per account
+ * in direct (off-heap) buffers, found through an open-addressing index that is off-heap too, so
+ * the garbage collector sees a few dozen buffers instead of several objects per account.
+ *
+ * Slot (64 bytes, native byte order, one cache line):
+ *   0   long  account number, characters 0..7    } packed ASCII, zero-padded
+ *   8   long  account number, characters 8..15   }
+ *   16  long  balance in cents (see Money)
+ *   24  long  history reference, opaque to the table (0 = none)
+ *   32  32 B  raw SHA-256 PIN hash (see PinHasher)
+ *
+ * Index: one int per entry, slot + 1 (0 = empty), linear probing, kept at most half full and
+ * rebuilt at twice the size when it would not be.
+ *
+ * Notes:
+ * - Account numbers must be 1..MAX_NUMBER_LENGTH ASCII characters; create() refuses longer
+ *   ones with IllegalArgumentException and find() never finds them.
+ * - Slots are handed out in creation order and never freed, so a slot number addresses its
+ *   account for the life of the table.
+ * - Lookups and balance updates are lock-free: balances change by compare-and-set on the slot,
+ *   as Account does on its head. Creates serialize on the table and publish the index entry
+ *   last, with a release store, so a reader that finds a slot sees it fully written.
+ * - transfer() is a withdrawal followed by a deposit; a reader summing every balance can catch
+ *   the amount in flight, as with ShardedBank's cross-shard transfers.
+ * - Holder names and history are not stored here; historyRef() is where the caller records
+ *   where an account's history lives.
+ */
+final class OffHeapAccountTable {
+    static final int SLOT_BYTES = 64;
+    static final int MAX_NUMBER_LENGTH = 16;
+    static final int MAX_ACCOUNTS = 1 << 27; // the largest index (1 GB of ints) half full
+
+    private static final int KEY_LOW = 0;
+    private static final int KEY_HIGH = 8;
+    private static final int BALANCE = 16;
+    private static final int HISTORY = 24;
+    private static final int PIN_HASH = 32;
+    private static final int CHUNK_SHIFT = 16; // 65,536 slots (4 MB) per chunk
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int MIN_INDEX_ENTRIES = 1 << 10;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile ByteBuffer index; // replaced whole when it grows; writes guarded by this
+    private volatile int size; // written only under this
+
+    OffHeapAccountTable() {
+        this(0);
+    }
+
+    OffHeapAccountTable(int expectedAccounts) {
+        int entries = MIN_INDEX_ENTRIES;
+        while (entries < 2L * expectedAccounts && entries < 2 * MAX_ACCOUNTS) entries <<= 1;
+        this.index = newIndex(entries);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Direct memory held by the slots and the index. */
+    long offHeapBytes() {
+        return (long) chunks.length * (SLOT_BYTES << CHUNK_SHIFT) + index.capacity();
+    }
+
+    /** The slot of {@code accountNumber}, or -1 if it has none. */
+    int find(String accountNumber) {
+        int len = accountNumber.length();
+        if (len == 0 || len > MAX_NUMBER_LENGTH) return -1;
+        long low = packWord(accountNumber, 0);
+        long high = packWord(accountNumber, 8);
+        if (low == -1L || high == -1L) return -1; // not ASCII, so never stored
+        return find(index, low, high);
+    }
+
+    /**
+     * Creates an account in a new slot and returns the slot, or -1 if the number is taken.
+     * {@code pinHash} is copied; {@code initialCents} may be zero.
+     */
+    synchronized int create(String accountNumber, byte[] pinHash, long initialCents) {
+        int len = accountNumber.length();
+        if (len == 0 || len > MAX_NUMBER_LENGTH) {
+            throw new IllegalArgumentException("Account number must be 1.." + MAX_NUMBER_LENGTH + " characters: "
+                    + accountNumber);
+        }
+        if (pinHash.length != PinHasher.HASH_BYTES) throw new IllegalArgumentException("PIN hash must be 32 bytes");
+        if (initialCents < 0 || initialCents > Account.MAX_BALANCE_CENTS) {
+            throw new IllegalArgumentException("Initial balance out of range: " + initialCents);
+        }
+        long low = packWord(accountNumber, 0);
+        long high = packWord(accountNumber, 8);
+        if (low == -1L || high == -1L) throw new IllegalArgumentException("Account number must be ASCII: " + accountNumber);
+        ByteBuffer idx = index;
+        if (find(idx, low, high) >= 0) return -1;
+        int slot = size;
+        if (slot == MAX_ACCOUNTS) throw new IllegalStateException("Account table is full (" + MAX_ACCOUNTS + ")");
+
+        ByteBuffer[] cs = chunks;
+        if (slot >>> CHUNK_SHIFT == cs.length) {
+            ByteBuffer[] more = new ByteBuffer[cs.length + 1];
+            System.arraycopy(cs, 0, more, 0, cs.length);
+            more[cs.length] = ByteBuffer.allocateDirect((SLOT_BYTES << CHUNK_SHIFT) + SLOT_BYTES)
+                    .alignedSlice(SLOT_BYTES).order(ByteOrder.nativeOrder()); // whole cache lines; CAS needs aligned longs
+            chunks = cs = more;
+        }
+        ByteBuffer c = cs[slot >>> CHUNK_SHIFT];
+        int at = offset(slot);
+        c.putLong(at + KEY_LOW, low);
+        c.putLong(at + KEY_HIGH, high);
+        c.putLong(at + BALANCE, initialCents);
+        c.putLong(at + HISTORY, 0L);
+        c.put(at + PIN_HASH, pinHash);
+        size = slot + 1; // before the index entry, so whoever finds the slot can also address it
+
+        int entries = idx.capacity() >>> 2;
+        if (2L * (slot + 1) > entries) {
+            idx = newIndex(entries << 1);
+            for (int s = 0; s < slot; s++) {
+                ByteBuffer sc = cs[s >>> CHUNK_SHIFT];
+                int sat = offset(s);
+                idx.putInt(freeEntry(idx, sc.getLong(sat + KEY_LOW), sc.getLong(sat + KEY_HIGH)) << 2, s + 1);
+            }
+            idx.putInt(freeEntry(idx, low, high) << 2, slot + 1);
+            index = idx; // volatile write publishes the rebuilt index and the new slot together
+        } else {
+            INTS.setRelease(idx, freeEntry(idx, low, high) << 2, slot + 1);
+        }
+        return slot;
+    }
+
+    String accountNumber(int slot) {
+        ByteBuffer c = chunk(slot);
+        int at = offset(slot);
+        char[] chars = new char[MAX_NUMBER_LENGTH];
+        int len = unpackWord(c.getLong(at + KEY_LOW), chars, 0);
+        if (len == 8) len += unpackWord(c.getLong(at + KEY_HIGH), chars, 8);
+        return new String(chars, 0, len);
+    }
+
+    long balanceCents(int slot) {
+        return (long) LONGS.getVolatile(chunk(slot), offset(slot) + BALANCE);
+    }
+
+    boolean verifyPin(int slot, String pin) {
+        return PinHasher.matches(pin, chunk(slot), offset(slot) + PIN_HASH);
+    }
+
+    long historyRef(int slot) {
+        return (long) LONGS.getVolatile(chunk(slot), offset(slot) + HISTORY);
+    }
+
+    void setHistoryRef(int slot, long ref) {
+        LONGS.setVolatile(chunk(slot), offset(slot) + HISTORY, ref);
+    }
+
+    /**
+     * Adds {@code cents} to the balance; false if the amount is not positive, above
+     * Money.MAX_TRANSACTION_CENTS, or would take the balance past Account.MAX_BALANCE_CENTS.
+     */
+    boolean deposit(int slot, long cents) {
+        if (cents <= 0 || cents > Money.MAX_TRANSACTION_CENTS) return false;
+        ByteBuffer c = chunk(slot);
+        int at = offset(slot) + BALANCE;
+        long balance;
+        do {
+            balance = (long) LONGS.getVolatile(c, at);
+            if (balance > Account.MAX_BALANCE_CENTS - cents) return false;
+        } while (!LONGS.compareAndSet(c, at, balance, balance + cents));
+        return true;
+    }
+
+    /** Takes {@code cents} from the balance; false if the amount is invalid or funds are short. */
+    boolean withdraw(int slot, long cents) {
+        if (cents <= 0 || cents > Money.MAX_TRANSACTION_CENTS) return false;
+        ByteBuffer c = chunk(slot);
+        int at = offset(slot) + BALANCE;
+        long balance;
+        do {
+            balance = (long) LONGS.getVolatile(c, at);
+            if (balance < cents) return false;
+        } while (!LONGS.compareAndSet(c, at, balance, balance - cents));
+        return true;
+    }
+
+    /** Moves {@code cents} between two different slots; false (and nothing moved) if either side refuses. */
+    boolean transfer(int from, int to, long cents) {
+        if (from == to || !withdraw(from, cents)) return false;
+        if (deposit(to, cents)) return true;
+        ByteBuffer c = chunk(from);
+        LONGS.getAndAdd(c, offset(from) + BALANCE, cents); // refund; never past the limit it was under
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    private ByteBuffer chunk(int slot) {
+        if (slot < 0 || slot >= size) throw new IndexOutOfBoundsException("No account slot " + slot);
+        return chunks[slot >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int slot) {
+        return (slot & CHUNK_MASK) * SLOT_BYTES;
+    }
+
+    private int find(ByteBuffer idx, long low, long high) {
+        int mask = (idx.capacity() >>> 2) - 1;
+        ByteBuffer[] cs = null;
+        for (int i = hash(low, high) & mask; ; i = (i + 1) & mask) {
+            int entry = (int) INTS.getAcquire(idx, i << 2);
+            if (entry == 0) return -1;
+            int slot = entry - 1;
+            if (cs == null || slot >>> CHUNK_SHIFT >= cs.length) cs = chunks; // read after the entry, so it has the slot's chunk
+            ByteBuffer c = cs[slot >>> CHUNK_SHIFT];
+            int at = offset(slot);
+            if (c.getLong(at + KEY_LOW) == low && c.getLong(at + KEY_HIGH) == high) return slot;
+        }
+    }
+
+    private static int freeEntry(ByteBuffer idx, long low, long high) {
+        int mask = (idx.capacity() >>> 2) - 1;
+        int i = hash(low, high) & mask;
+        while (idx.getInt(i << 2) != 0) i = (i + 1) & mask;
+        return i;
+    }
+
+    private static ByteBuffer newIndex(int entries) {
+        return ByteBuffer.allocateDirect(entries << 2).order(ByteOrder.nativeOrder());
+    }
+
+    /** MurmurHash3 fmix64 of the two key words, as HashRing finishes its hashes. */
+    private static int hash(long low, long high) {
+        long h = low * 0x9E3779B97F4A7C15L + high;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /** Characters from..from+7 of {@code s} (zero past its end), one per byte; -1 if one is not ASCII. */
+    private static long packWord(String s, int from) {
+        long word = 0L;
+        for (int i = 0; i < 8 && from + i < s.length(); i++) {
+            char ch = s.charAt(from + i);
+            if (ch == 0 || ch >= 0x80) return -1L;
+            word |= (long) ch << (8 * i);
+        }
+        return word;
+    }
+
+    private static int unpackWord(long word, char[] into, int from) {
+        int n = 0;
+        for (; n < 8; n++) {
+            char ch = (char) ((word >>> (8 * n)) & 0xFF);
+            if (ch == 0) break;
+            into[from + n] = ch;
+        }
+        return n;
+    }
+}
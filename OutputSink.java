@@ -0,0 +1,36 @@
+/**
+ * Where console text goes. Sessions, BankApp's status lines and account statements print
+ * through one of these instead of System.out, so their output can be batched
+ * (BufferedOutputSink) or discarded (NONE, for benchmarks).
+ *
+ * Notes:
+ * - Text is only guaranteed to have reached its destination after flush(); callers flush
+ *   before they block on input or stop writing.
+ * - Methods take a CharSequence, so a reused StringBuilder (see HistoryFormatter) is written
+ *   without first becoming a String.
+ * - Components reporting from their own threads (server loops, replication, the router,
+ *   snapshots, the metrics writer) print to System.err instead: a sink holds text until its
+ *   owner flushes, which would show their lines late and out of order.
+ */
+interface OutputSink {
+    OutputSink NONE = new OutputSink() {
+        @Override
+        public void print(CharSequence text) {
+        }
+
+        @Override
+        public void println(CharSequence line) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    void print(CharSequence text);
+
+    /** {@code line} followed by the platform line separator. */
+    void println(CharSequence line);
+
+    void flush();
+}
@@ -0,0 +1,78 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 PIN hashing with per-thread reusable state.
+ *
+ * Notes:
+ * - Hashes are raw 32-byte arrays; nothing is hex-formatted.
+ * - matches() allocates nothing: the PIN is encoded into a per-thread scratch buffer, digested
+ *   by a per-thread MessageDigest (no provider lookup per call) into a per-thread output
+ *   buffer, and compared with MessageDigest.isEqual, which runs in constant time.
+ */
+final class PinHasher {
+    static final int HASH_BYTES = 32;
+
+    private static final ThreadLocal<PinHasher> LOCAL = ThreadLocal.withInitial(PinHasher::new);
+
+    private final MessageDigest digest;
+    private final byte[] out = new byte[HASH_BYTES];
+    private byte[] scratch = new byte[16];
+
+    private PinHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    /** Returns a fresh 32-byte hash; used when a PIN is set, not on the verify path. */
+    static byte[] hash(String pin) {
+        PinHasher h = LOCAL.get();
+        h.digestInto(pin);
+        return h.out.clone();
+    }
+
+    static boolean matches(String pin, byte[] expectedHash) {
+        PinHasher h = LOCAL.get();
+        h.digestInto(pin);
+        return MessageDigest.isEqual(h.out, expectedHash);
+    }
+
+    /** As matches(String, byte[]), against the hash stored at {@code offset} in {@code expected}. */
+    static boolean matches(String pin, ByteBuffer expected, int offset) {
+        PinHasher h = LOCAL.get();
+        h.digestInto(pin);
+        int diff = 0;
+        for (int i = 0; i < HASH_BYTES; i++) diff |= h.out[i] ^ expected.get(offset + i); // constant time
+        return diff == 0;
+    }
+
+    private void digestInto(String pin) {
+        int len = pin.length();
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        for (int i = 0; i < len; i++) {
+            char c = pin.charAt(i);
+            if (c >= 0x80) {
+                // Non-ASCII PINs are never produced by the UI; encode them properly anyway.
+                digest.update(pin.getBytes(StandardCharsets.UTF_8));
+                finish();
+                return;
+            }
+            scratch[i] = (byte) c;
+        }
+        digest.update(scratch, 0, len);
+        finish();
+    }
+
+    private void finish() {
+        try {
+            digest.digest(out, 0, HASH_BYTES);
+        } catch (java.security.DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Supplier;
+
+/**
+ * Counts of TransactionResults per operation (deposit, withdrawal, transfer), kept by the front
+ * ends that map results to responses: each BankServer event loop and each batch run.
+ *
+ * Notes:
+ * - Single writer: the owning thread increments with a plain read and an opaque store, so
+ *   counting costs no atomic instruction. Other threads read with opaque loads and may see a
+ *   count a few increments old, never a torn one.
+ * - Several writers each keep their own instance; addTo() sums them for reporting.
+ */
+final class ResultCounters {
+    static final int DEPOSIT = 0;
+    static final int WITHDRAW = 1;
+    static final int TRANSFER = 2;
+
+    private static final String[] OPERATION_NAMES = {"deposit", "withdraw", "transfer"};
+    private static final TransactionResult[] RESULTS = TransactionResult.values();
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] counts = new long[OPERATION_NAMES.length * RESULTS.length];
+
+    /** Counts one outcome; only ever called by the owning thread. */
+    void record(int operation, TransactionResult result) {
+        int i = operation * RESULTS.length + result.ordinal();
+        COUNTS.setOpaque(counts, i, counts[i] + 1);
+    }
+
+    long count(int operation, TransactionResult result) {
+        return (long) COUNTS.getOpaque(counts, operation * RESULTS.length + result.ordinal());
+    }
+
+    /** Every outcome counted, successful or not. */
+    long total() {
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) sum += (long) COUNTS.getOpaque(counts, i);
+        return sum;
+    }
+
+    /** Adds this instance's counts into {@code sum}, which no other thread may be writing. */
+    void addTo(ResultCounters sum) {
+        for (int i = 0; i < counts.length; i++) sum.counts[i] += (long) COUNTS.getOpaque(counts, i);
+    }
+
+    /**
+     * Exports the counts as bank_results_total{operation, result}, every series reading them
+     * from {@code counts} (which may sum several writers' instances) when dumped.
+     */
+    static void export(MetricsRegistry registry, Supplier<ResultCounters> counts) {
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            for (TransactionResult r : RESULTS) {
+                int operation = op;
+                String labels = "operation=\"" + OPERATION_NAMES[op] + "\",result=\"" + r.name() + "\"";
+                registry.counter("bank_results_total", labels, "Deposit, withdrawal and transfer outcomes, per reason.",
+                        () -> counts.get().count(operation, r));
+            }
+        }
+    }
+
+    /** Non-zero counts, e.g. "deposit OK=12, withdraw OK=7 INSUFFICIENT_FUNDS=2"; "none" if there are none. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            boolean named = false;
+            for (TransactionResult r : RESULTS) {
+                long n = count(op, r);
+                if (n == 0) continue;
+                if (!named) {
+                    if (sb.length() > 0) sb.append(", ");
+                    sb.append(OPERATION_NAMES[op]);
+                    named = true;
+                }
+                sb.append(' ').append(r.name()).append('=').append(n);
+            }
+        }
+        return sb.length() == 0 ? "none" : sb.toString();
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Partitions the account space by a hash of the account number into N shards, each owned by
+ * one worker thread that drains a mailbox of commands; every command runs on the shard of its
+ * account (the source, for a transfer), so a shard's accounts are only ever mutated by its
+ * own thread and their locks stay uncontended.
+ *
+ * A transfer between two shards is submitted twice: the command to the source shard and a
+ * hold to the destination shard. Each side reserves its account when it reaches it, deferring
+ * every later command on that account until the transfer is through:
+ *   1. hold, on the destination shard: the destination is reserved and handed (or, if it does
+ *      not exist, reported missing) to the source shard
+ *   2. debit, on the source shard, once both sides are reserved: the source is checked and
+ *      debited, and both sides are journaled as one record (Account.transferOutCents); the
+ *      source account is released
+ *   3. credit, on the destination shard, once that record is durable: the credit is applied
+ *      (Account.transferIn), the destination is released and the command completes
+ * So each account sees its commands in submission order, both sides change in one journal
+ * record, and no shard mutates another shard's accounts.
+ *
+ * Notes:
+ * - Results are those of running the commands one by one in submission order, as
+ *   CommandSequencer.apply() does, provided a command is only submitted once every earlier
+ *   command it depends on has been (one producer, or producers on disjoint accounts).
+ * - Holds and debits are posted under one lock, so every mailbox sees cross-shard transfers
+ *   in the same order and two transfers can never each hold what the other waits for.
+ * - A transfer within one shard runs directly, or, if one of its accounts is reserved, takes
+ *   the same three steps with its hold made at its own turn.
+ * - Each worker installs an Account.DurabilityBatch: a mailbox round shares one journal wait,
+ *   and callbacks run only after it, so a completed command is durable.
+ * - Callbacks run on the shard's worker thread and must not block.
+ * - A command that throws (e.g. on a failed WAL) completes with SERVER_ERROR, and so does every
+ *   command of a round whose journal wait fails; a callback that throws is reported. Either
+ *   way the command counts as done, so a worker never dies and close() always returns.
+ */
+final class ShardedBank implements Closeable {
+    /** Receives a finished command, on the worker thread of the shard that completed it. */
+    interface Callback {
+        void completed(CommandSequencer.Command command);
+    }
+
+    private static final long PARK_NANOS = 1_000_000L;
+
+    private final AccountRegistry accounts;
+    private final AccountJournal journal;
+    private final HistoryStore historyStore;
+    private final Shard[] shards;
+    private final AtomicLong pending = new AtomicLong(); // submitted commands not yet called back
+    private volatile boolean closed;
+
+    ShardedBank(AccountRegistry accounts, AccountJournal journal, HistoryStore historyStore, int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("Shard count must be at least 1");
+        this.accounts = accounts;
+        this.journal = journal;
+        this.historyStore = historyStore;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i);
+        for (Shard shard : shards) shard.thread.start();
+    }
+
+    int shardOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    /**
+     * Queues {@code command} (filled in as for CommandSequencer) on its account's shard, and a
+     * transfer's hold on its destination's; {@code callback} gets it back with the result. The
+     * command must not be touched until then.
+     */
+    void submit(CommandSequencer.Command command, Callback callback) {
+        if (closed) throw new IllegalStateException("Sharded bank is closed");
+        pending.incrementAndGet();
+        Message m = new Message(command, callback);
+        Shard shard = shards[shardOf(command.account)];
+        if (command.type == CommandSequencer.TRANSFER) {
+            Shard target = shards[shardOf(command.to)];
+            if (target != shard) {
+                Message hold = m.split(shard);
+                synchronized (this) {
+                    target.post(hold);
+                    shard.post(m);
+                }
+                return;
+            }
+        }
+        shard.post(m);
+    }
+
+    /** Finishes every submitted command, then stops the workers. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Shard shard : shards) LockSupport.unpark(shard.thread);
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final byte REQUEST = 0;
+    private static final byte HOLD = 1; // transfer, on the destination shard
+    private static final byte READY = 2; // transfer's destination reserved, back on the source shard
+    private static final byte CREDIT = 3; // transfer debited, sent to the destination shard
+    private static final byte DONE = 4; // transfer credited, completes on the destination shard
+
+    private static final class Message {
+        final CommandSequencer.Command command;
+        final Callback callback;
+        byte phase = REQUEST;
+        Message peer; // a split transfer's hold and command, linked both ways
+        Shard source; // a hold's source shard
+        boolean started; // a split transfer's source is reserved
+        boolean ready; // a split transfer's destination is reserved
+        Account from;
+        Account to;
+        Account.Credit credit;
+
+        Message(CommandSequencer.Command command, Callback callback) {
+            this.command = command;
+            this.callback = callback;
+        }
+
+        /** Makes this transfer a split one; returns its hold, to be handled on the destination shard. */
+        Message split(Shard source) {
+            Message hold = new Message(command, null);
+            hold.phase = HOLD;
+            hold.peer = this;
+            hold.source = source;
+            peer = hold;
+            return hold;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final Queue<Message> mailbox = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        final Account.DurabilityBatch durability = new Account.DurabilityBatch();
+        /** This shard's accounts reserved by a transfer in flight, with the commands deferred behind them. */
+        final Map<String, ArrayDeque<Message>> reserved = new HashMap<>();
+        final List<Message> finished = new ArrayList<>(); // replied to (or forwarded) after the durability wait
+        volatile boolean sleeping;
+
+        Shard(int index) {
+            this.thread = new Thread(this, "shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void post(Message m) {
+            mailbox.offer(m);
+            if (sleeping) LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            Account.batchDurability(durability);
+            try {
+                while (true) {
+                    boolean worked = false;
+                    Message m;
+                    while ((m = mailbox.poll()) != null) {
+                        handle(m);
+                        worked = true;
+                    }
+                    try {
+                        durability.awaitAll();
+                    } catch (RuntimeException e) {
+                        // Nothing in this round is known durable: complete all of it with an error.
+                        for (Message done : finished) CommandSequencer.failed(done.command);
+                    }
+                    for (Message done : finished) {
+                        if (done.phase == CREDIT) {
+                            shards[shardOf(done.command.to)].post(done);
+                        } else {
+                            try {
+                                done.callback.completed(done.command);
+                            } catch (RuntimeException e) {
+                                System.err.println("ERROR: Shard callback failed — " + e);
+                            }
+                            pending.decrementAndGet();
+                        }
+                    }
+                    finished.clear();
+                    if (worked) continue;
+                    if (closed && pending.get() == 0) return;
+                    sleeping = true;
+                    if (mailbox.isEmpty()) LockSupport.parkNanos(PARK_NANOS);
+                    sleeping = false;
+                }
+            } finally {
+                Account.batchDurability(null);
+            }
+        }
+
+        private void handle(Message m) {
+            CommandSequencer.Command c = m.command;
+            switch (m.phase) {
+                case HOLD -> {
+                    if (defer(c.to, m)) return;
+                    reserved.put(c.to, new ArrayDeque<>());
+                    m.to = accounts.get(c.to);
+                    m.phase = READY;
+                    m.source.post(m);
+                }
+                case READY -> {
+                    Message transfer = m.peer;
+                    transfer.to = m.to;
+                    transfer.ready = true;
+                    if (transfer.started) debit(transfer);
+                }
+                case CREDIT -> {
+                    if (c.result == TransactionResult.OK) {
+                        try {
+                            m.to.transferIn(m.from, m.credit);
+                        } catch (RuntimeException e) {
+                            CommandSequencer.failed(c);
+                        }
+                    }
+                    m.phase = DONE;
+                    finished.add(m);
+                    release(c.to);
+                }
+                default -> {
+                    if (m.peer == null && c.type == CommandSequencer.TRANSFER && !c.to.equals(c.account)
+                            && (reserved.containsKey(c.account) || reserved.containsKey(c.to))) {
+                        handle(m.split(this)); // the destination is held now, at this transfer's turn
+                    }
+                    if (defer(c.account, m)) return;
+                    if (m.peer != null) {
+                        reserved.put(c.account, new ArrayDeque<>());
+                        m.started = true;
+                        if (m.ready) debit(m);
+                    } else {
+                        apply(c);
+                        finished.add(m);
+                    }
+                }
+            }
+        }
+
+        /** Queues {@code m} behind the transfer that reserved {@code accountNumber}, if there is one. */
+        private boolean defer(String accountNumber, Message m) {
+            ArrayDeque<Message> deferred = reserved.get(accountNumber);
+            if (deferred == null) return false;
+            deferred.add(m);
+            return true;
+        }
+
+        private void release(String accountNumber) {
+            ArrayDeque<Message> deferred = reserved.remove(accountNumber);
+            while (deferred != null && !deferred.isEmpty()) handle(deferred.poll());
+        }
+
+        /** Step 2 of a split transfer; its credit goes to the destination shard after this round's journal wait. */
+        private void debit(Message m) {
+            CommandSequencer.Command c = m.command;
+            m.from = accounts.get(c.account);
+            c.result = null;
+            try {
+                if (m.from == null || m.to == null) {
+                    c.status = BankProtocol.NOT_FOUND;
+                    c.balanceCents = 0L;
+                } else {
+                    m.credit = new Account.Credit();
+                    c.result = Account.transferOutCents(m.from, m.to, c.cents, m.credit);
+                    c.status = c.result == TransactionResult.OK ? BankProtocol.OK : BankProtocol.REJECTED;
+                    c.balanceCents = m.from.getBalanceCents();
+                }
+            } catch (RuntimeException e) {
+                CommandSequencer.failed(c);
+            }
+            m.phase = CREDIT;
+            finished.add(m);
+            release(c.account);
+        }
+
+        private void apply(CommandSequencer.Command c) {
+            try {
+                CommandSequencer.apply(c, accounts, journal, historyStore);
+            } catch (RuntimeException e) {
+                CommandSequencer.failed(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transaction history with bounded memory per account: the newest entries live in a
+ * fixed-capacity heap ring, and older ones are spilled to compressed chunks in append-only
+ * per-shard files.
+ *
+ * When an account's ring is full, its oldest half is deflated into one chunk:
+ *   long prevChunk+1 (0 = none) | int compressedLength | int records | long firstEpochMicros |
+ *   deflated HistoryRecords
+ * Chunks of one account are chained newest to oldest, so the only per-account heap state
+ * besides the ring is the offset of its newest chunk.
+ *
+ * Notes:
+ * - Shard files are scratch, like MappedHistoryStore's: truncated on open, rebuilt by WAL
+ *   replay. Rings are not persistent, so this store cannot back snapshots.
+ * - Recent entries (a statement's worth) are always served from the ring. Older ones are
+ *   reached through cursor(), which walks the chunk chain once per cursor and then inflates
+ *   chunks in order; read(index) on a spilled entry does the same walk for a single record.
+ * - lowerBound() binary-searches the ring in memory; a time before the ring's oldest entry costs
+ *   one walk over the chunk headers (firstEpochMicros) and one inflated chunk.
+ * - Spills are synchronized per shard; chunk reads use positional reads and need no lock.
+ */
+final class TieredHistoryStore implements HistoryStore {
+    static final int DEFAULT_RING_RECORDS = 64;
+    private static final int CHUNK_HEADER_BYTES = 24;
+    private static final int INITIAL_RING_RECORDS = 4;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Shard[] shards;
+    private final int ringRecords;
+
+    private TieredHistoryStore(Shard[] shards, int ringRecords) {
+        this.shards = shards;
+        this.ringRecords = ringRecords;
+    }
+
+    /**
+     * Opens {@code shardCount} (rounded up to a power of two) empty spill files in {@code dir};
+     * each account keeps at most {@code ringRecords} (rounded up to even) entries in memory.
+     */
+    static TieredHistoryStore open(Path dir, int shardCount, int ringRecords) throws IOException {
+        if (ringRecords < 2) throw new IllegalArgumentException("History ring must hold at least 2 records");
+        Files.createDirectories(dir);
+        int n = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        int ring = (ringRecords + 1) & ~1;
+        Shard[] shards = new Shard[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                shards[i] = new Shard(FileChannel.open(dir.resolve("history-" + i + ".spill"), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                        ring / 2);
+            }
+        } catch (IOException e) {
+            for (Shard shard : shards) if (shard != null) shard.channel.close();
+            throw e;
+        }
+        return new TieredHistoryStore(shards, ring);
+    }
+
+    @Override
+    public TransactionHistory newHistory(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return new TieredHistory(shards[(h ^ (h >>> 16)) & (shards.length - 1)], ringRecords);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (first == null) first = e;
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    private static final class Shard {
+        private final FileChannel channel;
+        private final int chunkRecords;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] raw;
+        private byte[] compressed;
+        private long end;
+
+        Shard(FileChannel channel, int chunkRecords) {
+            this.channel = channel;
+            this.chunkRecords = chunkRecords;
+            this.raw = new byte[chunkRecords * HistoryRecord.BYTES];
+            this.compressed = new byte[CHUNK_HEADER_BYTES + raw.length + 64];
+        }
+
+        /**
+         * Deflates chunkRecords records starting at slot {@code start} of {@code ring} (wrapping
+         * around) into a new chunk chained to {@code prevChunk}; returns the new chunk's offset.
+         */
+        synchronized long spill(long prevChunk, ByteBuffer ring, int start) {
+            int capacity = ring.capacity() / HistoryRecord.BYTES;
+            int first = Math.min(chunkRecords, capacity - start);
+            ring.get(start * HistoryRecord.BYTES, raw, 0, first * HistoryRecord.BYTES);
+            ring.get(0, raw, first * HistoryRecord.BYTES, (chunkRecords - first) * HistoryRecord.BYTES);
+
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (CHUNK_HEADER_BYTES + length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                length += deflater.deflate(compressed, CHUNK_HEADER_BYTES + length, compressed.length - CHUNK_HEADER_BYTES - length);
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(compressed, 0, CHUNK_HEADER_BYTES + length);
+            chunk.putLong(0, prevChunk + 1).putInt(8, length).putInt(12, chunkRecords)
+                    .putLong(16, ByteBuffer.wrap(raw).getLong(0));
+            long offset = end;
+            try {
+                while (chunk.hasRemaining()) channel.write(chunk, offset + chunk.position());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot spill history", e);
+            }
+            end += CHUNK_HEADER_BYTES + length;
+            return offset;
+        }
+
+        /** Reads the header of the chunk at {@code offset}; returns the previous chunk's offset, or -1. */
+        long readHeader(long offset, ByteBuffer header) {
+            header.clear();
+            readFully(header, offset);
+            return header.getLong(0) - 1;
+        }
+
+        /** Inflates the chunk at {@code offset} into {@code into} (chunkRecords records). */
+        void readChunk(long offset, ByteBuffer header, byte[] into) {
+            readHeader(offset, header);
+            byte[] deflated = new byte[header.getInt(8)];
+            readFully(ByteBuffer.wrap(deflated), offset + CHUNK_HEADER_BYTES);
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(deflated);
+            try {
+                int n = 0;
+                while (n < into.length && !inflater.finished()) n += inflater.inflate(into, n, into.length - n);
+                if (n != into.length) throw new IllegalStateException("Short history chunk at offset " + offset);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt history chunk at offset " + offset, e);
+            }
+        }
+
+        private void readFully(ByteBuffer dst, long position) {
+            try {
+                while (dst.hasRemaining()) {
+                    if (channel.read(dst, position + dst.position()) < 0) throw new IOException("Unexpected end of spill file");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read spilled history", e);
+            }
+        }
+
+        synchronized void close() throws IOException {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    private static final class TieredHistory implements TransactionHistory {
+        private final Shard shard;
+        private final int capacity;
+        private ByteBuffer ring = ByteBuffer.allocate(INITIAL_RING_RECORDS * HistoryRecord.BYTES);
+        private int ringStart; // slot of the oldest entry still in memory
+        private int ringCount;
+        private int size;
+        private long newestChunk = -1L;
+
+        TieredHistory(Shard shard, int capacity) {
+            this.shard = shard;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void append(long epochMicros, byte type, long amountCents, long balanceCents, String counterparty) {
+            int slots = ring.capacity() / HistoryRecord.BYTES;
+            if (ringCount == slots) {
+                if (slots < capacity) {
+                    // Still growing: unwrap into a bigger ring (ringStart is 0 until the first spill).
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.min(slots * 2, capacity) * HistoryRecord.BYTES);
+                    bigger.put(ring.array(), 0, ringCount * HistoryRecord.BYTES);
+                    ring = bigger;
+                    slots = ring.capacity() / HistoryRecord.BYTES;
+                } else {
+                    newestChunk = shard.spill(newestChunk, ring, ringStart);
+                    ringStart = (ringStart + shard.chunkRecords) % slots;
+                    ringCount -= shard.chunkRecords;
+                }
+            }
+            int slot = (ringStart + ringCount) % slots;
+            HistoryRecord.write(ring, slot * HistoryRecord.BYTES, epochMicros, type, amountCents, balanceCents, counterparty);
+            ringCount++;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void read(int index, HistoryRecord into) {
+            Objects.checkIndex(index, size);
+            int spilled = size - ringCount;
+            if (index >= spilled) {
+                readRing(index - spilled, into);
+                return;
+            }
+            HistoryRecord[] one = {into};
+            cursor(index).next(one);
+        }
+
+        private void readRing(int offset, HistoryRecord into) {
+            int slots = ring.capacity() / HistoryRecord.BYTES;
+            into.readFrom(ring, ((ringStart + offset) % slots) * HistoryRecord.BYTES);
+        }
+
+        @Override
+        public int lowerBound(long epochMicros) {
+            HistoryRecord probe = new HistoryRecord();
+            int spilled = size - ringCount;
+            int lo = 0;
+            int hi = ringCount;
+            if (spilled > 0 && ringCount > 0) {
+                readRing(0, probe);
+                if (probe.epochMicros >= epochMicros) hi = 0; // before the ring: search the chunks
+            }
+            if (spilled == 0 || hi > 0) {
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    readRing(mid, probe);
+                    if (probe.epochMicros < epochMicros) lo = mid + 1;
+                    else hi = mid;
+                }
+                return spilled + lo;
+            }
+            // Newest chunk whose first entry is earlier than epochMicros holds the boundary.
+            ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+            int chunkNo = spilled / shard.chunkRecords - 1;
+            long offset = newestChunk;
+            while (true) {
+                long prev = shard.readHeader(offset, header);
+                if (header.getLong(16) < epochMicros) break;
+                if (chunkNo == 0) return 0;
+                offset = prev;
+                chunkNo--;
+            }
+            byte[] raw = new byte[shard.chunkRecords * HistoryRecord.BYTES];
+            shard.readChunk(offset, header, raw);
+            ByteBuffer chunk = ByteBuffer.wrap(raw);
+            lo = 1; // entry 0 is known to be earlier
+            hi = shard.chunkRecords;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (chunk.getLong(mid * HistoryRecord.BYTES) < epochMicros) lo = mid + 1;
+                else hi = mid;
+            }
+            return chunkNo * shard.chunkRecords + lo;
+        }
+
+        /** Offsets of spilled chunks {@code from} (inclusive) to {@code chunks} (exclusive), by one walk of the chain. */
+        private long[] chunkOffsets(int from, int chunks, ByteBuffer header) {
+            long[] offsets = new long[chunks - from];
+            long offset = newestChunk;
+            for (int c = chunks - 1; c >= from; c--) {
+                offsets[c - from] = offset;
+                if (c > from) offset = shard.readHeader(offset, header);
+            }
+            return offsets;
+        }
+
+        @Override
+        public HistoryCursor cursor(int from) {
+            return new TieredCursor(from);
+        }
+
+        @Override
+        public long tailPointer() {
+            return -1L;
+        }
+
+        /**
+         * Walks the chunk chain once (on the first spilled read) to collect the offsets of the
+         * chunks it still needs, then inflates them in order; entries still in the ring are read
+         * directly.
+         */
+        private final class TieredCursor implements HistoryCursor {
+            private final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+            private int position;
+            private long[] offsets; // chunk number -> offset, from firstChunk on
+            private int firstChunk;
+            private byte[] chunk; // the loaded chunk, decompressed
+            private ByteBuffer records; // wraps chunk, created with it and reused for every record
+            private int loadedChunk = -1;
+
+            TieredCursor(int from) {
+                this.position = from;
+            }
+
+            @Override
+            public int next(HistoryRecord[] page) {
+                int n = 0;
+                while (n < page.length && position < size) {
+                    int spilled = size - ringCount;
+                    if (position >= spilled) {
+                        readRing(position - spilled, page[n]);
+                    } else {
+                        int chunkNo = position / shard.chunkRecords;
+                        if (chunkNo != loadedChunk) load(chunkNo, spilled / shard.chunkRecords);
+                        page[n].readFrom(records, (position % shard.chunkRecords) * HistoryRecord.BYTES);
+                    }
+                    n++;
+                    position++;
+                }
+                return n;
+            }
+
+            private void load(int chunkNo, int chunks) {
+                if (offsets == null || chunkNo < firstChunk || chunkNo - firstChunk >= offsets.length) {
+                    offsets = chunkOffsets(chunkNo, chunks, header);
+                    firstChunk = chunkNo;
+                }
+                if (chunk == null) {
+                    chunk = new byte[shard.chunkRecords * HistoryRecord.BYTES];
+                    records = ByteBuffer.wrap(chunk);
+                }
+                shard.readChunk(offsets[chunkNo - firstChunk], header, chunk);
+                loadedChunk = chunkNo;
+            }
+
+            @Override
+            public int position() {
+                return position;
+            }
+        }
+    }
+}
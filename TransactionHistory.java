@@ -0,0 +1,43 @@
+/**
+ * Per-account, append-only sequence of {@link HistoryRecord}s.
+ *
+ * Notes:
+ * - Not thread-safe on its own: every call is made while the owning Account's lock is held.
+ * - Indexes are chronological (0 = oldest) and timestamps never decrease with the index (Account
+ *   clamps a clock that steps backwards), so the fixed-width records are their own time index.
+ */
+interface TransactionHistory {
+    void append(long epochMicros, byte type, long amountCents, long balanceCents, String counterparty);
+
+    int size();
+
+    void read(int index, HistoryRecord into);
+
+    /** Opens a cursor at index {@code from}; stores whose older entries are expensive to reach override this. */
+    default HistoryCursor cursor(int from) {
+        return new HistoryCursor.Indexed(this, from);
+    }
+
+    /**
+     * Index of the first entry at or after {@code epochMicros} (size() if none): a binary search
+     * over read(); stores whose older entries are expensive to reach override this.
+     */
+    default int lowerBound(long epochMicros) {
+        HistoryRecord probe = new HistoryRecord();
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            read(mid, probe);
+            if (probe.epochMicros < epochMicros) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Opaque position of the newest record in a persistent store (what a snapshot saves to
+     * reattach the history on restart), or -1 if the history lives only in memory.
+     */
+    long tailPointer();
+}
@@ -0,0 +1,32 @@
+/**
+ * Outcome of a deposit, withdrawal or transfer (see Account). The domain returns one of these
+ * preallocated constants instead of printing, so a failure costs no String; callers word the
+ * message for their own console or protocol.
+ *
+ * Notes:
+ * - reason completes "... failed — " for the interactive console; OVER_TRANSACTION_LIMIT is
+ *   worded differently there (see BankSession).
+ * - The declaration order is the wire encoding of a rejection (BankProtocol.reasonCode()): add
+ *   new results at the end.
+ * - Only INSUFFICIENT_FUNDS is journaled and left in history (as a rejected attempt); every
+ *   other failure is refused before anything is applied.
+ */
+enum TransactionResult {
+    OK("completed"),
+    /** The amount is missing, zero or negative. */
+    NON_POSITIVE("amount must be greater than zero"),
+    /** The amount is above Money.MAX_TRANSACTION_CENTS. */
+    OVER_TRANSACTION_LIMIT("amount exceeds allowed single-transaction limit"),
+    /** The credited balance would pass Account.MAX_BALANCE_CENTS. */
+    OVER_BALANCE_LIMIT("balance limit reached"),
+    INSUFFICIENT_FUNDS("insufficient funds"),
+    SAME_ACCOUNT("source and destination are the same account"),
+    /** The account was migrated to another cluster node (see Account.migrateOut). */
+    MOVED("account moved to another node");
+
+    final String reason;
+
+    TransactionResult(String reason) {
+        this.reason = reason;
+    }
+}
@@ -0,0 +1,577 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log for account mutations, backed by a single FileChannel.
+ *
+ * Record layout (big-endian):
+ *   int length | int crc32(body) | body
+ *   body = long lsn | byte type | long epochMillis | type-specific fields
+ *
+ * Group commit: appenders only encode into an in-memory buffer. The first thread that needs
+ * durability becomes the leader, swaps the buffer out and writes/forces it while holding no
+ * lock; everybody that appended in the meantime is covered by the leader's next round, so
+ * many concurrent mutations share one fsync.
+ *
+ * Fsync policies:
+ * - ALWAYS: every acknowledgement waits for an fsync (shared via group commit).
+ * - BATCH : a background flusher forces every intervalMillis or once batchSize records are
+ *           pending; acknowledgements wait for that flush.
+ * - NONE  : records are written to the OS page cache but never forced.
+ *
+ * Notes:
+ * - Waiting uses a ReentrantLock and Condition rather than a monitor, so a virtual thread
+ *   blocked in awaitDurable() unmounts instead of pinning its carrier (see BankSession).
+ * - The file itself is the replication stream: LogShipper copies its durable bytes to
+ *   replicas (awaitDurableEnd()), which append them to their own log and apply them with
+ *   decodeRecords(), so a promoted replica simply opens its copy as the log.
+ * - A failed write or fsync is final: the batch it held is lost, so no later record may be
+ *   written past the gap. Every waiter and every later append gets the failure, the flusher
+ *   stops, and close() reports it.
+ */
+final class WriteAheadLog implements AccountJournal, Closeable {
+    enum FsyncPolicy { ALWAYS, BATCH, NONE }
+
+    /** Receives every valid record during replay, in log order. */
+    interface Visitor {
+        void onCreate(long lsn, long epochMillis, String accountNumber, String holderName, byte[] pinHash, long initialCents);
+
+        void onDeposit(long lsn, long epochMillis, String accountNumber, long cents, long balanceAfter);
+
+        void onWithdraw(long lsn, long epochMillis, String accountNumber, long cents, long balanceAfter, boolean rejected);
+
+        void onTransfer(long lsn, long epochMillis, String fromAccount, String toAccount, long cents,
+                        long fromBalanceAfter, long toBalanceAfter, boolean rejected);
+
+        void onMigrateOut(long lsn, long epochMillis, String accountNumber);
+
+        void onMigrateIn(long lsn, long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                         long balanceCents);
+    }
+
+    static final byte TYPE_CREATE = 1;
+    static final byte TYPE_DEPOSIT = 2;
+    static final byte TYPE_WITHDRAW = 3;
+    static final byte TYPE_WITHDRAW_REJECTED = 4;
+    static final byte TYPE_TRANSFER = 5;
+    static final byte TYPE_TRANSFER_REJECTED = 6;
+    static final byte TYPE_MIGRATE_OUT = 7;
+    static final byte TYPE_MIGRATE_IN = 8;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final int PIN_HASH_BYTES = 32;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final long batchIntervalMillis;
+    private final int batchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition(); // durableLsn, flushing, closed or pending count moved
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+
+    // guarded by lock
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long appendedLsn;
+    private long appendedEnd; // file offset just past the newest appended record
+    private long durableLsn;
+    private long durableEnd; // file offset just past the newest durable record
+    private int recordStart;
+    private boolean flushing;
+    private boolean closed;
+    private IOException failure;
+
+    private WriteAheadLog(Path path, FileChannel channel, long endOffset, long lastLsn, FsyncPolicy policy,
+                          long batchIntervalMillis, int batchSize) {
+        this.path = path;
+        this.channel = channel;
+        this.policy = policy;
+        this.batchIntervalMillis = Math.max(1L, batchIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.appendedLsn = lastLsn;
+        this.appendedEnd = endOffset;
+        this.durableLsn = lastLsn;
+        this.durableEnd = endOffset;
+        if (policy == FsyncPolicy.BATCH) {
+            flusher = new Thread(this::runFlusher, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Opens (or creates) the log at {@code path}, replaying every valid record into
+     * {@code visitor} first. A torn or corrupt tail left by a crash is truncated away.
+     */
+    static WriteAheadLog open(Path path, FsyncPolicy policy, long batchIntervalMillis, int batchSize,
+                              Visitor visitor) throws IOException {
+        return open(path, policy, batchIntervalMillis, batchSize, 0L, 0L, visitor);
+    }
+
+    /**
+     * Like open(), but replay starts at {@code startOffset}, the position mark() returned when a
+     * snapshot was taken, whose last record had {@code startLsn}.
+     */
+    static WriteAheadLog open(Path path, FsyncPolicy policy, long batchIntervalMillis, int batchSize,
+                              long startOffset, long startLsn, Visitor visitor) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < startOffset) {
+                throw new IOException("Write-ahead log " + path + " is shorter than the snapshot expects");
+            }
+            long[] end = replay(channel, startOffset, startLsn, visitor);
+            if (end[0] < channel.size()) channel.truncate(end[0]);
+            channel.position(end[0]);
+            return new WriteAheadLog(path, channel, end[0], end[1], policy, batchIntervalMillis, batchSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Returns {validEndOffset, lastLsn}. */
+    private static long[] replay(FileChannel channel, long startOffset, long startLsn, Visitor visitor)
+            throws IOException {
+        long offset = startOffset;
+        long lastLsn = startLsn;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        ByteBuffer body = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        CRC32 check = new CRC32();
+        while (offset + HEADER_BYTES <= size) {
+            header.clear();
+            if (!readFully(channel, header, offset)) break;
+            int length = header.getInt(0);
+            int expectedCrc = header.getInt(4);
+            if (length <= 0 || offset + HEADER_BYTES + length > size) break;
+            if (body.capacity() < length) body = ByteBuffer.allocate(Math.max(length, body.capacity() * 2));
+            body.clear().limit(length);
+            if (!readFully(channel, body, offset + HEADER_BYTES)) break;
+            check.reset();
+            check.update(body.array(), 0, length);
+            if ((int) check.getValue() != expectedCrc) break;
+            body.flip();
+            if (offset == startOffset && startOffset > 0 && body.getLong(0) != startLsn + 1) {
+                throw new IOException("Write-ahead log does not continue at lsn " + (startLsn + 1) + " as the snapshot expects");
+            }
+            lastLsn = decode(body, visitor);
+            offset += HEADER_BYTES + length;
+        }
+        return new long[] {offset, lastLsn};
+    }
+
+    /**
+     * Applies every complete record in {@code records} (position to limit) to {@code visitor},
+     * leaving the position at the first incomplete one; returns the newest LSN applied, or
+     * {@code lastLsn} if none. Used by replicas on shipped log bytes, which are never torn.
+     *
+     * @throws IOException if a record is corrupt or does not continue at lastLsn + 1
+     */
+    static long decodeRecords(ByteBuffer records, long lastLsn, Visitor visitor) throws IOException {
+        CRC32 check = new CRC32();
+        while (records.remaining() >= HEADER_BYTES) {
+            int start = records.position();
+            int length = records.getInt(start);
+            if (length <= 0) throw new IOException("Corrupt shipped record length " + length + " after lsn " + lastLsn);
+            if (records.remaining() < HEADER_BYTES + length) break;
+            int bodyStart = records.arrayOffset() + start + HEADER_BYTES;
+            check.reset();
+            check.update(records.array(), bodyStart, length);
+            if ((int) check.getValue() != records.getInt(start + 4)) {
+                throw new IOException("Corrupt shipped record after lsn " + lastLsn);
+            }
+            ByteBuffer body = ByteBuffer.wrap(records.array(), bodyStart, length).slice();
+            if (body.getLong(0) != lastLsn + 1) {
+                throw new IOException("Shipped log does not continue at lsn " + (lastLsn + 1) + " (got " + body.getLong(0) + ")");
+            }
+            lastLsn = decode(body, visitor);
+            records.position(start + HEADER_BYTES + length);
+        }
+        return lastLsn;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + dst.position());
+            if (n < 0) return false;
+        }
+        return true;
+    }
+
+    private static long decode(ByteBuffer body, Visitor visitor) {
+        long lsn = body.getLong();
+        byte type = body.get();
+        long ts = body.getLong();
+        String accountNumber = getString(body);
+        switch (type) {
+            case TYPE_CREATE, TYPE_MIGRATE_IN -> {
+                String holder = getString(body);
+                byte[] pinHash = new byte[PIN_HASH_BYTES];
+                body.get(pinHash);
+                if (type == TYPE_CREATE) visitor.onCreate(lsn, ts, accountNumber, holder, pinHash, body.getLong());
+                else visitor.onMigrateIn(lsn, ts, accountNumber, holder, pinHash, body.getLong());
+            }
+            case TYPE_MIGRATE_OUT -> visitor.onMigrateOut(lsn, ts, accountNumber);
+            case TYPE_DEPOSIT -> visitor.onDeposit(lsn, ts, accountNumber, body.getLong(), body.getLong());
+            case TYPE_WITHDRAW, TYPE_WITHDRAW_REJECTED ->
+                    visitor.onWithdraw(lsn, ts, accountNumber, body.getLong(), body.getLong(), type == TYPE_WITHDRAW_REJECTED);
+            case TYPE_TRANSFER, TYPE_TRANSFER_REJECTED -> {
+                String toAccount = getString(body);
+                visitor.onTransfer(lsn, ts, accountNumber, toAccount, body.getLong(), body.getLong(), body.getLong(),
+                        type == TYPE_TRANSFER_REJECTED);
+            }
+            default -> throw new IllegalStateException("Unknown WAL record type " + type + " at lsn " + lsn);
+        }
+        return lsn;
+    }
+
+    private static String getString(ByteBuffer body) {
+        int len = body.getShort() & 0xFFFF;
+        String s = new String(body.array(), body.arrayOffset() + body.position(), len, StandardCharsets.UTF_8);
+        body.position(body.position() + len);
+        return s;
+    }
+
+    // -----------------------
+    // Appending
+    // -----------------------
+
+    @Override
+    public long logCreate(long epochMillis, String accountNumber, String holderName, byte[] pinHash, long initialCents) {
+        return logAccount(TYPE_CREATE, epochMillis, accountNumber, holderName, pinHash, initialCents);
+    }
+
+    @Override
+    public long logMigrateIn(long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                             long balanceCents) {
+        return logAccount(TYPE_MIGRATE_IN, epochMillis, accountNumber, holderName, pinHash, balanceCents);
+    }
+
+    @Override
+    public long logMigrateOut(long epochMillis, String accountNumber) {
+        byte[] acc = accountNumber.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buf = begin(2 + acc.length);
+            long lsn = putPrefix(buf, TYPE_MIGRATE_OUT, epochMillis, acc);
+            return end(buf, lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long logAccount(byte type, long epochMillis, String accountNumber, String holderName, byte[] pinHash,
+                            long cents) {
+        byte[] acc = accountNumber.getBytes(StandardCharsets.UTF_8);
+        byte[] holder = holderName.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buf = begin(2 + acc.length + 2 + holder.length + PIN_HASH_BYTES + 8);
+            long lsn = putPrefix(buf, type, epochMillis, acc);
+            putString(buf, holder);
+            buf.put(pinHash, 0, PIN_HASH_BYTES);
+            buf.putLong(cents);
+            return end(buf, lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long logDeposit(long epochMillis, String accountNumber, long cents, long balanceAfter) {
+        return logAmount(TYPE_DEPOSIT, epochMillis, accountNumber, cents, balanceAfter);
+    }
+
+    @Override
+    public long logWithdraw(long epochMillis, String accountNumber, long cents, long balanceAfter, boolean rejected) {
+        return logAmount(rejected ? TYPE_WITHDRAW_REJECTED : TYPE_WITHDRAW, epochMillis, accountNumber, cents, balanceAfter);
+    }
+
+    @Override
+    public long logTransfer(long epochMillis, String fromAccount, String toAccount, long cents, long fromBalanceAfter,
+                            long toBalanceAfter, boolean rejected) {
+        byte[] from = fromAccount.getBytes(StandardCharsets.UTF_8);
+        byte[] to = toAccount.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buf = begin(2 + from.length + 2 + to.length + 24);
+            long lsn = putPrefix(buf, rejected ? TYPE_TRANSFER_REJECTED : TYPE_TRANSFER, epochMillis, from);
+            putString(buf, to);
+            buf.putLong(cents);
+            buf.putLong(fromBalanceAfter);
+            buf.putLong(toBalanceAfter);
+            return end(buf, lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long logAmount(byte type, long epochMillis, String accountNumber, long cents, long balanceAfter) {
+        byte[] acc = accountNumber.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buf = begin(2 + acc.length + 16);
+            long lsn = putPrefix(buf, type, epochMillis, acc);
+            buf.putLong(cents);
+            buf.putLong(balanceAfter);
+            return end(buf, lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reserves room for a record whose type-specific part is {@code payloadBytes} long. */
+    private ByteBuffer begin(int payloadBytes) {
+        if (closed) throw new IllegalStateException("Write-ahead log is closed");
+        if (failure != null) throw new UncheckedIOException("Write-ahead log failed: " + path, failure);
+        int needed = HEADER_BYTES + 17 + payloadBytes;
+        if (active.remaining() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + needed));
+            active.flip();
+            bigger.put(active);
+            active = bigger;
+        }
+        recordStart = active.position();
+        active.position(recordStart + HEADER_BYTES);
+        return active;
+    }
+
+    private long putPrefix(ByteBuffer buf, byte type, long epochMillis, byte[] accountNumber) {
+        long lsn = appendedLsn + 1;
+        buf.putLong(lsn);
+        buf.put(type);
+        buf.putLong(epochMillis);
+        putString(buf, accountNumber);
+        return lsn;
+    }
+
+    private static void putString(ByteBuffer buf, byte[] utf8) {
+        if (utf8.length > 0xFFFF) throw new IllegalArgumentException("String too long for WAL record");
+        buf.putShort((short) utf8.length);
+        buf.put(utf8);
+    }
+
+    private long end(ByteBuffer buf, long lsn) {
+        int bodyStart = recordStart + HEADER_BYTES;
+        int length = buf.position() - bodyStart;
+        crc.reset();
+        crc.update(buf.array(), bodyStart, length);
+        buf.putInt(bodyStart - HEADER_BYTES, length);
+        buf.putInt(bodyStart - HEADER_BYTES + 4, (int) crc.getValue());
+        appendedLsn = lsn;
+        appendedEnd += HEADER_BYTES + length;
+        if (policy == FsyncPolicy.BATCH && appendedLsn - durableLsn >= batchSize) changed.signalAll();
+        return lsn;
+    }
+
+    // -----------------------
+    // Group commit
+    // -----------------------
+
+    @Override
+    public void awaitDurable(long lsn) {
+        while (true) {
+            ByteBuffer batch;
+            long target;
+            long targetEnd;
+            lock.lock();
+            try {
+                while (true) {
+                    // Failure first: once a batch is lost, nothing after it counts as durable.
+                    if (failure != null) throw new UncheckedIOException("Write-ahead log failed: " + path, failure);
+                    if (durableLsn >= lsn) return;
+                    if (!flushing && policy != FsyncPolicy.BATCH) break; // become the leader
+                    waitQuietly();
+                }
+                target = appendedLsn;
+                targetEnd = appendedEnd;
+                batch = takeBatch();
+            } finally {
+                lock.unlock();
+            }
+            writeBatch(batch, target, targetEnd);
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            ByteBuffer batch;
+            long target;
+            long targetEnd;
+            lock.lock();
+            try {
+                if (!closed) {
+                    try {
+                        // Appenders only signal once batchSize is reached; otherwise poll every interval.
+                        changed.await(batchIntervalMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (failure != null) return; // records after the lost batch must never reach the file
+                if (flushing) {
+                    if (closed) waitQuietly();
+                    continue;
+                }
+                if (appendedLsn == durableLsn) {
+                    if (closed) return;
+                    continue;
+                }
+                target = appendedLsn;
+                targetEnd = appendedEnd;
+                batch = takeBatch();
+            } finally {
+                lock.unlock();
+            }
+            writeBatch(batch, target, targetEnd);
+        }
+    }
+
+    /** Caller holds lock and has checked that no flush is in flight. */
+    private ByteBuffer takeBatch() {
+        flushing = true;
+        ByteBuffer batch = active;
+        active = spare;
+        spare = null;
+        batch.flip();
+        return batch;
+    }
+
+    private void writeBatch(ByteBuffer batch, long target, long targetEnd) {
+        IOException error = null;
+        try {
+            while (batch.hasRemaining()) channel.write(batch);
+            if (policy != FsyncPolicy.NONE) channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        lock.lock();
+        try {
+            flushing = false;
+            batch.clear();
+            spare = batch;
+            if (error != null) failure = error;
+            else {
+                durableLsn = target;
+                durableEnd = targetEnd;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void waitQuietly() {
+        try {
+            changed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+        }
+    }
+
+    /** Returns {endOffset, lastLsn} of the newest appended record, read atomically. */
+    long[] mark() {
+        lock.lock();
+        try {
+            return new long[] {appendedEnd, appendedLsn};
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} until records past file offset {@code offset} are
+     * durable (or the log closes); returns {durableEnd, durableLsn}, both as of the return.
+     */
+    long[] awaitDurableEnd(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            long left;
+            while (durableEnd <= offset && !closed && (left = deadline - System.nanoTime()) > 0) {
+                changed.awaitNanos(left);
+            }
+            return new long[] {durableEnd, durableLsn};
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long lastLsn() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long last;
+        boolean failed;
+        lock.lock();
+        try {
+            if (closed) return;
+            last = appendedLsn;
+            failed = failure != null;
+        } finally {
+            lock.unlock();
+        }
+        if (policy != FsyncPolicy.BATCH && !failed) {
+            try {
+                awaitDurable(last);
+            } catch (UncheckedIOException e) {
+                // the final flush failed; close below and report it
+            }
+        }
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        IOException error;
+        lock.lock();
+        try {
+            error = failure;
+        } finally {
+            lock.unlock();
+        }
+        if (error != null) {
+            channel.close();
+            throw new IOException("Write-ahead log failed: " + path, error);
+        }
+        channel.force(false);
+        channel.close();
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Micro-benchmarks for the Account hot paths: deposit (plain and striped), withdraw, hashPin, verifyPin (against
+ * a raw reused SHA-256 digest as the floor), formatMoney (Money.format, and Money.appendTo into a reused builder
+ * as the history and session output use it), renderEntry/printEntry (history text), addTransaction (history
+ * append) and latencyTimer (the LatencyHistogram start/stop every operation pays, at the default sample period),
+ * each single-threaded and contended on one shared account at 1, 4 and 16 threads.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out AccountBenchmarks [name-filter]
+ * Tune with -Dbench.warmupMillis / -Dbench.measureMillis. Baseline numbers: bench/BASELINE.md.
+ */
+public class AccountBenchmarks {
+    private static final int[] THREADS = {1, 4, 16};
+
+    /**
+     * History store that overwrites a fixed ring of records, so append cost is measured
+     * without the account's history growing without bound during a run.
+     */
+    private static final HistoryStore RING = new HistoryStore() {
+        @Override
+        public TransactionHistory newHistory(String accountNumber) {
+            return new TransactionHistory() {
+                private final ByteBuffer records = ByteBuffer.allocate(4096 * HistoryRecord.BYTES);
+                private int size;
+
+                @Override
+                public void append(long epochMicros, byte type, long amountCents, long balanceCents, String counterparty) {
+                    HistoryRecord.write(records, (size++ & 4095) * HistoryRecord.BYTES, epochMicros, type, amountCents,
+                            balanceCents, counterparty);
+                }
+
+                @Override
+                public int size() {
+                    return Math.min(size, 4096);
+                }
+
+                @Override
+                public void read(int index, HistoryRecord into) {
+                    into.readFrom(records, index * HistoryRecord.BYTES);
+                }
+
+                @Override
+                public long tailPointer() {
+                    return -1L;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        Bench.header();
+
+        bench(filter, "deposit", shared(() -> newAccount(0L)), a -> i -> a.depositCents(1L) == TransactionResult.OK ? 1L : 0L);
+        bench(filter, "deposit(striped)", shared(() -> {
+            Account a = newAccount(0L);
+            a.enableStripedDeposits();
+            return a;
+        }), a -> i -> a.depositCents(1L) == TransactionResult.OK ? 1L : 0L);
+        bench(filter, "withdraw", shared(() -> newAccount(Money.MAX_TRANSACTION_CENTS)),
+                a -> i -> a.withdrawCents(1L) == TransactionResult.OK ? 1L : 0L);
+        bench(filter, "hashPin", shared(() -> newAccount(0L)), a -> i -> Account.hashPin("123456").length);
+        bench(filter, "sha256(raw)", shared(() -> newAccount(0L)), a -> {
+            java.security.MessageDigest md;
+            try {
+                md = java.security.MessageDigest.getInstance("SHA-256");
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] pin = {'1', '2', '3', '4', '5', '6'};
+            byte[] out = new byte[32];
+            return i -> {
+                md.update(pin);
+                try {
+                    return md.digest(out, 0, 32);
+                } catch (java.security.DigestException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        });
+        bench(filter, "verifyPin", shared(() -> newAccount(0L)), a -> i -> a.verifyPin("123456") ? 1L : 0L);
+        bench(filter, "formatMoney(appendTo)", shared(() -> newAccount(0L)), a -> {
+            StringBuilder sb = new StringBuilder(32);
+            return i -> {
+                sb.setLength(0);
+                return Money.appendTo(sb, 123456789L + i).length();
+            };
+        });
+        bench(filter, "formatMoney(cents)", shared(() -> newAccount(0L)), a -> i -> Money.format(123456789L + i).length());
+        bench(filter, "renderEntry", shared(() -> newAccount(0L)), a -> {
+            HistoryRecord r = new HistoryRecord();
+            r.type = HistoryRecord.DEPOSIT;
+            return i -> {
+                r.epochMicros = 1_700_000_000_000_000L + i * 1000L; // a new second every 1000 entries
+                r.amountCents = i;
+                r.balanceCents = 123456789L + i;
+                return HistoryFormatter.get().render(r).length();
+            };
+        });
+        bench(filter, "printEntry", shared(() -> newAccount(0L)), a -> {
+            HistoryRecord r = new HistoryRecord();
+            r.type = HistoryRecord.DEPOSIT;
+            OutputSink out = new BufferedOutputSink(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+            return i -> {
+                r.epochMicros = 1_700_000_000_000_000L + i * 1000L;
+                r.amountCents = i;
+                r.balanceCents = 123456789L + i;
+                HistoryFormatter.get().println(out, r);
+                return i;
+            };
+        });
+        bench(filter, "latencyTimer", shared(() -> newAccount(0L)), a -> {
+            LatencyHistogram histogram = BankMetrics.DEPOSIT;
+            return i -> {
+                long timer = histogram.start();
+                histogram.stop(timer);
+                return timer;
+            };
+        });
+        bench(filter, "addTransaction", shared(() -> newAccount(0L)), a -> {
+            TransactionHistory history = RING.newHistory("bench");
+            ReentrantLock lock = new ReentrantLock();
+            return i -> {
+                // addTransaction always runs under the account lock, so contend on one too.
+                lock.lock();
+                try {
+                    history.append(i, HistoryRecord.DEPOSIT, i, i, null);
+                } finally {
+                    lock.unlock();
+                }
+                return i;
+            };
+        });
+    }
+
+    private interface PerThread {
+        Bench.Op op(Account shared);
+    }
+
+    private static void bench(String filter, String name, IntFunction<Account> accounts, PerThread perThread) {
+        if (!name.contains(filter)) return;
+        for (int threads : THREADS) {
+            Bench.run(name, threads, t -> perThread.op(accounts.apply(t)));
+        }
+    }
+
+    /** Thread 0 creates a fresh account for each phase; the other threads share it. */
+    private static IntFunction<Account> shared(java.util.function.Supplier<Account> factory) {
+        Account[] current = new Account[1];
+        return t -> {
+            if (t == 0) current[0] = factory.get();
+            return current[0];
+        };
+    }
+
+    private static Account newAccount(long initialCents) {
+        return new Account("BENCH", "Bench", Money.toBigDecimal(initialCents), "123456", AccountJournal.NONE, RING);
+    }
+}
@@ -0,0 +1,84 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Memory per account of the object graph (Account objects in a ConcurrentAccountRegistry)
+ * against {@link OffHeapAccountTable}, with no history in either, plus a single-threaded
+ * lookup + deposit rate for both. Projects both footprints to 50M accounts.
+ *
+ * Heap is measured as used heap after repeated System.gc() calls, direct memory from the
+ * "direct" buffer pool, so give the run room for the object graph:
+ *
+ * Run: javac -d out *.java bench/*.java && java -Xmx4g -cp out AccountFootprint [accounts]
+ */
+public class AccountFootprint {
+    private static final long PROJECTED_ACCOUNTS = 50_000_000L;
+    private static final int LOOKUPS = 5_000_000;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] numbers = new String[n];
+        for (int i = 0; i < n; i++) numbers[i] = "ACC" + i;
+        byte[] pinHash = Account.hashPin("1234");
+        System.out.printf("accounts=%d (numbers and their Strings are excluded from both)%n", n);
+        System.out.printf("%-16s %12s %12s %12s %10s %14s %10s%n", "store", "heap B/acct", "direct B/acct",
+                "total B/acct", "build ms", "lookup+dep/s", "50M GB");
+
+        long heap0 = usedHeap();
+        long direct0 = usedDirect();
+        long t0 = System.nanoTime();
+        AccountRegistry registry = new ConcurrentAccountRegistry(n);
+        for (int i = 0; i < n; i++) {
+            registry.putIfAbsent(Account.restore(i + 1L, 0L, numbers[i], "Holder", pinHash, 0L, HistoryStore.HEAP));
+        }
+        long buildNanos = System.nanoTime() - t0;
+        report("object graph", n, usedHeap() - heap0, usedDirect() - direct0, buildNanos, lookups(numbers, registry));
+        registry = null;
+
+        heap0 = usedHeap();
+        direct0 = usedDirect();
+        t0 = System.nanoTime();
+        OffHeapAccountTable table = new OffHeapAccountTable();
+        for (int i = 0; i < n; i++) table.create(numbers[i], pinHash, 0L);
+        buildNanos = System.nanoTime() - t0;
+        report("off-heap table", n, usedHeap() - heap0, usedDirect() - direct0, buildNanos, lookups(numbers, table));
+        System.out.printf("off-heap table reports %d direct byte(s) for %d account(s)%n", table.offHeapBytes(), table.size());
+    }
+
+    private static double lookups(String[] numbers, AccountRegistry registry) {
+        long t0 = System.nanoTime();
+        for (int i = 0, x = 1; i < LOOKUPS; i++) {
+            x = x * 1103515245 + 12345;
+            registry.get(numbers[(x >>> 1) % numbers.length]).depositCents(1);
+        }
+        return LOOKUPS * 1e9 / (System.nanoTime() - t0);
+    }
+
+    private static double lookups(String[] numbers, OffHeapAccountTable table) {
+        long t0 = System.nanoTime();
+        for (int i = 0, x = 1; i < LOOKUPS; i++) {
+            x = x * 1103515245 + 12345;
+            table.deposit(table.find(numbers[(x >>> 1) % numbers.length]), 1);
+        }
+        return LOOKUPS * 1e9 / (System.nanoTime() - t0);
+    }
+
+    private static void report(String store, int n, long heapBytes, long directBytes, long buildNanos, double rate) {
+        double heap = (double) heapBytes / n;
+        double direct = (double) directBytes / n;
+        System.out.printf("%-16s %12.1f %12.1f %12.1f %10d %14.0f %10.1f%n", store, heap, direct, heap + direct,
+                buildNanos / 1_000_000L, rate, (heap + direct) * PROJECTED_ACCOUNTS / 1e9);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,121 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Minimal dependency-free micro-benchmark harness (the repo has no build file, so JMH is not
+ * an option). Each benchmark runs a warmup phase and a measurement phase at a given thread
+ * count and reports:
+ * - throughput (ops/s, all threads) and average latency (ns/op per thread),
+ * - allocation per operation and allocation rate, from per-thread allocated-byte counters,
+ * - GC count and time during measurement (the "GC profiler" view).
+ *
+ * Results are folded into a static sink so the JIT cannot eliminate the measured work.
+ */
+final class Bench {
+    /** One invocation of the measured code; the returned value is consumed by the harness. */
+    @FunctionalInterface
+    interface Op {
+        long invoke(long i);
+    }
+
+    static long warmupMillis = Long.getLong("bench.warmupMillis", 1_000L);
+    static long measureMillis = Long.getLong("bench.measureMillis", 1_000L);
+
+    private static final int BATCH = 256;
+    private static volatile long sink;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Bench() {
+    }
+
+    static void header() {
+        System.out.printf("%-28s %7s %14s %10s %10s %10s %6s %8s%n",
+                "benchmark", "threads", "ops/s", "ns/op", "B/op", "MB/s", "gc", "gc-ms");
+    }
+
+    /**
+     * Runs {@code opFactory.apply(threadIndex)} on {@code threads} threads. The factory is
+     * called once per thread per phase, so it can set up fresh per-thread state.
+     */
+    static void run(String name, int threads, IntFunction<Op> opFactory) {
+        phase(threads, opFactory, warmupMillis);
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long[] result = phase(threads, opFactory, measureMillis);
+        long ops = result[0];
+        long allocated = result[1];
+        double seconds = result[2] / 1e9;
+        System.out.printf("%-28s %7d %14.0f %10.1f %10.1f %10.1f %6d %8d%n", name, threads, ops / seconds,
+                result[3] / (double) ops, allocated / (double) ops, allocated / seconds / (1 << 20),
+                gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /** Returns {ops, allocatedBytes, wallNanos, busyNanosSummedOverThreads}. */
+    private static long[] phase(int threads, IntFunction<Op> opFactory, long millis) {
+        Op[] ops = new Op[threads];
+        for (int t = 0; t < threads; t++) ops[t] = opFactory.apply(t);
+        AtomicLong totalOps = new AtomicLong();
+        AtomicLong totalBytes = new AtomicLong();
+        AtomicLong totalBusy = new AtomicLong();
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Op op = ops[t];
+            workers[t] = new Thread(() -> {
+                await(barrier);
+                long end = deadline[0];
+                long bytes0 = THREADS.getCurrentThreadAllocatedBytes();
+                long t0 = System.nanoTime();
+                long count = 0;
+                long acc = 0;
+                do {
+                    for (int i = 0; i < BATCH; i++) acc += op.invoke(count + i);
+                    count += BATCH;
+                } while (System.nanoTime() < end);
+                long busy = System.nanoTime() - t0;
+                totalBytes.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - bytes0);
+                totalOps.addAndGet(count);
+                totalBusy.addAndGet(busy);
+                sink += acc;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        deadline[0] = System.nanoTime() + millis * 1_000_000L;
+        long start = System.nanoTime();
+        await(barrier);
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return new long[] {totalOps.get(), totalBytes.get(), System.nanoTime() - start, totalBusy.get()};
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+}
@@ -0,0 +1,88 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Index cost of {@link CompactAccountRegistry} against {@link ConcurrentAccountRegistry}: heap
+ * bytes per account taken by the registry itself (the Account objects and their number Strings
+ * exist in both and are built beforehand), single-threaded lookup latency on random hits and
+ * misses, and the time to scan one branch prefix.
+ *
+ * Account numbers are branch-prefixed, "BBB" + 7 digits over BRANCHES branches, as a bank
+ * would issue them. Each lookup decodes its number into a new String first, as BankServer
+ * does for every request, so neither registry gets a cached hash code or an identical key.
+ *
+ * Run: javac -d out *.java bench/*.java && java -Xmx4g -cp out IndexBenchmark [accounts]
+ */
+public class IndexBenchmark {
+    private static final int BRANCHES = 100;
+    private static final int LOOKUPS = 10_000_000;
+    private static final int SCANS = 20;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Account[] accounts = new Account[n];
+        byte[] pinHash = Account.hashPin("1234");
+        for (int i = 0; i < n; i++) {
+            accounts[i] = Account.restore(i + 1L, 0L, number(i), "Holder", pinHash, 0L, HistoryStore.HEAP);
+        }
+        System.out.printf("accounts=%d branches=%d%n", n, BRANCHES);
+        System.out.printf("%-26s %12s %10s %12s %12s %14s%n", "registry", "heap B/acct", "build ms", "hit ns/op",
+                "miss ns/op", "branch scan ms");
+        run("ConcurrentAccountRegistry", () -> new ConcurrentAccountRegistry(n), accounts);
+        run("CompactAccountRegistry", () -> new CompactAccountRegistry(n), accounts);
+    }
+
+    private static String number(int i) {
+        return String.format("%03d%07d", i % BRANCHES, i);
+    }
+
+    private static void run(String name, Supplier<AccountRegistry> factory, Account[] accounts) {
+        long heap0 = usedHeap();
+        long t0 = System.nanoTime();
+        AccountRegistry registry = factory.get();
+        for (Account account : accounts) registry.putIfAbsent(account);
+        long buildNanos = System.nanoTime() - t0;
+        double bytes = (double) (usedHeap() - heap0) / accounts.length;
+
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            lookups(registry, accounts.length, false);
+            lookups(registry, accounts.length, true);
+        }
+        double hitNanos = lookups(registry, accounts.length, false);
+        double missNanos = lookups(registry, accounts.length, true);
+
+        long[] found = new long[1];
+        registry.forEachWithPrefix("042", account -> found[0]++); // builds the compact prefix index
+        t0 = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) registry.forEachWithPrefix(String.format("%03d", i * 7 % BRANCHES), account -> found[0]++);
+        double scanMillis = (System.nanoTime() - t0) / 1e6 / SCANS;
+        System.out.printf("%-26s %12.1f %10d %12.1f %12.1f %14.2f%n", name, bytes, buildNanos / 1_000_000L, hitNanos,
+                missNanos, scanMillis);
+    }
+
+    private static double lookups(AccountRegistry registry, int accounts, boolean miss) {
+        byte[] request = new byte[11];
+        request[10] = 'X'; // misses: a character past every real number
+        long t0 = System.nanoTime();
+        long found = 0;
+        for (int i = 0, x = 1; i < LOOKUPS; i++) {
+            x = x * 1103515245 + 12345;
+            int account = (x >>> 1) % accounts;
+            int branch = account % BRANCHES;
+            request[0] = (byte) ('0' + branch / 100);
+            request[1] = (byte) ('0' + branch / 10 % 10);
+            request[2] = (byte) ('0' + branch % 10);
+            for (int d = 9, v = account; d >= 3; d--, v /= 10) request[d] = (byte) ('0' + v % 10);
+            String number = new String(request, 0, miss ? 11 : 10, StandardCharsets.US_ASCII);
+            if (registry.get(number) != null) found++;
+        }
+        if (found < 0) System.out.println(found); // keeps the loop from being optimized away
+        return (System.nanoTime() - t0) / (double) LOOKUPS;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
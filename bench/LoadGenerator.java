@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Closed-loop load generator for {@link BankServer}: opens many connections, authenticates
+ * each one, then keeps {@code pipeline} requests in flight per connection (alternating
+ * DEPOSIT of one cent and BALANCE) and reports throughput and p50/p90/p99/p99.9 latency.
+ *
+ * Without a host:port an in-process server is started on an ephemeral port with accounts
+ * LOAD0..LOAD{n-1} (PIN 1234). Against a remote server, create those accounts first:
+ *   java -cp out LoadGenerator setup 1000 > load.txt
+ *   java -cp out BankApp --wal bank.wal --batch load.txt
+ *   java -cp out BankApp --wal bank.wal --fsync batch --server 7000
+ *
+ * Run: javac -d out *.java bench/*.java
+ *      java -cp out LoadGenerator [connections] [pipeline] [threads] [millis] [host:port]
+ *
+ * Notes:
+ * - Each load thread writes a burst to all of its connections, then reads the replies in the
+ *   same order; latency is stamped when a reply is decoded, so it is an upper bound that
+ *   includes time the reply spent queued behind earlier connections of the same thread.
+ */
+public class LoadGenerator {
+    private static final int MAX_ACCOUNTS = 1000;
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 21;
+    private static final String PIN = "1234";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("setup")) {
+            int n = args.length > 1 ? Integer.parseInt(args[1]) : MAX_ACCOUNTS;
+            for (int i = 0; i < n; i++) System.out.println("CREATE LOAD" + i + " " + PIN + " 0 Load Test");
+            return;
+        }
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int pipeline = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long millis = args.length > 3 ? Long.parseLong(args[3]) : 5_000;
+        int accounts = Math.min(connections, MAX_ACCOUNTS);
+
+        BankServer local = null;
+        InetSocketAddress address;
+        if (args.length > 4) {
+            int colon = args[4].lastIndexOf(':');
+            address = new InetSocketAddress(args[4].substring(0, colon), Integer.parseInt(args[4].substring(colon + 1)));
+        } else {
+            AccountRegistry registry = new ConcurrentAccountRegistry();
+            for (int i = 0; i < accounts; i++) {
+                registry.putIfAbsent(new Account("LOAD" + i, "Load Test", Money.toBigDecimal(0), PIN));
+            }
+            local = BankServer.start(registry, new InetSocketAddress("127.0.0.1", 0), Runtime.getRuntime().availableProcessors());
+            address = new InetSocketAddress("127.0.0.1", local.port());
+        }
+
+        System.out.printf("connections=%d pipeline=%d threads=%d millis=%d server=%s%n",
+                connections, pipeline, threads, millis, local != null ? "in-process" : address);
+        Worker[] workers = new Worker[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int first = t * connections / threads;
+            int last = (t + 1) * connections / threads;
+            workers[t] = new Worker(address, first, last, accounts, pipeline, ready, start);
+            workers[t].thread.start();
+        }
+        ready.await();
+        for (Worker w : workers) if (w.failure != null) throw w.failure;
+
+        long t0 = System.nanoTime();
+        long deadline = t0 + millis * 1_000_000L;
+        for (Worker w : workers) w.deadline = deadline;
+        start.countDown();
+        for (Worker w : workers) w.thread.join();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        if (local != null) local.close();
+        for (Worker w : workers) if (w.failure != null) throw w.failure;
+
+        long requests = 0;
+        long errors = 0;
+        int samples = 0;
+        for (Worker w : workers) {
+            requests += w.requests;
+            errors += w.errors;
+            samples += w.samples;
+        }
+        long[] all = new long[samples];
+        int at = 0;
+        for (Worker w : workers) {
+            System.arraycopy(w.latencies, 0, all, at, w.samples);
+            at += w.samples;
+        }
+        Arrays.sort(all);
+        System.out.printf("requests=%d errors=%d %.0f req/s%n", requests, errors, requests / seconds);
+        System.out.printf("latency us: p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 0.999),
+                all.length == 0 ? 0.0 : all[all.length - 1] / 1e3);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, (long) (p * sorted.length))] / 1e3;
+    }
+
+    private static final class Worker implements Runnable {
+        final Thread thread = new Thread(this, "load");
+        final InetSocketAddress address;
+        final int first;
+        final int last;
+        final int accounts;
+        final int pipeline;
+        final CountDownLatch ready;
+        final CountDownLatch start;
+        final long[] latencies = new long[MAX_SAMPLES_PER_THREAD];
+        volatile long deadline;
+        int samples;
+        long requests;
+        long errors;
+        Exception failure;
+
+        Worker(InetSocketAddress address, int first, int last, int accounts, int pipeline,
+               CountDownLatch ready, CountDownLatch start) {
+            thread.setDaemon(true);
+            this.address = address;
+            this.first = first;
+            this.last = last;
+            this.accounts = accounts;
+            this.pipeline = pipeline;
+            this.ready = ready;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            BankClient[] clients = new BankClient[last - first];
+            try {
+                try {
+                    for (int i = 0; i < clients.length; i++) {
+                        clients[i] = BankClient.connect(address);
+                        clients[i].sendAuth("LOAD" + ((first + i) % accounts), PIN);
+                        clients[i].flush();
+                    }
+                    for (BankClient c : clients) {
+                        if (c.readResponse() != BankProtocol.OK) throw new IOException("AUTH failed during setup");
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                    return;
+                } finally {
+                    ready.countDown();
+                }
+                start.await();
+                long[] sentAt = new long[clients.length];
+                long seq = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < clients.length; i++) {
+                        BankClient c = clients[i];
+                        for (int p = 0; p < pipeline; p++) {
+                            if ((seq++ & 1) == 0) c.sendDeposit(1);
+                            else c.sendBalance();
+                        }
+                        sentAt[i] = System.nanoTime();
+                        c.flush();
+                    }
+                    for (int i = 0; i < clients.length; i++) {
+                        for (int p = 0; p < pipeline; p++) {
+                            if (clients[i].readResponse() != BankProtocol.OK) errors++;
+                            long latency = System.nanoTime() - sentAt[i];
+                            if (samples < latencies.length) latencies[samples++] = latency;
+                            requests++;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                for (BankClient c : clients) {
+                    try {
+                        if (c != null) c.close();
+                    } catch (IOException ignored) {
+                        // Closing at the end of a run; nothing to report.
+                    }
+                }
+            }
+        }
+    }
+}
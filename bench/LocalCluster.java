@@ -0,0 +1,219 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end check of a {@link ClusterRouter} cluster on loopback: starts N BankApp node
+ * processes (--server 0 --cluster-node, each with its own WAL), routes through an in-process
+ * router, then adds one more node and checks the rebalance.
+ *
+ * Steps:
+ *   1. create K accounts through the router and deposit into each
+ *   2. keep a few connections authenticated, add node N+1 and check that about K/(N+1)
+ *      accounts moved, all onto the new node
+ *   3. check every account's balance and PIN through the router (the kept connections
+ *      included, which follow their account to its new node), and each node's LIST
+ *   4. restart every node from its WAL and check that the same accounts come back on the
+ *      same nodes with the same balances
+ * Fails (exit code 1) if any check does.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out LocalCluster [nodes] [accounts]
+ */
+public class LocalCluster {
+    private static final String PIN = "1234";
+    private static final int KEPT_CONNECTIONS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accountCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path dir = Files.createTempDirectory("cluster");
+        List<Process> processes = new ArrayList<>();
+        List<String> nodes = new ArrayList<>();
+        boolean ok = true;
+        try {
+            for (int i = 0; i <= nodeCount; i++) nodes.add(startNode(dir, i, processes));
+            String added = nodes.remove(nodeCount);
+
+            ClusterRouter router = ClusterRouter.start(new InetSocketAddress("127.0.0.1", 0), nodes);
+            InetSocketAddress routerAddress = new InetSocketAddress("127.0.0.1", router.port());
+            long t0 = System.nanoTime();
+            try (BankClient client = BankClient.connect(routerAddress)) {
+                for (int i = 0; i < accountCount; i++) client.sendCreate(number(i), PIN, "Holder " + i, 100_00L);
+                client.flush();
+                for (int i = 0; i < accountCount; i++) ok &= expect(client.readResponse(), "CREATE " + number(i));
+                for (int i = 0; i < accountCount; i++) {
+                    client.sendAuth(number(i), PIN);
+                    client.sendDeposit(i + 1);
+                }
+                client.flush();
+                for (int i = 0; i < 2 * accountCount; i++) ok &= expect(client.readResponse(), "AUTH/DEPOSIT");
+            }
+            System.out.printf("created and funded %d account(s) on %d node(s) in %d ms%n", accountCount, nodeCount,
+                    (System.nanoTime() - t0) / 1_000_000L);
+
+            List<BankClient> kept = new ArrayList<>();
+            for (int i = 0; i < KEPT_CONNECTIONS; i++) {
+                BankClient c = BankClient.connect(routerAddress);
+                c.sendAuth(number(i), PIN);
+                c.flush();
+                ok &= expect(c.readResponse(), "AUTH kept " + number(i));
+                kept.add(c);
+            }
+
+            HashRing before = new HashRing(nodes);
+            t0 = System.nanoTime();
+            int moved = router.addNode(added);
+            int expectedMoves = 0;
+            HashRing after = new HashRing(router.nodes());
+            for (int i = 0; i < accountCount; i++) {
+                String owner = after.owner(number(i));
+                if (!owner.equals(before.owner(number(i)))) {
+                    expectedMoves++;
+                    ok &= check(owner.equals(added), number(i) + " moved to " + owner + ", not the new node");
+                }
+            }
+            System.out.printf("added %s: moved %d account(s) (%.1f%%, ideal %.1f%%) in %d ms%n", added, moved,
+                    100.0 * moved / accountCount, 100.0 / (nodeCount + 1), (System.nanoTime() - t0) / 1_000_000L);
+            ok &= check(moved == expectedMoves, "moved " + moved + ", ring says " + expectedMoves);
+
+            for (int i = 0; i < KEPT_CONNECTIONS; i++) {
+                BankClient c = kept.get(i);
+                c.sendBalance();
+                c.flush();
+                ok &= expect(c.readResponse(), "BALANCE kept " + number(i)) && check(c.balance() == balance(i),
+                        "kept " + number(i) + " balance " + c.balance());
+                c.close();
+            }
+            ok &= checkBalances(routerAddress, accountCount);
+            router.close();
+            int[] placement = new int[accountCount]; // node index, in start order
+            for (int i = 0; i < accountCount; i++) placement[i] = router.nodes().indexOf(after.owner(number(i)));
+            ok &= checkNodes(router.nodes(), placement);
+
+            // Restarted nodes listen on new ports, so check them directly rather than through a router.
+            for (Process p : processes) {
+                p.destroy();
+                p.waitFor();
+            }
+            processes.clear();
+            List<String> restarted = new ArrayList<>();
+            for (int i = 0; i <= nodeCount; i++) restarted.add(startNode(dir, i, processes));
+            System.out.println("restarted " + restarted.size() + " node(s) from their WALs");
+            ok &= checkNodes(restarted, placement);
+        } finally {
+            for (Process p : processes) p.destroy();
+        }
+        if (!ok) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+
+    private static String number(int i) {
+        return "C" + i;
+    }
+
+    private static long balance(int i) {
+        return 100_00L + i + 1;
+    }
+
+    private static boolean checkBalances(InetSocketAddress router, int accountCount) throws IOException {
+        boolean ok = true;
+        try (BankClient client = BankClient.connect(router)) {
+            for (int i = 0; i < accountCount; i++) {
+                client.sendAuth(number(i), PIN);
+                client.sendBalance();
+            }
+            client.flush();
+            for (int i = 0; i < accountCount; i++) {
+                ok &= expect(client.readResponse(), "AUTH " + number(i));
+                ok &= expect(client.readResponse(), "BALANCE " + number(i))
+                        && check(client.balance() == balance(i), number(i) + " balance " + client.balance());
+            }
+        }
+        System.out.println("balances and PINs through the router " + (ok ? "match" : "DIFFER"));
+        return ok;
+    }
+
+    /**
+     * Lists every node directly: node n must hold exactly the accounts placed on it, each with
+     * its expected balance and PIN.
+     */
+    private static boolean checkNodes(List<String> nodes, int[] placement) throws IOException {
+        boolean ok = true;
+        StringBuilder counts = new StringBuilder();
+        for (int n = 0; n < nodes.size(); n++) {
+            List<String> numbers = new ArrayList<>();
+            try (BankClient client = BankClient.connect(ClusterRouter.addressOf(nodes.get(n)))) {
+                do {
+                    client.sendList(numbers.size(), BankProtocol.MAX_LIST_PAGE);
+                    client.flush();
+                    ok &= expect(client.readResponse(), "LIST");
+                } while (client.readList(numbers) > 0 && numbers.size() < client.listTotal());
+                int expected = 0;
+                for (int p : placement) if (p == n) expected++;
+                ok &= check(numbers.size() == expected, "node " + n + " holds " + numbers.size() + ", expected " + expected);
+                for (String number : numbers) {
+                    int i = Integer.parseInt(number.substring(1));
+                    ok &= check(placement[i] == n, number + " found on node " + n + ", placed on " + placement[i]);
+                    client.sendAuth(number, PIN);
+                    client.sendBalance();
+                    client.flush();
+                    ok &= expect(client.readResponse(), "AUTH " + number + " on node " + n);
+                    ok &= expect(client.readResponse(), "BALANCE " + number + " on node " + n)
+                            && check(client.balance() == balance(i), number + " balance " + client.balance());
+                }
+            }
+            counts.append(n == 0 ? "" : " ").append(numbers.size());
+        }
+        System.out.println("accounts per node: " + counts + (ok ? " (as placed, balances match)" : " — MISMATCH"));
+        return ok;
+    }
+
+    /** Starts node {@code i} from its WAL in {@code dir} on a free loopback port; returns "host:port". */
+    private static String startNode(Path dir, int i, List<Process> processes) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "BankApp",
+                "--wal", dir.resolve("node" + i + ".wal").toString(), "--fsync", "none",
+                "--server", "0", "--server-threads", "1", "--cluster-node")
+                .redirectErrorStream(true).start();
+        processes.add(p);
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            int at = line.indexOf(" on port ");
+            if (line.startsWith("INFO: Serving") && at >= 0) {
+                String port = line.substring(at + 9, line.indexOf(' ', at + 9));
+                Thread drain = new Thread(() -> {
+                    try {
+                        while (out.readLine() != null) {
+                            // keep the pipe from filling up
+                        }
+                    } catch (IOException ignored) {
+                        // node stopped
+                    }
+                });
+                drain.setDaemon(true);
+                drain.start();
+                return "127.0.0.1:" + port;
+            }
+        }
+        throw new IOException("Node " + i + " exited before serving");
+    }
+
+    private static boolean expect(byte status, String what) {
+        return check(status == BankProtocol.OK, what + " answered " + BankProtocol.statusName(status));
+    }
+
+    private static boolean check(boolean condition, String failure) {
+        if (!condition) System.out.println("FAIL: " + failure);
+        return condition;
+    }
+}
@@ -0,0 +1,242 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Identical-result check of the long-cents money paths against the BigDecimal semantics the
+ * original Account had. Reference below re-implements that Account's deposit and withdraw
+ * (round HALF_UP to two decimals if the scale is larger, refuse non-positive amounts and
+ * anything over $1,000,000,000.00, refuse withdrawals over the balance, add or subtract in
+ * BigDecimal), and every case runs against both:
+ *   1. fixed inputs: rounding (half-cent ties, either sign), scale (1, 1.0, 1.00000, 1E+2,
+ *      1E-3), zero and negative amounts, the transaction cap and values far beyond it, null
+ *   2. parsing and printing: Money.parseCents and Money.toCents against new BigDecimal(text)
+ *      rounded, Money.format against "$" + setScale(2).toPlainString()
+ *   3. a seeded random mix of deposits, withdrawals and transfers over a few accounts, with
+ *      the outcome and every balance compared after each operation
+ *   4. balance overflow: starting next to Account.MAX_BALANCE_CENTS, where the reference
+ *      (unbounded BigDecimal) would keep adding, Account must refuse with OVER_BALANCE_LIMIT
+ *      and leave the balance alone; that refusal is the one intended difference
+ * Fails (exit code 1) on the first mismatches of each part.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out MoneyEquivalence [operations] [seed]
+ */
+public class MoneyEquivalence {
+    private static final String[] AMOUNTS = {
+        "0", "0.00", "-0", "-0.00", "0.001", "0.004", "0.005", "0.0049999", "0.0050000001", "-0.005", "-0.004",
+        "0.01", "0.015", "0.025", "1.125", "2.675", "-2.675", "1", "1.0", "1.00000", "12.3", "1E+2", "1E-3", "5E-3",
+        "-1", "-0.01", "-1000000000.00", "999999999.99", "999999999.994", "999999999.995", "1000000000",
+        "1000000000.00", "1000000000.004", "1000000000.005", "1000000000.01", "1000000001", "92233720368547758.07",
+        "92233720368547758.08", "1E+30", "-1E+30", "123456789.987654321",
+    };
+    private static final int MAX_MISMATCHES = 10;
+
+    private static int mismatches;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42L;
+        boolean ok = fixedInputs();
+        ok &= parsingAndPrinting(seed);
+        ok &= randomMix(operations, seed);
+        ok &= balanceOverflow();
+        if (!ok) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+
+    private static boolean fixedInputs() {
+        mismatches = 0;
+        for (String text : AMOUNTS) {
+            BigDecimal amount = new BigDecimal(text);
+            for (String start : new String[] {"0", "0.01", "500.50", "1000000000.00"}) {
+                Reference ref = new Reference(new BigDecimal(start));
+                Account account = newAccount(new BigDecimal(start));
+                compare("deposit " + text + " onto " + start, ref.deposit(amount), account.deposit(amount), ref, account);
+                ref = new Reference(new BigDecimal(start));
+                account = newAccount(new BigDecimal(start));
+                compare("withdraw " + text + " from " + start, ref.withdraw(amount), account.withdraw(amount), ref, account);
+            }
+            // The cents entry points the server and batch use, fed the same rounding as the menu.
+            Reference ref = new Reference(new BigDecimal("500.50"));
+            Account account = newAccount(new BigDecimal("500.50"));
+            compare("depositCents " + text, ref.deposit(amount), account.depositCents(Money.toCents(amount)), ref, account);
+            compare("withdrawCents " + text, ref.withdraw(amount), account.withdrawCents(Money.toCents(amount)), ref,
+                    account);
+        }
+        Reference ref = new Reference(BigDecimal.ONE);
+        Account account = newAccount(BigDecimal.ONE);
+        compare("deposit null", ref.deposit(null), account.deposit(null), ref, account);
+        compare("withdraw null", ref.withdraw(null), account.withdraw(null), ref, account);
+        return report("fixed inputs", AMOUNTS.length * 10 + 2);
+    }
+
+    private static boolean parsingAndPrinting(long seed) {
+        mismatches = 0;
+        Random random = new Random(seed);
+        int cases = 0;
+        for (int i = 0; i < AMOUNTS.length + 100_000; i++) {
+            String text = i < AMOUNTS.length ? AMOUNTS[i] : randomAmount(random);
+            BigDecimal rounded = new BigDecimal(text).setScale(2, RoundingMode.HALF_UP);
+            long expected = saturate(rounded);
+            cases++;
+            check(Money.toCents(new BigDecimal(text)) == expected, "toCents(" + text + ") = "
+                    + Money.toCents(new BigDecimal(text)) + ", expected " + expected);
+            check(Money.parseCents(text, 0, text.length()) == expected, "parseCents(" + text + ") = "
+                    + Money.parseCents(text, 0, text.length()) + ", expected " + expected);
+            if (expected != Long.MAX_VALUE && expected != Long.MIN_VALUE) {
+                String reference = "$" + rounded.toPlainString();
+                check(Money.format(expected).equals(reference), "format(" + expected + ") = " + Money.format(expected)
+                        + ", expected " + reference);
+                check(Money.toBigDecimal(expected).equals(rounded), "toBigDecimal(" + expected + ") = "
+                        + Money.toBigDecimal(expected) + ", expected " + rounded);
+            }
+        }
+        for (long cents : new long[] {Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1, -1, -99, -100, 5, 0}) {
+            cases++;
+            String reference = "$" + BigDecimal.valueOf(cents, 2).toPlainString();
+            check(Money.format(cents).equals(reference), "format(" + cents + ") = " + Money.format(cents)
+                    + ", expected " + reference);
+        }
+        return report("parsing and printing", cases);
+    }
+
+    private static boolean randomMix(int operations, long seed) {
+        mismatches = 0;
+        Random random = new Random(seed);
+        int n = 4;
+        Reference[] refs = new Reference[n];
+        Account[] accounts = new Account[n];
+        for (int i = 0; i < n; i++) {
+            BigDecimal initial = BigDecimal.valueOf(random.nextInt(1_000_000), 2);
+            refs[i] = new Reference(initial);
+            accounts[i] = newAccount(initial);
+        }
+        for (int op = 0; op < operations && mismatches < MAX_MISMATCHES; op++) {
+            int a = random.nextInt(n);
+            String text = random.nextInt(4) == 0 ? AMOUNTS[random.nextInt(AMOUNTS.length)] : randomAmount(random);
+            BigDecimal amount = new BigDecimal(text);
+            switch (random.nextInt(3)) {
+                case 0 -> compare("#" + op + " deposit " + text, refs[a].deposit(amount), accounts[a].deposit(amount),
+                        refs[a], accounts[a]);
+                case 1 -> compare("#" + op + " withdraw " + text, refs[a].withdraw(amount), accounts[a].withdraw(amount),
+                        refs[a], accounts[a]);
+                default -> {
+                    int b = random.nextInt(n);
+                    compare("#" + op + " transfer " + text, Reference.transfer(refs[a], refs[b], amount),
+                            Account.transfer(accounts[a], accounts[b], amount), refs[a], accounts[a]);
+                    compare("#" + op + " transfer " + text + " (destination)", TransactionResult.OK, TransactionResult.OK,
+                            refs[b], accounts[b]);
+                }
+            }
+        }
+        return report("random mix", operations);
+    }
+
+    private static boolean balanceOverflow() {
+        mismatches = 0;
+        long start = Account.MAX_BALANCE_CENTS - 50L;
+        int cases = 0;
+        for (String text : new String[] {"0.49", "0.50", "0.51", "1", "1000000000.00"}) {
+            cases++;
+            BigDecimal amount = new BigDecimal(text);
+            Account account = Account.restoreSnapshot("OVERFLOW", "Overflow", Account.hashPin("1234"), start, 1L,
+                    HistoryStore.HEAP.newHistory("OVERFLOW"));
+            TransactionResult expected = Money.toCents(amount) + start > Account.MAX_BALANCE_CENTS
+                    ? TransactionResult.OVER_BALANCE_LIMIT : TransactionResult.OK;
+            Reference ref = new Reference(null);
+            ref.balance = Money.toBigDecimal(start); // past the cap, so not reachable by one initial deposit
+            if (expected == TransactionResult.OK) ref.deposit(amount);
+            compare("deposit " + text + " near the balance limit", expected, account.deposit(amount), ref, account);
+        }
+        return report("balance overflow", cases);
+    }
+
+    // ---------------------------------------------------------------------------------------
+
+    private static Account newAccount(BigDecimal initial) {
+        return new Account("EQ", "Equivalence", initial, "1234", AccountJournal.NONE, HistoryStore.HEAP);
+    }
+
+    /** A plain decimal with 0-5 fraction digits, up to 12 integer digits, either sign. */
+    private static String randomAmount(Random random) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextInt(8) == 0) sb.append('-');
+        sb.append((long) (Math.pow(10, random.nextInt(13)) * random.nextDouble()));
+        int fraction = random.nextInt(6);
+        if (fraction > 0) {
+            sb.append('.');
+            for (int i = 0; i < fraction; i++) sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+
+    private static long saturate(BigDecimal rounded) {
+        if (rounded.compareTo(BigDecimal.valueOf(Long.MAX_VALUE, 2)) > 0) return Long.MAX_VALUE;
+        if (rounded.compareTo(BigDecimal.valueOf(Long.MIN_VALUE, 2)) < 0) return Long.MIN_VALUE;
+        return rounded.unscaledValue().longValueExact();
+    }
+
+    private static void compare(String what, TransactionResult expected, TransactionResult actual, Reference ref,
+                                Account account) {
+        check(expected == actual, what + ": " + actual + ", expected " + expected);
+        check(ref.balance.equals(account.getBalance()), what + ": balance " + account.getBalance() + ", expected "
+                + ref.balance);
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (condition) return;
+        if (++mismatches <= MAX_MISMATCHES) System.out.println("FAIL: " + failure);
+    }
+
+    private static boolean report(String part, int cases) {
+        System.out.println(part + ": " + cases + " case(s), " + (mismatches == 0 ? "identical" : mismatches + " mismatch(es)"));
+        return mismatches == 0;
+    }
+
+    /** The original BigDecimal Account, outcomes named as Account names them now. */
+    private static final class Reference {
+        private static final BigDecimal CAP = new BigDecimal("1000000000.00");
+
+        BigDecimal balance;
+
+        /** As the original constructor: a positive initial deposit goes through deposit(). */
+        Reference(BigDecimal initial) {
+            balance = BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
+            if (initial != null && initial.compareTo(BigDecimal.ZERO) > 0) deposit(initial);
+        }
+
+        TransactionResult deposit(BigDecimal amount) {
+            if (amount == null) return TransactionResult.NON_POSITIVE; // was an "ERROR: ... cannot be null" refusal
+            if (amount.scale() > 2) amount = amount.setScale(2, RoundingMode.HALF_UP);
+            if (amount.compareTo(BigDecimal.ZERO) <= 0) return TransactionResult.NON_POSITIVE;
+            if (amount.compareTo(CAP) > 0) return TransactionResult.OVER_TRANSACTION_LIMIT;
+            balance = balance.add(amount).setScale(2, RoundingMode.HALF_UP);
+            return TransactionResult.OK;
+        }
+
+        TransactionResult withdraw(BigDecimal amount) {
+            if (amount == null) return TransactionResult.NON_POSITIVE;
+            if (amount.scale() > 2) amount = amount.setScale(2, RoundingMode.HALF_UP);
+            if (amount.compareTo(BigDecimal.ZERO) <= 0) return TransactionResult.NON_POSITIVE;
+            if (amount.compareTo(CAP) > 0) return TransactionResult.OVER_TRANSACTION_LIMIT;
+            if (amount.compareTo(balance) > 0) return TransactionResult.INSUFFICIENT_FUNDS;
+            balance = balance.subtract(amount).setScale(2, RoundingMode.HALF_UP);
+            return TransactionResult.OK;
+        }
+
+        /**
+         * A withdrawal from {@code from} and, only if it succeeds, the same deposit into {@code to}
+         * (the original had no transfer; this is the pair of calls a caller made instead).
+         */
+        static TransactionResult transfer(Reference from, Reference to, BigDecimal amount) {
+            if (amount == null) return TransactionResult.NON_POSITIVE;
+            if (from == to) return TransactionResult.SAME_ACCOUNT;
+            TransactionResult result = from.withdraw(amount);
+            if (result == TransactionResult.OK) to.deposit(amount);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Lookup throughput of {@link ConcurrentAccountRegistry} against the old HashMap behind a
+ * global lock, at 1..32 threads.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out RegistryBenchmark [accounts] [millisPerRun]
+ *
+ * Scaling is bounded by the number of cores available; the registry should track the core
+ * count (linear up to 32 on a 32-core box) while the locked map flattens at one thread.
+ */
+public class RegistryBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1_000;
+
+        String[] keys = new String[accounts];
+        ConcurrentAccountRegistry registry = new ConcurrentAccountRegistry(accounts);
+        Map<String, Account> locked = Collections.synchronizedMap(new HashMap<>());
+        for (int i = 0; i < accounts; i++) {
+            keys[i] = "ACC" + i;
+            Account account = registry.createIfAbsent(keys[i], n -> new Account(n, "Bench", BigDecimal.ZERO, "1234"));
+            locked.put(keys[i], account);
+        }
+
+        System.out.printf("accounts=%d cores=%d run=%dms%n", accounts, Runtime.getRuntime().availableProcessors(), millis);
+        System.out.printf("%-8s %18s %8s %18s %8s%n", "threads", "registry ops/s", "scale", "locked-map ops/s", "scale");
+        double registryBase = 0;
+        double lockedBase = 0;
+        for (int threads : THREADS) {
+            double r = run(threads, millis, keys, registry::get);
+            double l = run(threads, millis, keys, locked::get);
+            if (threads == 1) {
+                registryBase = r;
+                lockedBase = l;
+            }
+            System.out.printf("%-8d %18.0f %8.2f %18.0f %8.2f%n", threads, r, r / registryBase, l, l / lockedBase);
+        }
+    }
+
+    private static double run(int threads, long millis, String[] keys, Function<String, Account> lookup)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            int seed = 0x9E3779B9 * (t + 1);
+            workers[t] = new Thread(() -> {
+                int x = seed;
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (true) {
+                    for (int i = 0; i < 1024; i++) {
+                        x ^= x << 13;
+                        x ^= x >>> 17;
+                        x ^= x << 5;
+                        if (lookup.apply(keys[(x & 0x7FFFFFFF) % keys.length]) == null) throw new AssertionError();
+                    }
+                    count += 1024;
+                    if (System.nanoTime() >= deadline[0]) break;
+                }
+                ops.add(count);
+            });
+            workers[t].start();
+        }
+        deadline[0] = System.nanoTime() + millis * 1_000_000L;
+        start.countDown();
+        for (Thread w : workers) w.join();
+        return ops.sum() * 1000.0 / millis;
+    }
+}
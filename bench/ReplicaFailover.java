@@ -0,0 +1,244 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end check of log shipping with two local JVMs on loopback: a primary BankApp
+ * (--server 0 --replication-port 0) and a replica (--replica-of, --server 0).
+ *
+ * Steps:
+ *   1. seed the primary's WAL with K accounts, start both processes
+ *   2. run deposits and transfers against the primary while reading balances from the replica
+ *   3. wait until the replica reports zero lag; every balance must then match the primary's,
+ *      and writes to the replica must be refused (READ_ONLY)
+ *   4. kill the primary, "promote" the replica and write to it; restart it from its own log
+ *      and check nothing was lost
+ * Fails (exit code 1) if any check does.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out ReplicaFailover [accounts] [operations]
+ */
+public class ReplicaFailover {
+    private static final String PIN = "1234";
+    private static final long INITIAL_CENTS = 1_000_00L;
+    private static final long WAIT_MILLIS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Path dir = Files.createTempDirectory("replica");
+        Path primaryLog = dir.resolve("primary.wal");
+        Path replicaLog = dir.resolve("replica.wal");
+        try (WriteAheadLog wal = WriteAheadLog.open(primaryLog, WriteAheadLog.FsyncPolicy.NONE, 1, 256, null)) {
+            for (int i = 0; i < accountCount; i++) {
+                new Account(number(i), "Holder " + i, Money.toBigDecimal(INITIAL_CENTS), PIN, wal, HistoryStore.HEAP);
+            }
+        }
+
+        boolean ok = true;
+        Node primary = Node.start("--wal", primaryLog.toString(), "--fsync", "batch", "--server", "0",
+                "--server-threads", "1", "--replication-port", "0");
+        Node replica = null;
+        try {
+            int shippingPort = primary.port("INFO: Shipping "); // printed before the server starts
+            int primaryPort = primary.port("INFO: Serving ");
+            replica = Node.start("--wal", replicaLog.toString(), "--fsync", "batch", "--server", "0",
+                    "--server-threads", "1", "--replica-of", "127.0.0.1:" + shippingPort);
+            int replicaPort = replica.port("INFO: Serving ");
+
+            long t0 = System.nanoTime();
+            long maxLag = 0;
+            long replicaReads = 0;
+            try (BankClient writer = BankClient.connect(new InetSocketAddress("127.0.0.1", primaryPort));
+                 BankClient reader = BankClient.connect(new InetSocketAddress("127.0.0.1", replicaPort))) {
+                int batch = 100;
+                for (int done = 0; done < operations; done += batch) {
+                    for (int j = done; j < Math.min(operations, done + batch); j++) {
+                        writer.sendAuth(number(j % accountCount), PIN);
+                        if (j % 2 == 0) writer.sendDeposit(1 + j % 1000);
+                        else writer.sendTransfer(number((j * 7 + 1) % accountCount), 1 + j % 500);
+                    }
+                    writer.flush();
+                    for (int j = done; j < Math.min(operations, done + batch); j++) {
+                        ok &= expect(writer.readResponse(), "AUTH on primary");
+                        byte status = writer.readResponse();
+                        TransactionResult why = writer.rejection(); // a transfer may be refused for funds or to itself
+                        ok &= check(status == BankProtocol.OK || why == TransactionResult.INSUFFICIENT_FUNDS
+                                || why == TransactionResult.SAME_ACCOUNT, "write on primary answered "
+                                + BankProtocol.statusName(status) + " (" + why + ")");
+                    }
+                    reader.sendAuth(number(done % accountCount), PIN);
+                    reader.sendBalance();
+                    reader.flush();
+                    reader.readResponse(); // the account may not have arrived yet
+                    reader.readResponse();
+                    replicaReads++;
+                    if (done % (batch * 20) == 0) maxLag = Math.max(maxLag, replica.lag());
+                }
+            }
+            System.out.printf("%d write(s) on the primary in %d ms, %d read(s) on the replica, max observed lag %d record(s)%n",
+                    operations, (System.nanoTime() - t0) / 1_000_000L, replicaReads, maxLag);
+
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            long lag;
+            while ((lag = replica.lag()) != 0 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            ok &= check(lag == 0, "replica still " + lag + " record(s) behind");
+            long[] expected = balances(primaryPort, accountCount);
+            ok &= check(expected != null, "could not read the primary's balances");
+            ok &= same(expected, balances(replicaPort, accountCount), "replica");
+            try (BankClient c = BankClient.connect(new InetSocketAddress("127.0.0.1", replicaPort))) {
+                c.sendAuth(number(0), PIN);
+                c.sendDeposit(1);
+                c.flush();
+                ok &= expect(c.readResponse(), "AUTH on replica");
+                byte status = c.readResponse();
+                ok &= check(status == BankProtocol.READ_ONLY, "deposit on replica answered " + BankProtocol.statusName(status));
+            }
+
+            primary.process.destroyForcibly().waitFor();
+            t0 = System.nanoTime();
+            replica.command("promote");
+            ok &= check(replica.await("SUCCESS: Promoted") != null, "replica did not promote");
+            System.out.printf("primary killed; replica promoted in %d ms%n", (System.nanoTime() - t0) / 1_000_000L);
+            try (BankClient c = BankClient.connect(new InetSocketAddress("127.0.0.1", replicaPort))) {
+                for (int i = 0; i < accountCount; i++) {
+                    c.sendAuth(number(i), PIN);
+                    c.sendDeposit(100);
+                }
+                c.flush();
+                for (int i = 0; i < accountCount; i++) {
+                    ok &= expect(c.readResponse(), "AUTH on promoted replica");
+                    ok &= expect(c.readResponse(), "DEPOSIT on promoted replica");
+                    if (expected != null) expected[i] += 100;
+                }
+            }
+            ok &= same(expected, balances(replicaPort, accountCount), "promoted replica");
+            replica.process.destroy();
+            replica.process.waitFor();
+
+            replica = Node.start("--wal", replicaLog.toString(), "--server", "0", "--server-threads", "1");
+            ok &= same(expected, balances(replica.port("INFO: Serving "), accountCount), "restarted replica");
+        } finally {
+            primary.process.destroyForcibly();
+            if (replica != null) replica.process.destroyForcibly();
+        }
+        if (!ok) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+
+    private static String number(int i) {
+        return "R" + i;
+    }
+
+    /** Every account's balance on the server at {@code port}, or null if one could not be read. */
+    private static long[] balances(int port, int accountCount) throws IOException {
+        long[] balances = new long[accountCount];
+        try (BankClient c = BankClient.connect(new InetSocketAddress("127.0.0.1", port))) {
+            for (int i = 0; i < accountCount; i++) {
+                c.sendAuth(number(i), PIN);
+                c.sendBalance();
+            }
+            c.flush();
+            for (int i = 0; i < accountCount; i++) {
+                c.readResponse();
+                if (c.readResponse() != BankProtocol.OK) return null;
+                balances[i] = c.balance();
+            }
+        }
+        return balances;
+    }
+
+    private static boolean same(long[] expected, long[] actual, String what) {
+        boolean ok = check(actual != null, "could not read the " + what + "'s balances");
+        for (int i = 0; ok && expected != null && i < expected.length; i++) {
+            ok = check(expected[i] == actual[i], what + " " + number(i) + " has " + actual[i] + ", expected " + expected[i]);
+        }
+        if (ok) System.out.println(what + ": all balances match");
+        return ok;
+    }
+
+    private static boolean expect(byte status, String what) {
+        return check(status == BankProtocol.OK, what + " answered " + BankProtocol.statusName(status));
+    }
+
+    private static boolean check(boolean condition, String failure) {
+        if (!condition) System.out.println("FAIL: " + failure);
+        return condition;
+    }
+
+    /** One BankApp process, its output collected line by line. */
+    private static final class Node {
+        final Process process;
+        final PrintStream stdin;
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+        private Node(Process process) {
+            this.process = process;
+            this.stdin = new PrintStream(process.getOutputStream(), true, StandardCharsets.UTF_8);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                        StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = out.readLine()) != null) lines.add(line);
+                } catch (IOException ignored) {
+                    // process gone
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Node start(String... args) throws IOException {
+            String[] command = new String[args.length + 4];
+            command[0] = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            command[1] = "-cp";
+            command[2] = System.getProperty("java.class.path");
+            command[3] = "BankApp";
+            System.arraycopy(args, 0, command, 4, args.length);
+            return new Node(new ProcessBuilder(command).redirectErrorStream(true).start());
+        }
+
+        void command(String line) {
+            stdin.println(line);
+        }
+
+        /** The next output line starting with {@code prefix}, skipping others; null on timeout. */
+        String await(String prefix) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            String line;
+            while ((line = lines.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) != null) {
+                if (line.startsWith(prefix)) return line;
+            }
+            return null;
+        }
+
+        /** The port announced by the line starting with {@code prefix} ("... port N ..."). */
+        int port(String prefix) throws InterruptedException, IOException {
+            String line = await(prefix);
+            if (line == null) throw new IOException("No '" + prefix + "' line from the process");
+            int at = line.indexOf("port ") + 5;
+            int end = at;
+            while (end < line.length() && Character.isDigit(line.charAt(end))) end++;
+            return Integer.parseInt(line.substring(at, end));
+        }
+
+        /** Replication lag in records, from the replica's "status" command. */
+        long lag() throws InterruptedException, IOException {
+            command("status");
+            String line = await("INFO: Replica at lsn ");
+            if (line == null) throw new IOException("No status from the replica");
+            int at = line.indexOf(", lag ") + 6;
+            return Long.parseLong(line.substring(at, line.indexOf(' ', at)));
+        }
+    }
+}
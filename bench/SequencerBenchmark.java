@@ -0,0 +1,117 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of {@link CommandSequencer}: producer threads publish a deterministic mix of
+ * deposits, withdrawals and transfers over a few accounts, and the sequencer applies them on
+ * its single logic thread. Afterwards a direct, single-threaded replay of the same commands
+ * (in the order the sequencer applied them) must give the same balances; fails (exit code 1)
+ * otherwise or if money was not conserved.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out SequencerBenchmark [producers] [accounts] [commands] [ring]
+ */
+public class SequencerBenchmark {
+    private static final long INITIAL_CENTS = 1_000_00L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int hot = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int commands = args.length > 2 ? Integer.parseInt(args[2]) : 4_000_000;
+        int ringSize = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+        if (hot < 2) throw new IllegalArgumentException("Need at least two accounts");
+
+        AccountRegistry accounts = new ConcurrentAccountRegistry(hot);
+        for (int i = 0; i < hot; i++) {
+            accounts.putIfAbsent(new Account("SEQ" + i, "Sequenced", Money.toBigDecimal(INITIAL_CENTS), "1234"));
+        }
+        String[] numbers = new String[hot];
+        for (int i = 0; i < hot; i++) numbers[i] = "SEQ" + i;
+
+        // Replies arrive in sequence order, so recording each command's inputs there captures
+        // the exact order the logic thread applied them in.
+        byte[] types = new byte[commands];
+        int[] froms = new int[commands];
+        int[] tos = new int[commands];
+        long[] amounts = new long[commands];
+        LongAdder rejected = new LongAdder();
+        CommandSequencer sequencer = new CommandSequencer(accounts, AccountJournal.NONE, HistoryStore.HEAP, ringSize,
+                (c, sequence, endOfBatch) -> {
+                    int s = (int) sequence;
+                    types[s] = c.type;
+                    froms[s] = (int) (c.tag >>> 32);
+                    tos[s] = (int) c.tag;
+                    amounts[s] = c.cents;
+                    if (c.status != BankProtocol.OK) rejected.increment();
+                });
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[producers];
+        for (int t = 0; t < producers; t++) {
+            int seed = 0x2545F491 * (t + 1);
+            int share = commands / producers + (t < commands % producers ? 1 : 0);
+            workers[t] = new Thread(() -> {
+                int x = seed;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < share; i++) {
+                    x ^= x << 13;
+                    x ^= x >>> 17;
+                    x ^= x << 5;
+                    int a = (x & 0x7FFFFFFF) % hot;
+                    int b = (a + 1 + ((x >>> 8) & 0x7FFFFFFF) % (hot - 1)) % hot;
+                    long sequence = sequencer.next();
+                    CommandSequencer.Command c = sequencer.get(sequence);
+                    int kind = (x >>> 28) & 3;
+                    c.type = kind == 0 ? CommandSequencer.DEPOSIT : kind == 1 ? CommandSequencer.WITHDRAW
+                            : CommandSequencer.TRANSFER;
+                    c.account = numbers[a];
+                    c.to = numbers[b];
+                    c.cents = 1 + ((x >>> 4) & 0x3FFF);
+                    c.tag = (long) a << 32 | b;
+                    sequencer.publish(sequence);
+                }
+            });
+            workers[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        sequencer.drain();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        sequencer.close();
+
+        Account[] replay = new Account[hot];
+        for (int i = 0; i < hot; i++) replay[i] = new Account("R" + i, "Replay", Money.toBigDecimal(INITIAL_CENTS), "1234");
+        long deposited = 0;
+        long withdrawn = 0;
+        for (int s = 0; s < commands; s++) {
+            Account from = replay[froms[s]];
+            switch (types[s]) {
+                case CommandSequencer.DEPOSIT -> deposited += from.depositCents(amounts[s]) == TransactionResult.OK ? amounts[s] : 0;
+                case CommandSequencer.WITHDRAW -> withdrawn += from.withdrawCents(amounts[s]) == TransactionResult.OK ? amounts[s] : 0;
+                default -> Account.transferCents(from, replay[tos[s]], amounts[s]);
+            }
+        }
+        boolean same = true;
+        long total = 0;
+        for (int i = 0; i < hot; i++) {
+            long balance = accounts.get(numbers[i]).getBalanceCents();
+            total += balance;
+            same &= balance == replay[i].getBalanceCents();
+        }
+        long expected = INITIAL_CENTS * hot + deposited - withdrawn;
+
+        System.out.printf("producers=%d accounts=%d commands=%d ring=%d rejected=%d throughput=%.0f ops/s%n",
+                producers, hot, commands, ringSize, rejected.sum(), commands / seconds);
+        System.out.printf("total=%s expected=%s replay %s%n", Money.format(total), Money.format(expected),
+                same ? "matches" : "DIFFERS");
+        if (!same || total != expected) {
+            System.out.println("FAIL: sequenced outcome differs from a direct replay");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+}
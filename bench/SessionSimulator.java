@@ -0,0 +1,112 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Drives many scripted {@link BankSession}s at once, one thread per session from
+ * BankSession.newSessionExecutor() (virtual threads on Java 21+), against a write-ahead log with
+ * batched fsync so sessions really park waiting for durability.
+ *
+ * Every session creates its own account, deposits, withdraws, checks its balance and history,
+ * and transfers to one of a few shared hot accounts, so Account balances and locks are contended.
+ * Afterwards the run is checked (every scripted step succeeded, money is conserved) and the
+ * number of jdk.VirtualThreadPinned JFR events (threshold 0) is reported; it must be 0.
+ *
+ * Run: javac -d out *.java bench/*.java
+ *      java -cp out SessionSimulator [sessions] [hotAccounts]
+ *
+ * Notes:
+ * - On Java 17 there are no virtual threads: sessions run on platform threads and the pinning
+ *   check is reported as not applicable. Java 21+ also accepts -Djdk.tracePinnedThreads=full.
+ */
+public class SessionSimulator {
+    private static final String PIN = "1234";
+    private static final int SUCCESSES_PER_SESSION = 4; // create, deposit, withdraw, transfer
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int hot = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        boolean virtual = BankSession.virtualThreadsAvailable();
+        Path dir = Files.createTempDirectory("sessions");
+
+        AtomicLong pinned = new AtomicLong();
+        RecordingStream pinning = new RecordingStream();
+        pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+        pinning.onEvent("jdk.VirtualThreadPinned", e -> {
+            if (pinned.getAndIncrement() == 0) System.out.println("PINNED: " + e);
+        });
+        pinning.startAsync();
+
+        AccountRegistry accounts = new ConcurrentAccountRegistry(sessions + hot);
+        long failed = 0;
+        long successes = 0;
+        long nanos;
+        try (WriteAheadLog wal = WriteAheadLog.open(dir.resolve("sessions.wal"), WriteAheadLog.FsyncPolicy.BATCH, 2, 256,
+                null)) { // fresh log: nothing to replay
+            for (int h = 0; h < hot; h++) {
+                accounts.putIfAbsent(new Account("HOT" + h, "Hot " + h, Money.toBigDecimal(0), PIN, wal, HistoryStore.HEAP));
+            }
+            ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[sessions];
+            Future<?>[] done = new Future<?>[sessions];
+            long t0 = System.nanoTime();
+            ExecutorService executor = BankSession.newSessionExecutor();
+            for (int i = 0; i < sessions; i++) {
+                outputs[i] = new ByteArrayOutputStream(4096);
+                BankSession session = new BankSession(accounts, wal, HistoryStore.HEAP,
+                        new BufferedReader(new StringReader(script(i, hot))),
+                        new BufferedOutputSink(outputs[i], StandardCharsets.UTF_8), 0);
+                done[i] = executor.submit(session);
+            }
+            for (Future<?> f : done) f.get();
+            nanos = System.nanoTime() - t0;
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+
+            for (ByteArrayOutputStream o : outputs) {
+                int n = count(o.toString(StandardCharsets.UTF_8), "SUCCESS:");
+                successes += n;
+                if (n != SUCCESSES_PER_SESSION) failed++;
+            }
+        } finally {
+            pinning.close();
+        }
+
+        long[] sum = {0};
+        accounts.forEach(a -> sum[0] += a.getBalanceCents());
+        long total = sum[0];
+        long expected = sessions * (100_00L + 50_00L - 20_00L); // initial + deposit - withdrawal
+        System.out.printf("executor=%s sessions=%d hot=%d %.2f s %.0f sessions/s%n",
+                virtual ? "virtual" : "platform", sessions, hot, nanos / 1e9, sessions / (nanos / 1e9));
+        System.out.printf("successes=%d failedSessions=%d money %s (%s)%n", successes, failed,
+                total == expected ? "conserved" : "MISMATCH", Money.format(total));
+        System.out.println(virtual ? "pinned events=" + pinned.get() : "pinned events=n/a (no virtual threads on this JVM)");
+        if (failed != 0 || total != expected || pinned.get() != 0) System.exit(1);
+    }
+
+    /** Menu input for session {@code i}; see BankSession for the prompts. */
+    private static String script(int i, int hot) {
+        String acc = "S" + i;
+        return "1\n" + acc + "\nSession " + i + "\n100\n" + PIN + "\n" + PIN + "\n"
+                + "2\n" + acc + "\n" + PIN + "\n50\n"
+                + "3\n" + acc + "\n" + PIN + "\n20\n"
+                + "4\n" + acc + "\n" + PIN + "\n"
+                + "5\n" + acc + "\n" + PIN + "\n"
+                + "7\n" + acc + "\n" + PIN + "\nHOT" + (i % hot) + "\n10\n"
+                + "6\n";
+    }
+
+    private static int count(String text, String needle) {
+        int n = 0;
+        for (int at = text.indexOf(needle); at >= 0; at = text.indexOf(needle, at + needle.length())) n++;
+        return n;
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures snapshot write and restart (load) time for a large account table. Builds
+ * {@code accounts} accounts with one history entry pair each in a temporary directory, takes a
+ * snapshot, then loads it into a fresh registry the way BankApp does on startup.
+ *
+ * Run: javac -d out *.java bench/*.java && java -Xmx4g -cp out SnapshotRestart [accounts]
+ */
+public class SnapshotRestart {
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("snapshot-bench");
+        Path historyDir = dir.resolve("history");
+        Path snapshotDir = dir.resolve("snapshots");
+
+        AccountRegistry accounts = new ConcurrentAccountRegistry(n);
+        MappedHistoryStore store = MappedHistoryStore.open(historyDir, 16);
+        byte[] pinHash = Account.hashPin("1234");
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            String number = "ACC" + i;
+            accounts.putIfAbsent(Account.restore(i + 1L, 0L, number, "Holder " + i, pinHash, 100_00L,
+                    store));
+        }
+        System.out.printf("built %d accounts in %d ms%n", n, (System.nanoTime() - t0) / 1_000_000L);
+
+        try (WriteAheadLog wal = WriteAheadLog.open(dir.resolve("bank.wal"), WriteAheadLog.FsyncPolicy.NONE, 5, 256,
+                null)) { // fresh log: nothing to replay
+            AccountSnapshot snapshots = AccountSnapshot.start(snapshotDir, accounts, wal, store, 0);
+            t0 = System.nanoTime();
+            Path file = snapshots.take();
+            System.out.printf("snapshot %s: %d MB in %d ms%n", file.getFileName(), Files.size(file) >> 20,
+                    (System.nanoTime() - t0) / 1_000_000L);
+        }
+        store.close();
+        accounts = null;
+        System.gc();
+
+        AccountRegistry restored = new ConcurrentAccountRegistry();
+        t0 = System.nanoTime();
+        AccountSnapshot.Loaded loaded = AccountSnapshot.load(AccountSnapshot.latest(snapshotDir), historyDir, restored);
+        System.out.printf("restored %d accounts in %d ms%n", loaded.accounts, (System.nanoTime() - t0) / 1_000_000L);
+        loaded.historyStore.close();
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test for {@link Account#transferCents}: many threads move money in both directions
+ * among a small hot set of accounts. Fails (exit code 1) unless money is conserved, no balance
+ * goes negative, and every successful transfer left one debit and one credit in history.
+ *
+ * Run: javac -d out *.java bench/*.java && java -cp out TransferStress [threads] [accounts] [millis]
+ */
+public class TransferStress {
+    private static final long INITIAL_CENTS = 1_000_00L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int hot = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 2_000;
+        if (hot < 2) throw new IllegalArgumentException("Need at least two accounts");
+
+        Account[] accounts = new Account[hot];
+        for (int i = 0; i < hot; i++) {
+            accounts[i] = new Account("HOT" + i, "Stress", Money.toBigDecimal(INITIAL_CENTS), "1234");
+        }
+        long expectedTotal = INITIAL_CENTS * hot;
+
+        LongAdder ok = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int seed = 0x2545F491 * (t + 1);
+            workers[t] = new Thread(() -> {
+                int x = seed;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 256; i++) {
+                        x ^= x << 13;
+                        x ^= x >>> 17;
+                        x ^= x << 5;
+                        int a = (x & 0x7FFFFFFF) % hot;
+                        int b = (a + 1 + ((x >>> 8) & 0x7FFFFFFF) % (hot - 1)) % hot;
+                        long cents = 1 + ((x >>> 4) & 0x3FFF);
+                        if (Account.transferCents(accounts[a], accounts[b], cents) == TransactionResult.OK) ok.increment();
+                        else rejected.increment();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+
+        long total = 0;
+        long outs = 0;
+        long ins = 0;
+        boolean negative = false;
+        for (Account a : accounts) {
+            long balance = a.getBalanceCents();
+            total += balance;
+            negative |= balance < 0;
+            for (String entry : a.getTransactionHistoryCopy()) {
+                if (entry.contains("] Transferred to ")) outs++;
+                else if (entry.contains("] Received from ")) ins++;
+            }
+        }
+
+        System.out.printf("threads=%d accounts=%d transfers=%d rejected=%d throughput=%.0f ops/s%n",
+                threads, hot, ok.sum(), rejected.sum(), (ok.sum() + rejected.sum()) / seconds);
+        System.out.printf("total=%s expected=%s debits=%d credits=%d%n",
+                Money.format(total), Money.format(expectedTotal), outs, ins);
+        if (total != expectedTotal || negative || outs != ok.sum() || ins != ok.sum()) {
+            System.out.println("FAIL: money was not conserved");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+}